@@ -0,0 +1,45 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The content of a mail attachment, it may live in memory or
+ * in a spool file depending on the {@link AttachmentStore} used.
+ *
+ * @author mnova
+ */
+public interface AttachmentContent {
+
+    /**
+     * @return the size in bytes of the content.
+     */
+    long getSize();
+
+    /**
+     * Open a new stream on the content, each call returns an independent
+     * stream positioned at the beginning, the caller must close it.
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * Open a new channel on the content, the caller must close it.
+     */
+    ReadableByteChannel openChannel() throws IOException;
+
+    /**
+     * Read the whole content in memory, avoid it for big attachments.
+     *
+     * The returned array may be shared with the content (i.e. the array of an in memory
+     * content is returned as is, without a copy): the caller must not modify it.
+     */
+    byte[] toByteArray() throws IOException;
+
+    /**
+     * Release any resources held by the content (i.e. spool files),
+     * the content cannot be used anymore after this call.
+     */
+    void release();
+
+}
@@ -0,0 +1,139 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * An immutable, compiled, attachment filter of a route: the accepted extensions are
+ * lowercased once and the attachment name is lowercased once for each check.
+ *
+ * The filter only uses the envelope data of the attachment (its name, content type and
+ * declared size) so the parsers can check it before the attachment content is read.
+ * Besides the image extensions it may accept other extensions (i.e. pdf or docx files
+ * used by a custom publisher).
+ *
+ * @author mnova
+ */
+public final class AttachmentFilter {
+
+    public static final AttachmentFilter ACCEPT_ALL = new AttachmentFilter(null, null, -1);
+
+    private final List<String> sourceExtensions;
+    private final List<String> sourceOtherExtensions;
+    private final String[] extensions;
+    private final long minImageSize;
+
+    private AttachmentFilter(final List<String> extensions,
+                             final List<String> otherExtensions,
+                             final long minImageSize) {
+        this.sourceExtensions = copyOf(extensions);
+        this.sourceOtherExtensions = copyOf(otherExtensions);
+        if (extensions != null && !extensions.isEmpty()) {
+            final List<String> accepted = new ArrayList<>(extensions);
+            if (otherExtensions != null) {
+                accepted.addAll(otherExtensions);
+            }
+            this.extensions = accepted.stream().map(String::toLowerCase).toArray(String[]::new);
+        } else {
+            this.extensions = null;
+        }
+        this.minImageSize = minImageSize;
+    }
+
+    private static List<String> copyOf(final List<String> list) {
+        return Collections.unmodifiableList(new ArrayList<>(orEmpty(list)));
+    }
+
+    private static List<String> orEmpty(final List<String> list) {
+        return (list != null) ? list : Collections.emptyList();
+    }
+
+    /**
+     * @param extensions the accepted extensions (null or empty to accept any name).
+     * @param minImageSize the min size of the images.
+     * @return the compiled filter.
+     */
+    public static AttachmentFilter compile(final List<String> extensions,
+                                           final long minImageSize) {
+        return compile(extensions, null, minImageSize);
+    }
+
+    /**
+     * @param extensions the accepted image extensions (null or empty to accept any name).
+     * @param otherExtensions the other accepted extensions (may be null), they are only used with the image ones.
+     * @param minImageSize the min size of the images.
+     * @return the compiled filter.
+     */
+    public static AttachmentFilter compile(final List<String> extensions,
+                                           final List<String> otherExtensions,
+                                           final long minImageSize) {
+        return new AttachmentFilter(extensions, otherExtensions, minImageSize);
+    }
+
+    /**
+     * @return true if this filter has been compiled from the same extensions and min size.
+     */
+    public boolean isCompiledFrom(final List<String> extensions,
+                                  final long minImageSize) {
+        return isCompiledFrom(extensions, null, minImageSize);
+    }
+
+    /**
+     * @return true if this filter has been compiled from the same extensions and min size.
+     */
+    public boolean isCompiledFrom(final List<String> extensions,
+                                  final List<String> otherExtensions,
+                                  final long minImageSize) {
+        return this.minImageSize == minImageSize &&
+                sourceExtensions.equals(orEmpty(extensions)) &&
+                sourceOtherExtensions.equals(orEmpty(otherExtensions));
+    }
+
+    public long getMinImageSize() {
+        return minImageSize;
+    }
+
+    /**
+     * @param filename the attachment name.
+     * @return true if the name ends with one of the accepted extensions.
+     */
+    public boolean acceptName(final String filename) {
+        if (extensions == null) {
+            return true;
+        }
+        if (filename == null) {
+            return false;
+        }
+        final String name = filename.toLowerCase();
+        for (final String extension : extensions) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param filename the attachment name.
+     * @param contentType the attachment content type.
+     * @param declaredSize the declared (encoded) size or -1 when unknown.
+     * @return true if the attachment should be read.
+     */
+    public boolean accept(final String filename,
+                          final String contentType,
+                          final long declaredSize) {
+        if (!acceptName(filename)) {
+            return false;
+        }
+        // the decoded size is never greater than the encoded one, so an image
+        // whose encoded size is not greater than the min size would be discarded.
+        final boolean image = Optional.ofNullable(contentType)
+                                      .orElse("")
+                                      .toLowerCase()
+                                      .startsWith("image");
+        return !(image && declaredSize >= 0 && declaredSize <= minImageSize);
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Store the attachments content while the mail is being processed.
+ *
+ * @author mnova
+ */
+public interface AttachmentStore {
+
+    /**
+     * Store the given stream, the stream will be fully consumed
+     * but it will not be closed.
+     *
+     * @param name the attachment name.
+     * @param is the attachment content.
+     * @return the stored content.
+     */
+    AttachmentContent store(final String name,
+                            final InputStream is) throws IOException;
+
+}
@@ -0,0 +1,277 @@
+package com.atex.plugins.mailimporter;
+
+/**
+ * A chain of streaming character transformations, each char goes through
+ * all the stages without building intermediate strings.
+ *
+ * Each {@link #replace(String, String, Sink)} stage behaves exactly like
+ * {@link String#replace(CharSequence, CharSequence)} so a chain of stages
+ * gives the same result of a chain of <code>replace</code> calls.
+ *
+ * @author mnova
+ */
+final class CharPipeline {
+
+    private CharPipeline() {
+    }
+
+    /**
+     * A stage in the pipeline.
+     */
+    interface Sink {
+
+        void append(final char c);
+
+        /**
+         * Called when there are no more chars.
+         */
+        void end();
+
+        default void append(final CharSequence s) {
+            for (int idx = 0; idx < s.length(); idx++) {
+                append(s.charAt(idx));
+            }
+        }
+
+    }
+
+    /**
+     * Push the whole text in the sink and end it.
+     */
+    static <T extends Sink> T feed(final CharSequence text,
+                                   final T sink) {
+        if (text != null) {
+            sink.append(text);
+        }
+        sink.end();
+        return sink;
+    }
+
+    /**
+     * Replace each occurrence of the target with the replacement (like {@link String#replace(CharSequence, CharSequence)}).
+     */
+    static Sink replace(final String target,
+                        final String replacement,
+                        final Sink next) {
+        if (target.length() == 1) {
+            return replace(target.charAt(0), replacement, next);
+        }
+        return new ReplaceSink(target, replacement, next);
+    }
+
+    /**
+     * Replace each occurrence of the target char with the replacement.
+     */
+    static Sink replace(final char target,
+                        final String replacement,
+                        final Sink next) {
+        return new Sink() {
+            @Override
+            public void append(final char c) {
+                if (c == target) {
+                    next.append(replacement);
+                } else {
+                    next.append(c);
+                }
+            }
+
+            @Override
+            public void end() {
+                next.end();
+            }
+        };
+    }
+
+    /**
+     * Collect the chars in a {@link StringBuilder}.
+     */
+    static class StringSink implements Sink {
+
+        private final StringBuilder sb;
+
+        StringSink(final int capacity) {
+            sb = new StringBuilder(capacity);
+        }
+
+        @Override
+        public void append(final char c) {
+            sb.append(c);
+        }
+
+        @Override
+        public void end() {
+        }
+
+        StringBuilder getBuilder() {
+            return sb;
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Same as {@link StringUtils#trimLines(String)}: empty lines are removed,
+     * each line is trimmed and the lines are joined with a new line.
+     */
+    static class TrimLinesSink extends StringSink {
+
+        private final StringBuilder out;
+        private boolean inLine = false;
+        private boolean firstLine = true;
+        private int lineStart = 0;
+
+        TrimLinesSink(final int capacity) {
+            super(capacity);
+            out = getBuilder();
+        }
+
+        @Override
+        public void append(final char c) {
+            if (c == '\n') {
+                endLine();
+                return;
+            }
+            if (!inLine) {
+                inLine = true;
+                if (!firstLine) {
+                    out.append('\n');
+                }
+                firstLine = false;
+                lineStart = out.length();
+            }
+            if (c > ' ' || out.length() > lineStart) {
+                out.append(c);
+            }
+        }
+
+        @Override
+        public void end() {
+            endLine();
+        }
+
+        private void endLine() {
+            if (inLine) {
+                int len = out.length();
+                while (len > lineStart && out.charAt(len - 1) <= ' ') {
+                    len--;
+                }
+                out.setLength(len);
+                inLine = false;
+            }
+        }
+    }
+
+    /**
+     * Same as <code>StringUtils.linesToParagraphs(StringEscapeUtils.escapeHtml(s))</code>:
+     * since the escaped lines cannot contain a paragraph tag each line is wrapped in
+     * a paragraph, trailing empty lines are ignored.
+     */
+    static class EscapedParagraphsSink extends StringSink {
+
+        private final StringBuilder out;
+        private boolean started = false;
+        private int newLines = 0;
+
+        EscapedParagraphsSink(final int capacity) {
+            super(capacity);
+            out = getBuilder();
+        }
+
+        @Override
+        public void append(final char c) {
+            if (c == '\n') {
+                // wait for the next char, trailing empty lines must be ignored.
+                newLines++;
+                return;
+            }
+            if (!started) {
+                out.append("<p>");
+                started = true;
+            }
+            for (; newLines > 0; newLines--) {
+                out.append("</p>\n<p>");
+            }
+            HtmlEscaping.appendEscapedHtml(out, c);
+        }
+
+        @Override
+        public void end() {
+            if (started) {
+                out.append("</p>");
+            } else {
+                // the text is empty or it only contains new lines.
+                out.append("<p>");
+                for (; newLines > 0; newLines--) {
+                    out.append('\n');
+                }
+                out.append("</p>");
+            }
+        }
+    }
+
+    private static class ReplaceSink implements Sink {
+
+        private final char[] target;
+        private final String replacement;
+        private final Sink next;
+        private final char[] pending;
+        private int len = 0;
+
+        ReplaceSink(final String target,
+                    final String replacement,
+                    final Sink next) {
+            this.target = target.toCharArray();
+            this.replacement = replacement;
+            this.next = next;
+            this.pending = new char[this.target.length];
+        }
+
+        @Override
+        public void append(final char c) {
+            if (len == 0 && c != target[0]) {
+                next.append(c);
+                return;
+            }
+            pending[len++] = c;
+            if (pending[len - 1] != target[len - 1]) {
+                // no match starting at the first pending char, emit the chars until
+                // the pending ones are again the beginning of the target.
+                int start = 1;
+                while (start < len && !isTargetPrefix(start)) {
+                    start++;
+                }
+                for (int idx = 0; idx < start; idx++) {
+                    next.append(pending[idx]);
+                }
+                System.arraycopy(pending, start, pending, 0, len - start);
+                len -= start;
+            }
+            if (len == target.length) {
+                next.append(replacement);
+                len = 0;
+            }
+        }
+
+        private boolean isTargetPrefix(final int start) {
+            for (int idx = start; idx < len; idx++) {
+                if (pending[idx] != target[idx - start]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void end() {
+            for (int idx = 0; idx < len; idx++) {
+                next.append(pending[idx]);
+            }
+            len = 0;
+            next.end();
+        }
+    }
+
+}
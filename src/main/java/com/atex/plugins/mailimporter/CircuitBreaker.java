@@ -0,0 +1,80 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A simple circuit breaker: after <code>failureThreshold</code> consecutive failures the circuit
+ * is opened and the calls are rejected for <code>openMillis</code>, then a single trial call is
+ * allowed: when it succeeds the circuit is closed again, otherwise it stays open for another period.
+ *
+ * A threshold less than 1 disables the circuit breaker, instances are thread safe.
+ *
+ * @author mnova
+ */
+class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LongSupplier clock;
+
+    private int failures = 0;
+    private long openUntil = 0;
+    private boolean trialRunning = false;
+
+    CircuitBreaker(final int failureThreshold,
+                   final long openMillis) {
+        this(failureThreshold, openMillis, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(final int failureThreshold,
+                   final long openMillis,
+                   final LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return true if the call can be done, the caller must then call
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        if (failureThreshold < 1 || failures < failureThreshold) {
+            return true;
+        }
+        if (trialRunning || clock.getAsLong() < openUntil) {
+            return false;
+        }
+        // half open, only one call is allowed to check the service.
+        trialRunning = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        failures = 0;
+        trialRunning = false;
+    }
+
+    synchronized void onFailure() {
+        trialRunning = false;
+        if (failureThreshold < 1) {
+            return;
+        }
+        failures = Math.min(failures + 1, failureThreshold);
+        if (failures >= failureThreshold) {
+            openUntil = clock.getAsLong() + openMillis;
+        }
+    }
+
+    /**
+     * Give up a call allowed by {@link #allowRequest()} without an outcome (i.e. it was never made).
+     */
+    synchronized void onCancel() {
+        trialRunning = false;
+    }
+
+    synchronized boolean isOpen() {
+        return failureThreshold > 0 && failures >= failureThreshold;
+    }
+
+}
@@ -1,11 +1,17 @@
 package com.atex.plugins.mailimporter;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -28,6 +34,7 @@ import com.atex.onecms.content.files.FileService;
 import com.atex.onecms.content.metadata.MetadataInfo;
 import com.atex.onecms.image.ImageInfoAspectBean;
 import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+import com.google.common.hash.HashCode;
 import com.polopoly.application.Application;
 import com.polopoly.application.IllegalApplicationStateException;
 import com.polopoly.cm.client.CMException;
@@ -59,12 +66,15 @@ public class ContentPublisher implements MailPublisher {
 
     static final ThreadLocal<MailImporterConfig> IMPORTER_CONFIG = new ThreadLocal<>();
     static final ThreadLocal<List<ContentId>> CREATE_IDS = ThreadLocal.withInitial(ArrayList::new);
+    static final ThreadLocal<Semaphore> WRITE_PERMITS = new ThreadLocal<>();
+    private static final ThreadLocal<HashCode> IMAGE_HASH = new ThreadLocal<>();
 
     private FileService fileService = null;
     private ContentManager contentManager = null;
     private MailProcessorUtils mailProcessorUtils = null;
     private PolicyCMServer cmServer = null;
     private ModelDomain modelDomain;
+    private volatile ContentWritePipeline writePipeline = null;
 
     private Application application;
 
@@ -209,26 +219,239 @@ public class ContentPublisher implements MailPublisher {
                                       .stream()
                                       .filter(filename -> isAcceptedImageExtension(config.getAcceptedImageExtensions(), filename))
                                       .collect(Collectors.toList());
-        for (String filename : keys) {
-            final ContentId contentId = createImage(
+        final ImageHashIndex hashIndex = getImageHashIndex(routeConfig);
+        // each image is imported (hashed, uploaded and created) by the shared write pipeline, up to
+        // imageConcurrency images of the mail at the same time, this thread only collects the results.
+        // An image which cannot be imported is logged and skipped, so the other images are used anyway.
+        final List<CompletableFuture<ImportedImage>> futures = new ArrayList<>();
+        WRITE_PERMITS.set(new Semaphore(Math.max(1, routeConfig.getImageConcurrency())));
+        try {
+            for (String filename : keys) {
+                final MailBeanAttachment attachment = mail.getAttachments()
+                                                          .get(filename);
+                final int imageNumber = imageCounter.incrementAndGet();
+                futures.add(submitWrite(() -> importImage(
+                        config,
+                        routeConfig,
+                        mailProcessorUtils,
+                        mail,
+                        hashIndex,
+                        filename,
+                        attachment,
+                        imageNumber,
+                        keys.size()
+                )));
+            }
+            LOG.debug("Submitted " + futures.size() + " images, write queue depth: " + getWritePipeline().getQueueDepth());
+
+            // the results are in the attachments order, whatever the order the images have been imported.
+            for (int idx = 0; idx < futures.size(); idx++) {
+                final ImportedImage result;
+                try {
+                    result = futures.get(idx).get();
+                } catch (ExecutionException e) {
+                    LOG.error("Cannot import image " + keys.get(idx), e.getCause());
+                    continue;
+                }
+                if (result.contentId != null) {
+                    images.add(0, result.contentId);
+                    if (result.created) {
+                        CREATE_IDS.get().add(result.contentId);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // the images not started yet will not be imported.
+            futures.forEach(future -> future.cancel(false));
+            final String createdIds = futures.stream()
+                                             .filter(future -> future.isDone() && !future.isCompletedExceptionally())
+                                             .map(CompletableFuture::join)
+                                             .filter(result -> result.created && result.contentId != null)
+                                             .map(result -> IdUtil.toIdString(result.contentId))
+                                             .collect(Collectors.joining(","));
+            if (!createdIds.isEmpty()) {
+                LOG.warn("Interrupted while importing the images, the images " + createdIds + " will not be used");
+            }
+            throw e;
+        } finally {
+            WRITE_PERMITS.remove();
+        }
+
+        BeanUtils.setProperty(articleBean, "images", images);
+        return articleBean;
+    }
+
+    private ImportedImage importImage(final MailImporterConfig config,
+                                      final MailRouteConfig routeConfig,
+                                      final MailProcessorUtils mailProcessorUtils,
+                                      final MailBean mail,
+                                      final ImageHashIndex hashIndex,
+                                      final String filename,
+                                      final MailBeanAttachment attachment,
+                                      final int imageNumber,
+                                      final int imageCount) throws Exception {
+        final HashCode hash = (hashIndex != null) ? hashImage(filename, attachment) : null;
+        final ContentId existingId = findImage(hashIndex, hash, routeConfig);
+        if (existingId != null) {
+            LOG.info("Reusing image " + filename + " with contentid: " + IdUtil.toIdString(existingId));
+            return new ImportedImage(existingId, false);
+        }
+        final ContentId contentId;
+        // createImage will use the hash as the metadata cache key.
+        IMAGE_HASH.set(hash);
+        try {
+            contentId = createImage(
                     config,
                     routeConfig,
                     mailProcessorUtils,
                     mail,
                     filename,
-                    mail.getAttachments()
-                        .get(filename),
-                    imageCounter.incrementAndGet(),
-                    keys.size()
+                    attachment,
+                    imageNumber,
+                    imageCount
             );
-            if (contentId != null) {
-                images.add(0, contentId);
-                CREATE_IDS.get().add(contentId);
+        } finally {
+            IMAGE_HASH.remove();
+        }
+        if (contentId != null) {
+            indexImage(hashIndex, hash, contentId);
+        }
+        return new ImportedImage(contentId, true);
+    }
+
+    /**
+     * Submit a content write to the shared write pipeline, while publishing a mail the caller
+     * is blocked when imageConcurrency writes of the mail are already pending.
+     *
+     * @param write the write, it can use {@link #getConfig()} but it must not submit other writes.
+     * @return the future of the write result.
+     */
+    protected <T> CompletableFuture<T> submitWrite(final Callable<T> write) throws InterruptedException {
+        final MailImporterConfig config = IMPORTER_CONFIG.get();
+        final Semaphore permits = WRITE_PERMITS.get();
+        if (permits != null) {
+            permits.acquire();
+        }
+        final CompletableFuture<T> future;
+        try {
+            future = getWritePipeline().submit(() -> {
+                IMPORTER_CONFIG.set(config);
+                try {
+                    return write.call();
+                } finally {
+                    IMPORTER_CONFIG.remove();
+                }
+            });
+        } catch (InterruptedException | RuntimeException e) {
+            if (permits != null) {
+                permits.release();
             }
+            throw e;
         }
+        if (permits != null) {
+            future.whenComplete((result, error) -> permits.release());
+        }
+        return future;
+    }
 
-        BeanUtils.setProperty(articleBean, "images", images);
-        return articleBean;
+    /**
+     * @return the write pipeline shared by all the mails, it is created on the first call.
+     */
+    protected ContentWritePipeline getWritePipeline() {
+        ContentWritePipeline pipeline = writePipeline;
+        if (pipeline == null) {
+            synchronized (this) {
+                pipeline = writePipeline;
+                if (pipeline == null) {
+                    pipeline = ContentWritePipeline.create();
+                    writePipeline = pipeline;
+                }
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     * Shutdown the write pipeline, the pending writes are completed first.
+     */
+    @Override
+    public void shutdown() {
+        final ContentWritePipeline pipeline;
+        synchronized (this) {
+            pipeline = writePipeline;
+            writePipeline = null;
+        }
+        if (pipeline != null) {
+            LOG.info("Shutting down the write pipeline, write queue depth: " + pipeline.getQueueDepth());
+            pipeline.shutdown();
+        }
+    }
+
+    /**
+     * @param routeConfig the route config.
+     * @return the index of the images already imported or null when it is not configured.
+     */
+    protected ImageHashIndex getImageHashIndex(final MailRouteConfig routeConfig) {
+        final String path = routeConfig.getImageHashIndex();
+        if (StringUtil.isEmpty(path)) {
+            return null;
+        }
+        try {
+            return ImageHashIndex.of(new File(path));
+        } catch (IOException e) {
+            LOG.error("Cannot open the image hash index " + path + ", images will not be deduplicated", e);
+            return null;
+        }
+    }
+
+    private HashCode hashImage(final String name,
+                               final MailBeanAttachment attachment) {
+        try (final InputStream is = attachment.openStream()) {
+            return ImageHashIndex.hash(is);
+        } catch (IOException e) {
+            LOG.warn("Cannot hash image " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the id of the image already imported with the same hash or null.
+     */
+    protected ContentId findImage(final ImageHashIndex hashIndex,
+                                  final HashCode hash,
+                                  final MailRouteConfig routeConfig) {
+        if (hashIndex == null || hash == null) {
+            return null;
+        }
+        try {
+            final String id = hashIndex.get(hash);
+            if (id == null) {
+                return null;
+            }
+            final ContentId contentId = IdUtil.fromString(id);
+            // the image may have been deleted since we imported it.
+            if (contentManager.resolve(contentId, createSubject(routeConfig)) == null) {
+                hashIndex.remove(hash);
+                return null;
+            }
+            return contentId;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot lookup image hash " + hash + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void indexImage(final ImageHashIndex hashIndex,
+                            final HashCode hash,
+                            final ContentId contentId) {
+        if (hashIndex == null || hash == null) {
+            return;
+        }
+        try {
+            hashIndex.put(hash, IdUtil.toIdString(contentId));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot index image hash " + hash + ": " + e.getMessage());
+        }
     }
 
     int getNumberOfWords(final String value) {
@@ -258,19 +481,39 @@ public class ContentPublisher implements MailPublisher {
                                     final int imageNumber,
                                     final int imageCount) throws Exception {
         final FileInfo fInfo;
-        final MailProcessorUtils.MetadataTagsHolder metadataTags;
-
-        final byte[] imageData = attachment.getContent();
-
-        try (final ByteArrayInputStream bis = new ByteArrayInputStream(imageData)) {
-            final String mimeType = MimeTypeUtils.getMimeType(bis)
-                                                 .orElse("image/jpeg");
-            bis.reset();
-
-            metadataTags = mailProcessorUtils.getMetadataTags(bis);
-            bis.reset();
+        MailProcessorUtils.MetadataTagsHolder metadataTags;
+
+        // the attachment is read only once, each consumer gets
+        // its own stream on the shared buffer.
+        final ImagePipeline image = ImagePipeline.of(attachment.getData());
+        final String mimeType = image.getMimeType()
+                                     .orElse("image/jpeg");
+
+        // the metadata are read from the original image, the hash (when the image hash index
+        // is used) is the metadata cache key too, so the image is not hashed twice.
+        metadataTags = mailProcessorUtils.getMetadataTags(
+                image,
+                mimeType,
+                MailProcessorUtils.isLocalImageMetadata(routeConfig),
+                IMAGE_HASH.get());
+
+        final ImagePipeline upload;
+        final Optional<ImageDownscaler.DownscaledImage> downscaled = createImageDownscaler(routeConfig).downscale(image, mimeType);
+        if (downscaled.isPresent()) {
+            final ImageHeaderReader.ImageSize size = downscaled.get().getSize();
+            LOG.info(String.format("Downscaled image %s from %d to %d bytes (%s)",
+                    name,
+                    image.getSize(),
+                    downscaled.get().getData().length,
+                    size));
+            upload = ImagePipeline.of(new MemoryAttachmentContent(downscaled.get().getData()));
+            metadataTags = MailProcessorUtils.withImageSize(metadataTags, size.getWidth(), size.getHeight());
+        } else {
+            upload = image;
+        }
 
-            fInfo = fileService.uploadFile(SCHEME_TMP, null, name, bis, mimeType, createSubject(routeConfig));
+        try (final InputStream is = upload.openStream()) {
+            fInfo = fileService.uploadFile(SCHEME_TMP, null, name, is, mimeType, createSubject(routeConfig));
             assert fInfo != null;
         }
 
@@ -295,6 +538,14 @@ public class ContentPublisher implements MailPublisher {
         );
     }
 
+    /**
+     * @param routeConfig the route config.
+     * @return the downscaler of the images bigger than the route limits.
+     */
+    protected ImageDownscaler createImageDownscaler(final MailRouteConfig routeConfig) {
+        return new ImageDownscaler(routeConfig.getImageMaxPixels(), routeConfig.getImageMaxBytes());
+    }
+
     protected Object createImageBean(final MailImporterConfig config,
                                      final MailRouteConfig routeConfig,
                                      final MailProcessorUtils mailProcessorUtils,
@@ -397,8 +648,9 @@ public class ContentPublisher implements MailPublisher {
 
     protected boolean isAcceptedImageExtension(final List<String> acceptedImageExtensions,
                                                final String filename) {
+        final String name = filename.toLowerCase();
         for (String suffix : acceptedImageExtensions) {
-            if (filename.toLowerCase().endsWith(suffix)) {
+            if (name.endsWith(suffix)) {
                 return true;
             }
         }
@@ -430,4 +682,16 @@ public class ContentPublisher implements MailPublisher {
             throw new RuntimeException(e);
         }
     }
+
+    private static class ImportedImage {
+
+        private final ContentId contentId;
+        private final boolean created;
+
+        ImportedImage(final ContentId contentId,
+                      final boolean created) {
+            this.contentId = contentId;
+            this.created = created;
+        }
+    }
 }
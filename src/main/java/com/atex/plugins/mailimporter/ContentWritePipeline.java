@@ -0,0 +1,166 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pipeline for the content writes (the image content creates), it is shared by all
+ * the mails published by a {@link ContentPublisher} so no thread pool is created for each mail.
+ *
+ * The writes run on a fixed pool of <code>concurrency</code> threads and at most <code>maxPending</code>
+ * writes can be queued or running: when the limit is reached {@link #submit(Callable)} blocks the caller
+ * (the mail route) until a write completes, so the mails with many images cannot flood the content manager.
+ * The number of the pending writes is reported by {@link #getQueueDepth()}.
+ *
+ * @author mnova
+ */
+public class ContentWritePipeline {
+
+    static final String CONCURRENCY_PARAMETER = "mail.importer.write.concurrency";
+    static final String MAX_PENDING_PARAMETER = "mail.importer.write.maxPending";
+
+    private static final int DEFAULT_CONCURRENCY = 8;
+    private static final int DEFAULT_MAX_PENDING = 64;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final int concurrency;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    public ContentWritePipeline(final int concurrency,
+                                final int maxPending) {
+        this.concurrency = Math.max(1, concurrency);
+        this.maxPending = Math.max(this.concurrency, maxPending);
+        this.permits = new Semaphore(this.maxPending, true);
+        final AtomicInteger threadCounter = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(this.concurrency, r -> {
+            final Thread thread = new Thread(r, "mail-importer-write-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return a pipeline configured with the <code>mail.importer.write.concurrency</code> (default 8)
+     * and <code>mail.importer.write.maxPending</code> (default 64) system properties.
+     */
+    public static ContentWritePipeline create() {
+        return new ContentWritePipeline(
+                Integer.getInteger(CONCURRENCY_PARAMETER, DEFAULT_CONCURRENCY),
+                Integer.getInteger(MAX_PENDING_PARAMETER, DEFAULT_MAX_PENDING));
+    }
+
+    /**
+     * Submit a write, the caller is blocked while there are already <code>maxPending</code> pending writes.
+     * A write whose future is cancelled before it starts is never called.
+     *
+     * @param write the write.
+     * @return the future of the write result.
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> write) throws InterruptedException {
+        permits.acquire();
+        pending.incrementAndGet();
+        final Write<T> task = new Write<>(write);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            release();
+            task.future.completeExceptionally(e);
+        }
+        return task.future;
+    }
+
+    private void release() {
+        pending.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * @return the number of the writes submitted and not completed yet (queued or running).
+     */
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Stop the pipeline, the pending writes are given up to 30 seconds to complete: the ones still
+     * queued after that are never called and their futures fail, the running ones are interrupted.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                abort(executor.shutdownNow());
+            }
+        } catch (InterruptedException e) {
+            abort(executor.shutdownNow());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    private void abort(final List<Runnable> writes) {
+        for (final Runnable write : writes) {
+            if (write instanceof Write) {
+                ((Write<?>) write).abort();
+            }
+        }
+    }
+
+    private class Write<T> implements Runnable {
+
+        private final Callable<T> write;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Write(final Callable<T> write) {
+            this.write = write;
+        }
+
+        @Override
+        public void run() {
+            T result = null;
+            Throwable error = null;
+            try {
+                if (!future.isDone()) {
+                    result = write.call();
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                // released before the completion, so the queue depth is up to date for the waiting callers.
+                release();
+            }
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+
+        void abort() {
+            release();
+            future.completeExceptionally(new RejectedExecutionException("the write pipeline has been shut down"));
+        }
+    }
+
+}
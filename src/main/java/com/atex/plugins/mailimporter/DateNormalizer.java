@@ -0,0 +1,216 @@
+package com.atex.plugins.mailimporter;
+
+import java.text.ParsePosition;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Normalize the dates found in the images metadata to the
+ * <code>yyyy-MM-dd'T'HH:mm:ss'Z'</code> format (the date is kept in the local time zone).
+ *
+ * The formatters are compiled only once, the shape of the date (the sequence of
+ * numbers and separators, i.e. <code>2020-01-31T10:00</code> has the shape <code>n-n-nTn:n</code>)
+ * is used to select the only pattern which can parse it, the longest pattern
+ * whose shape is a prefix of the date shape is used so trailing text (like a
+ * time zone) is ignored and, like SimpleDateFormat, the leading whitespaces are skipped.
+ * The date fields are resolved leniently (<code>2020:13:01</code> is <code>2021:01:01</code>)
+ * and dates in the future are replaced with the current date.
+ *
+ * The parsed dates are cached so the same date string is parsed only once,
+ * instances are thread safe.
+ *
+ * @author mnova
+ */
+public class DateNormalizer {
+
+    static final String[] DATE_PATTERNS = new String[] {
+            "yyyy:MM:dd HH:mm:ss", "yyyy:MM:dd HH:mm", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm",
+            "yyyy.MM.dd HH:mm:ss", "yyyy.MM.dd HH:mm", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss'Z'",
+            "yyyy-MM-dd'T'HH:mm", "yyyy:MM:dd", "yyyy-MM-dd", "yyyy-MM", "yyyy", "yyyyMMdd"
+    };
+
+    private static final DateTimeFormatter OUTPUT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+    private static final char NUMBER = 'n';
+    private static final char COMPACT_DATE = 'N';
+    private static final int COMPACT_DATE_LENGTH = 8;
+
+    private final List<DatePattern> patterns;
+    private final Cache<String, Optional<LocalDateTime>> cache;
+
+    public DateNormalizer(final int cacheSize) {
+        final List<DatePattern> list = new ArrayList<>(DATE_PATTERNS.length);
+        for (final String pattern : DATE_PATTERNS) {
+            list.add(new DatePattern(pattern));
+        }
+        // the longest shape wins.
+        list.sort((p1, p2) -> Integer.compare(p2.shape.length(), p1.shape.length()));
+        this.patterns = Collections.unmodifiableList(list);
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumSize(cacheSize)
+                                 .build();
+    }
+
+    /**
+     * @param dateString a date.
+     * @return the normalized date or null if the date cannot be parsed.
+     */
+    public String normalize(final String dateString) {
+        if (dateString == null) {
+            return null;
+        }
+        Optional<LocalDateTime> date = cache.getIfPresent(dateString);
+        if (date == null) {
+            date = Optional.ofNullable(parse(dateString));
+            cache.put(dateString, date);
+        }
+        if (!date.isPresent()) {
+            return null;
+        }
+
+        // if date in the future, take current
+        final LocalDateTime now = LocalDateTime.now();
+        if (date.get().isAfter(now)) {
+            return OUTPUT_FORMATTER.format(now);
+        }
+        return OUTPUT_FORMATTER.format(date.get());
+    }
+
+    LocalDateTime parse(final String dateString) {
+        final String value = dateString.trim();
+        final String shape = shapeOf(value);
+        for (final DatePattern pattern : patterns) {
+            if (shape.startsWith(pattern.shape)) {
+                try {
+                    final TemporalAccessor temporal = pattern.formatter.parse(value, new ParsePosition(0));
+                    return LocalDateTime.from(temporal);
+                } catch (RuntimeException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Each run of digits is replaced by {@link #NUMBER} (or {@link #COMPACT_DATE}
+     * when it has exactly 8 digits), other chars are kept.
+     */
+    static String shapeOf(final String dateString) {
+        final StringBuilder sb = new StringBuilder(dateString.length());
+        int idx = 0;
+        while (idx < dateString.length()) {
+            final char c = dateString.charAt(idx);
+            if (isDigit(c)) {
+                final int start = idx;
+                while (idx < dateString.length() && isDigit(dateString.charAt(idx))) {
+                    idx++;
+                }
+                sb.append((idx - start) == COMPACT_DATE_LENGTH ? COMPACT_DATE : NUMBER);
+            } else {
+                sb.append(c);
+                idx++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static class DatePattern {
+
+        final String shape;
+        final DateTimeFormatter formatter;
+
+        DatePattern(final String pattern) {
+            final StringBuilder shape = new StringBuilder();
+            final DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+            int compactLength = 0;
+            int idx = 0;
+            while (idx < pattern.length()) {
+                final char c = pattern.charAt(idx);
+                if (c == '\'') {
+                    final int end = pattern.indexOf('\'', idx + 1);
+                    final String literal = pattern.substring(idx + 1, end);
+                    builder.appendLiteral(literal);
+                    shape.append(literal);
+                    idx = end + 1;
+                    continue;
+                }
+                if (!Character.isLetter(c)) {
+                    builder.appendLiteral(c);
+                    shape.append(c);
+                    idx++;
+                    continue;
+                }
+                int end = idx;
+                while (end < pattern.length() && pattern.charAt(end) == c) {
+                    end++;
+                }
+                final ChronoField field = fieldOf(c);
+                final boolean adjacent = (idx > 0 && Character.isLetter(pattern.charAt(idx - 1))) ||
+                        (end < pattern.length() && Character.isLetter(pattern.charAt(end)));
+                if (adjacent) {
+                    // numbers without separators have a fixed width.
+                    builder.appendValue(field, end - idx);
+                    compactLength += end - idx;
+                } else {
+                    // like SimpleDateFormat any number of digits is accepted.
+                    builder.appendValue(field, 1, 10, SignStyle.NOT_NEGATIVE);
+                    shape.append(NUMBER);
+                }
+                idx = end;
+            }
+            if (compactLength > 0) {
+                shape.append(compactLength == COMPACT_DATE_LENGTH ? COMPACT_DATE : NUMBER);
+            }
+            this.shape = shape.toString();
+            this.formatter = builder.parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
+                                    .parseDefaulting(ChronoField.DAY_OF_MONTH, 1)
+                                    .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+                                    .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
+                                    .parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0)
+                                    .toFormatter()
+                                    .withResolverStyle(ResolverStyle.LENIENT);
+        }
+
+        private static ChronoField fieldOf(final char c) {
+            switch (c) {
+                case 'y':
+                    return ChronoField.YEAR;
+                case 'M':
+                    return ChronoField.MONTH_OF_YEAR;
+                case 'd':
+                    return ChronoField.DAY_OF_MONTH;
+                case 'H':
+                    return ChronoField.HOUR_OF_DAY;
+                case 'm':
+                    return ChronoField.MINUTE_OF_HOUR;
+                case 's':
+                    return ChronoField.SECOND_OF_MINUTE;
+                default:
+                    throw new IllegalArgumentException("Unsupported pattern letter " + c);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return shape;
+        }
+    }
+
+}
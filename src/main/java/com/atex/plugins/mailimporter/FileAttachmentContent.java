@@ -0,0 +1,65 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link AttachmentContent} spooled to a file, the file
+ * will be deleted when the content is released.
+ *
+ * @author mnova
+ */
+public class FileAttachmentContent implements AttachmentContent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileAttachmentContent.class);
+
+    private final File file;
+    private final long size;
+
+    public FileAttachmentContent(final File file) {
+        this.file = file;
+        this.size = file.length();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return new BufferedInputStream(Files.newInputStream(file.toPath()));
+    }
+
+    @Override
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Override
+    public void release() {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOG.warn("cannot delete spool file " + file.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+}
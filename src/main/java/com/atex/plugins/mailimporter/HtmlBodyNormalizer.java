@@ -0,0 +1,142 @@
+package com.atex.plugins.mailimporter;
+
+import static com.atex.plugins.mailimporter.CharPipeline.feed;
+import static com.atex.plugins.mailimporter.CharPipeline.replace;
+
+import org.jsoup.parser.Parser;
+
+import com.atex.plugins.mailimporter.CharPipeline.Sink;
+import com.atex.plugins.mailimporter.CharPipeline.StringSink;
+import com.atex.plugins.mailimporter.CharPipeline.TrimLinesSink;
+
+/**
+ * Convert the (cleaned) html body of a mail in the lead and the paragraphs body.
+ *
+ * The html layout is specified as:
+ * <pre>
+ *          lead
+ *          &lt;p&gt;{whitespace}&lt;/p&gt;
+ *          body
+ * </pre>
+ * newlines are not required.
+ *
+ * The html tags are converted to lines while streaming the text, only the final
+ * text is buffered, the result is the same we had by chaining <code>String.replace</code>,
+ * {@link StringUtils#trimLines(String)}, <code>StringEscapeUtils.escapeHtml</code>,
+ * <code>StringEscapeUtils.unescapeXml</code> and {@link StringUtils#linesToParagraphs(String)}.
+ *
+ * @author mnova
+ */
+public final class HtmlBodyNormalizer {
+
+    private final String lead;
+    private final String body;
+
+    private HtmlBodyNormalizer(final String lead,
+                               final String body) {
+        this.lead = lead;
+        this.body = body;
+    }
+
+    public String getLead() {
+        return lead;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public static HtmlBodyNormalizer normalize(final String html) {
+        final String fullText = Parser.unescapeEntities(html, true);
+
+        final TrimLinesSink lines = new TrimLinesSink(fullText.length());
+
+        // the stages are chained from the last to the first one.
+        Sink sink = lines;
+
+        // normalize line endings
+        sink = replace(" \n", "\n", sink);
+        sink = replace("\n ", "\n", sink);
+
+        // convert divs into new lines
+        sink = replace("</div>", "\n", sink);
+        sink = replace("<div>", "", sink);
+
+        // convert line breaks into new lines
+        sink = replace("<br />", "\n", sink);
+        sink = replace("<br/>", "\n", sink);
+        sink = replace("<br>", "\n", sink);
+
+        // convert paragraphs into new lines.
+        sink = replace("</p>", "\n", sink);
+        sink = replace("<p>", "", sink);
+
+        // ignore text lines
+        sink = replace('\r', "", sink);
+        sink = replace('\n', "", sink);
+
+        // NBSP will cause lot of issues, convert them
+        sink = replace('\u00A0', " ", sink);
+        sink = replace("&nbsp;", " ", sink);
+
+        feed(fullText, sink);
+
+        final StringBuilder text = lines.getBuilder();
+
+        int leadEnd = 0;
+        int bodyStart = 0;
+        int idx = text.indexOf("\n\n");
+        if (idx >= 0) {
+            leadEnd = idx;
+            bodyStart = idx + 2;
+        } else {
+            idx = text.indexOf("\n");
+            if (idx >= 0) {
+                leadEnd = idx;
+                bodyStart = idx + 1;
+            }
+        }
+
+        // remove the inlined [cid:...] markers, see InlinedCIDReferences.
+
+        final StringBuilder lead = new StringBuilder(leadEnd + 16);
+        final StringBuilder leadText = removeInlinedCIDReferences(text, trimStart(text, 0, leadEnd), trimEnd(text, 0, leadEnd));
+        HtmlEscaping.appendHtmlEntities(lead, leadText, 0, leadText.length());
+
+        final StringBuilder bodyText = removeInlinedCIDReferences(
+                text,
+                trimStart(text, bodyStart, text.length()),
+                trimEnd(text, bodyStart, text.length())
+        );
+        return new HtmlBodyNormalizer(lead.toString(), ParagraphCodec.linesToParagraphs(bodyText, HtmlEscaping::appendHtmlEntities));
+    }
+
+    private static StringBuilder removeInlinedCIDReferences(final CharSequence text,
+                                                           final int start,
+                                                           final int end) {
+        final StringSink sink = new StringSink(Math.max(0, end - start));
+        InlinedCIDReferences.remove(text, start, end, sink);
+        return sink.getBuilder();
+    }
+
+    static int trimStart(final CharSequence text,
+                         final int start,
+                         final int end) {
+        int idx = start;
+        while (idx < end && text.charAt(idx) <= ' ') {
+            idx++;
+        }
+        return idx;
+    }
+
+    static int trimEnd(final CharSequence text,
+                       final int start,
+                       final int end) {
+        int idx = end;
+        while (idx > start && text.charAt(idx - 1) <= ' ') {
+            idx--;
+        }
+        return idx;
+    }
+
+}
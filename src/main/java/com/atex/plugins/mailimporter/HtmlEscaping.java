@@ -0,0 +1,83 @@
+package com.atex.plugins.mailimporter;
+
+import org.apache.commons.lang.Entities;
+
+/**
+ * Html escaping helpers which append to a {@link StringBuilder}
+ * instead of creating intermediate strings.
+ *
+ * @author mnova
+ */
+final class HtmlEscaping {
+
+    private HtmlEscaping() {
+    }
+
+    /**
+     * Same as <code>StringEscapeUtils.unescapeXml(StringEscapeUtils.escapeHtml(s))</code>:
+     * the chars with an html 4.0 entity name are replaced with the entity, except the
+     * ones escaped by xml too (<code>&quot; &amp; &lt; &gt;</code>) which are left untouched,
+     * the numeric entities created by escapeHtml are unescaped too, so those chars are left
+     * untouched.
+     *
+     * @param sb where the text will be appended.
+     * @param s the text.
+     * @param start the start index (inclusive).
+     * @param end the end index (exclusive).
+     */
+    static void appendHtmlEntities(final StringBuilder sb,
+                                   final CharSequence s,
+                                   final int start,
+                                   final int end) {
+        for (int idx = start; idx < end; idx++) {
+            final char c = s.charAt(idx);
+            // the only ascii chars with an entity name are the xml ones.
+            final String name = (c < 0x80) ? null : Entities.HTML40.entityName(c);
+            if (name == null) {
+                sb.append(c);
+            } else {
+                sb.append('&').append(name).append(';');
+            }
+        }
+    }
+
+    /**
+     * Same as <code>StringEscapeUtils.escapeHtml(String.valueOf(c))</code>: the chars with
+     * an html 4.0 entity name are replaced with the entity, the other non ascii chars
+     * are replaced with a numeric entity.
+     *
+     * @param sb where the text will be appended.
+     * @param c the char.
+     */
+    static void appendEscapedHtml(final StringBuilder sb,
+                                  final char c) {
+        if (c < 0x80) {
+            // the only ascii chars with an entity name are the xml ones.
+            switch (c) {
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+            return;
+        }
+        final String name = Entities.HTML40.entityName(c);
+        if (name == null) {
+            sb.append("&#").append((int) c).append(';');
+        } else {
+            sb.append('&').append(name).append(';');
+        }
+    }
+
+}
@@ -0,0 +1,416 @@
+package com.atex.plugins.mailimporter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atex.plugins.mailimporter.ImageHeaderReader.ImageSize;
+
+/**
+ * Downscale the images bigger than a max number of pixels or bytes before they are uploaded.
+ *
+ * The image is decoded by ImageIO with a source subsampling: only one pixel every <code>n</code>
+ * is kept while the rows are decoded, so the full size raster is never allocated. The exif, xmp
+ * (APP1), icc profile (APP2) and iptc (APP13) segments of a jpeg and the text and exif chunks of a png
+ * are copied from the original image, their values (i.e. the orientation) still apply to the downscaled
+ * one; the exif pixel dimensions of a jpeg are updated to the new size.
+ *
+ * Only jpeg and png are supported, the other images (and the ones which cannot be decoded, i.e. cmyk
+ * jpeg) are never downscaled.
+ *
+ * @author mnova
+ */
+public class ImageDownscaler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageDownscaler.class);
+
+    private static final float JPEG_QUALITY = 0.9f;
+    private static final int MAX_ATTEMPTS = 4;
+
+    private static final byte[] PNG_SIGNATURE = new byte[] { (byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a };
+    private static final String[] PNG_METADATA_CHUNKS = new String[] { "tEXt", "zTXt", "iTXt", "eXIf" };
+
+    private static final int SOI = 0xd8;
+    private static final int SOS = 0xda;
+    private static final int APP0 = 0xe0;
+    private static final int APP1 = 0xe1;
+    private static final int APP2 = 0xe2;
+    private static final int APP13 = 0xed;
+
+    private static final byte[] EXIF_HEADER = "Exif\u0000\u0000".getBytes(StandardCharsets.US_ASCII);
+    private static final int EXIF_IFD_POINTER = 0x8769;
+    private static final int PIXEL_X_DIMENSION = 0xa002;
+    private static final int PIXEL_Y_DIMENSION = 0xa003;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private final long maxPixels;
+    private final long maxBytes;
+
+    /**
+     * @param maxPixels the max number of pixels (width * height), less than 1 for no limit.
+     * @param maxBytes the max size of the image, less than 1 for no limit.
+     */
+    public ImageDownscaler(final long maxPixels,
+                           final long maxBytes) {
+        this.maxPixels = maxPixels;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxPixels > 0 || maxBytes > 0;
+    }
+
+    /**
+     * @param image the image.
+     * @param mimeType the image mime type.
+     * @return the downscaled image or empty if the image is within the limits or it cannot be downscaled.
+     */
+    public Optional<DownscaledImage> downscale(final ImagePipeline image,
+                                               final String mimeType) {
+        if (!isEnabled() || !("image/jpeg".equals(mimeType) || "image/png".equals(mimeType))) {
+            return Optional.empty();
+        }
+        try {
+            final ImageSize size;
+            try (final InputStream is = image.openStream()) {
+                size = ImageHeaderReader.read(is).orElse(null);
+            }
+            if (size == null) {
+                return Optional.empty();
+            }
+            final long pixels = (long) size.getWidth() * size.getHeight();
+            final long bytes = image.getSize();
+            if ((maxPixels <= 0 || pixels <= maxPixels) && (maxBytes <= 0 || bytes <= maxBytes)) {
+                return Optional.empty();
+            }
+            int factor = getSubsampling(size, bytes);
+            DownscaledImage best = null;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                final DownscaledImage downscaled = downscale(image, mimeType, factor);
+                if (downscaled == null) {
+                    break;
+                }
+                if (downscaled.getData().length < bytes) {
+                    best = downscaled;
+                }
+                if (maxBytes <= 0 || downscaled.getData().length <= maxBytes) {
+                    break;
+                }
+                // the encoded size is roughly proportional to the pixels.
+                final double ratio = (double) downscaled.getData().length / maxBytes;
+                factor = Math.max(factor + 1, (int) Math.ceil(factor * Math.sqrt(ratio)));
+            }
+            return Optional.ofNullable(best);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot downscale image: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    int getSubsampling(final ImageSize size,
+                       final long bytes) {
+        double ratio = 1;
+        if (maxPixels > 0) {
+            ratio = Math.max(ratio, (double) size.getWidth() * size.getHeight() / maxPixels);
+        }
+        if (maxBytes > 0) {
+            ratio = Math.max(ratio, (double) bytes / maxBytes);
+        }
+        int factor = Math.max(2, (int) Math.ceil(Math.sqrt(ratio)));
+        // the subsampled size is rounded up.
+        while (maxPixels > 0 && subsampled(size.getWidth(), factor) * subsampled(size.getHeight(), factor) > maxPixels) {
+            factor++;
+        }
+        return factor;
+    }
+
+    private static long subsampled(final int value,
+                                   final int factor) {
+        return (value + factor - 1) / factor;
+    }
+
+    private DownscaledImage downscale(final ImagePipeline image,
+                                      final String mimeType,
+                                      final int factor) throws IOException {
+        final BufferedImage bufferedImage = read(image, factor);
+        if (bufferedImage == null) {
+            return null;
+        }
+        final byte[] encoded = write(bufferedImage, mimeType);
+        if (encoded == null) {
+            return null;
+        }
+        final ByteBuffer original = image.asByteBuffer();
+        final byte[] data = "image/jpeg".equals(mimeType)
+                ? copyJpegMetadata(original, encoded, bufferedImage.getWidth(), bufferedImage.getHeight())
+                : copyPngMetadata(original, encoded);
+        return new DownscaledImage(data, new ImageSize(bufferedImage.getWidth(), bufferedImage.getHeight()));
+    }
+
+    private BufferedImage read(final ImagePipeline image,
+                               final int factor) throws IOException {
+        try (final ImageInputStream iis = image.openImageInputStream()) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            final ImageReader reader = readers.next();
+            try {
+                // the metadata are copied from the original bytes.
+                reader.setInput(iis, true, true);
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private byte[] write(final BufferedImage bufferedImage,
+                         final String mimeType) throws IOException {
+        final Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(mimeType);
+        if (!writers.hasNext()) {
+            return null;
+        }
+        final ImageWriter writer = writers.next();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            if ("image/jpeg".equals(mimeType)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(JPEG_QUALITY);
+            }
+            writer.write(null, new IIOImage(bufferedImage, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Copy the APP1, APP2 and APP13 segments of the original image after the SOI and APP0 segments of the
+     * encoded one, the APP2 segments are not copied when the encoder already wrote an icc profile.
+     */
+    private byte[] copyJpegMetadata(final ByteBuffer original,
+                                    final byte[] encoded,
+                                    final int width,
+                                    final int height) {
+        int insert = 2;
+        boolean encodedProfile = false;
+        while (insert + 4 <= encoded.length && (encoded[insert] & 0xff) == 0xff) {
+            final int marker = encoded[insert + 1] & 0xff;
+            if (marker == APP2) {
+                encodedProfile = true;
+            } else if (marker != APP0) {
+                break;
+            }
+            insert += 2 + (((encoded[insert + 2] & 0xff) << 8) | (encoded[insert + 3] & 0xff));
+        }
+        final List<byte[]> segments = new ArrayList<>();
+        final int limit = original.limit();
+        int pos = 2;
+        while (pos + 4 <= limit && (original.get(pos) & 0xff) == 0xff) {
+            final int marker = original.get(pos + 1) & 0xff;
+            if (marker == 0xff) {
+                // fill byte.
+                pos++;
+                continue;
+            }
+            if (marker == SOS || marker == SOI || (marker >= 0xd0 && marker <= 0xd9) || marker == 0x01) {
+                break;
+            }
+            final int end = pos + 2 + (((original.get(pos + 2) & 0xff) << 8) | (original.get(pos + 3) & 0xff));
+            if (end > limit) {
+                break;
+            }
+            if (marker == APP1 || marker == APP13 || (marker == APP2 && !encodedProfile)) {
+                final byte[] segment = copy(original, pos, end);
+                if (marker == APP1) {
+                    updateExifPixelDimensions(segment, width, height);
+                }
+                segments.add(segment);
+            }
+            pos = end;
+        }
+        if (segments.isEmpty()) {
+            return encoded;
+        }
+        return insert(encoded, insert, segments);
+    }
+
+    /**
+     * Set the PixelXDimension and PixelYDimension tags of the exif IFD to the downscaled size,
+     * the segment is left as it is when it is not an exif segment or its IFDs cannot be read.
+     *
+     * @param segment the APP1 segment (with its marker and length).
+     */
+    static void updateExifPixelDimensions(final byte[] segment,
+                                          final int width,
+                                          final int height) {
+        final int tiffStart = 4 + EXIF_HEADER.length;
+        if (segment.length < tiffStart + 8) {
+            return;
+        }
+        for (int idx = 0; idx < EXIF_HEADER.length; idx++) {
+            if (segment[4 + idx] != EXIF_HEADER[idx]) {
+                return;
+            }
+        }
+        final ByteBuffer tiff = ByteBuffer.wrap(segment, tiffStart, segment.length - tiffStart).slice();
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) != 'M' || tiff.get(1) != 'M') {
+            return;
+        }
+        final int exifIfd = findEntry(tiff, tiff.getInt(4), EXIF_IFD_POINTER);
+        if (exifIfd < 0) {
+            return;
+        }
+        final int exifOffset = tiff.getInt(exifIfd + 8);
+        setDimension(tiff, findEntry(tiff, exifOffset, PIXEL_X_DIMENSION), width);
+        setDimension(tiff, findEntry(tiff, exifOffset, PIXEL_Y_DIMENSION), height);
+    }
+
+    /**
+     * @return the position of the IFD entry with the given tag or -1.
+     */
+    private static int findEntry(final ByteBuffer tiff,
+                                 final int ifdOffset,
+                                 final int tag) {
+        if (ifdOffset < 8 || ifdOffset + 2 > tiff.limit()) {
+            return -1;
+        }
+        final int count = tiff.getShort(ifdOffset) & 0xffff;
+        for (int idx = 0; idx < count; idx++) {
+            final int entry = ifdOffset + 2 + idx * 12;
+            if (entry + 12 > tiff.limit()) {
+                return -1;
+            }
+            if ((tiff.getShort(entry) & 0xffff) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private static void setDimension(final ByteBuffer tiff,
+                                     final int entry,
+                                     final int value) {
+        if (entry < 0 || tiff.getInt(entry + 4) != 1) {
+            return;
+        }
+        final int type = tiff.getShort(entry + 2) & 0xffff;
+        if (type == TYPE_SHORT && value <= 0xffff) {
+            tiff.putShort(entry + 8, (short) value);
+        } else if (type == TYPE_LONG) {
+            tiff.putInt(entry + 8, value);
+        }
+    }
+
+    /**
+     * Copy the text and exif chunks of the original image after the IHDR chunk of the encoded one.
+     */
+    private byte[] copyPngMetadata(final ByteBuffer original,
+                                   final byte[] encoded) {
+        final List<byte[]> chunks = new ArrayList<>();
+        final int limit = original.limit();
+        int pos = PNG_SIGNATURE.length;
+        while (pos + 8 <= limit) {
+            final long end = pos + 12 + (original.getInt(pos) & 0xffffffffL);
+            if (end > limit) {
+                break;
+            }
+            final String type = new String(new char[] {
+                    (char) original.get(pos + 4),
+                    (char) original.get(pos + 5),
+                    (char) original.get(pos + 6),
+                    (char) original.get(pos + 7)
+            });
+            if (type.equals("IEND")) {
+                break;
+            }
+            for (final String metadataType : PNG_METADATA_CHUNKS) {
+                if (type.equals(metadataType)) {
+                    chunks.add(copy(original, pos, (int) end));
+                }
+            }
+            pos = (int) end;
+        }
+        if (chunks.isEmpty()) {
+            return encoded;
+        }
+        // IHDR is always the first chunk.
+        final int insert = PNG_SIGNATURE.length + 12 + ByteBuffer.wrap(encoded, PNG_SIGNATURE.length, 4).getInt();
+        return insert(encoded, insert, chunks);
+    }
+
+    private static byte[] copy(final ByteBuffer original,
+                               final int start,
+                               final int end) {
+        final byte[] data = new byte[end - start];
+        final ByteBuffer view = original.duplicate();
+        view.position(start);
+        view.get(data);
+        return data;
+    }
+
+    private byte[] insert(final byte[] encoded,
+                          final int insert,
+                          final List<byte[]> segments) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length + 16384);
+        out.write(encoded, 0, insert);
+        for (final byte[] segment : segments) {
+            out.write(segment, 0, segment.length);
+        }
+        out.write(encoded, insert, encoded.length - insert);
+        return out.toByteArray();
+    }
+
+    /**
+     * The downscaled image and its size.
+     */
+    public static class DownscaledImage {
+
+        private final byte[] data;
+        private final ImageSize size;
+
+        DownscaledImage(final byte[] data,
+                        final ImageSize size) {
+            this.data = data;
+            this.size = size;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public ImageSize getSize() {
+            return size;
+        }
+    }
+
+}
@@ -0,0 +1,420 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A persistent index from the SHA-256 hash of an image to the id of the
+ * content created for it, so the same image received more than once is imported only once.
+ *
+ * The index is an open addressing hash table (linear probing) stored in a file, each
+ * slot has a fixed size so a lookup only reads the slots it probes and the memory
+ * used does not depend on the number of entries, the most recently used entries are
+ * kept in memory too. The table is doubled (in a new file which replaces the old one)
+ * when it is 3/4 full.
+ *
+ * Use {@link #of(File)} to share the same instance between the routes, instances are thread safe.
+ *
+ * @author mnova
+ */
+public class ImageHashIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageHashIndex.class);
+
+    private static final Map<String, ImageHashIndex> INDEXES = new ConcurrentHashMap<>();
+
+    static final int KEY_SIZE = 32;
+    static final int MAX_VALUE_LENGTH = 94;
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    static final int DEFAULT_HOT_SET_SIZE = 10000;
+
+    private static final int MAGIC = 0x4d494858;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    // state (1) + key (32) + value length (1) + value (94)
+    private static final int SLOT_SIZE = 128;
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int REHASH_BATCH = 512;
+
+    private final Path path;
+    private final Cache<HashCode, String> hotSet;
+    private final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+    private FileChannel channel;
+    private int capacity;
+    private int size;
+    private int deleted;
+
+    public ImageHashIndex(final File file) throws IOException {
+        this(file, DEFAULT_CAPACITY, DEFAULT_HOT_SET_SIZE);
+    }
+
+    /**
+     * @param file the index file, it will be created if it does not exists.
+     * @param initialCapacity the initial number of slots (rounded to a power of two), only used for a new file.
+     * @param hotSetSize the number of entries kept in memory.
+     */
+    public ImageHashIndex(final File file,
+                          final int initialCapacity,
+                          final int hotSetSize) throws IOException {
+        this.path = file.toPath();
+        this.hotSet = CacheBuilder.newBuilder()
+                                  .maximumSize(hotSetSize)
+                                  .build();
+        if (Files.exists(path) && Files.size(path) > 0) {
+            open();
+        } else {
+            final Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = create(path, tableSize(initialCapacity));
+            capacity = tableSize(initialCapacity);
+            size = 0;
+            deleted = 0;
+        }
+    }
+
+    /**
+     * @param file the index file.
+     * @return the index shared by all the users of the same file.
+     */
+    public static ImageHashIndex of(final File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        ImageHashIndex index = INDEXES.get(key);
+        if (index == null) {
+            synchronized (INDEXES) {
+                index = INDEXES.get(key);
+                if (index == null) {
+                    index = new ImageHashIndex(file);
+                    INDEXES.put(key, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param is the image content, it will be read till the end but not closed.
+     * @return the SHA-256 hash of the content.
+     */
+    public static HashCode hash(final InputStream is) throws IOException {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        ByteStreams.copy(is, Funnels.asOutputStream(hasher));
+        return hasher.hash();
+    }
+
+    /**
+     * @param hash the image hash.
+     * @return the value for the hash or null if it is not known.
+     */
+    public synchronized String get(final HashCode hash) throws IOException {
+        final String cached = hotSet.getIfPresent(hash);
+        if (cached != null) {
+            return cached;
+        }
+        final int idx = probe(hash);
+        if (idx < 0) {
+            return null;
+        }
+        readSlot(channel, idx, slot);
+        final int length = slot.get(1 + KEY_SIZE) & 0xff;
+        final String value = new String(slot.array(), 2 + KEY_SIZE, length, StandardCharsets.UTF_8);
+        hotSet.put(hash, value);
+        return value;
+    }
+
+    /**
+     * @param hash the image hash.
+     * @param value the value (the content id), at most {@link #MAX_VALUE_LENGTH} bytes in UTF-8.
+     */
+    public synchronized void put(final HashCode hash,
+                                 final String value) throws IOException {
+        final byte[] key = checkKey(hash);
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_VALUE_LENGTH) {
+            throw new IllegalArgumentException("value too long: " + value);
+        }
+        if ((size + deleted + 1) > (capacity / 4) * 3) {
+            rehash();
+        }
+        final int idx = probe(hash);
+        final int target;
+        if (idx >= 0) {
+            target = idx;
+        } else {
+            target = -(idx + 1);
+            readSlot(channel, target, slot);
+            if (slot.get(0) == DELETED) {
+                deleted--;
+            }
+            size++;
+        }
+        slot.clear();
+        slot.put(USED)
+            .put(key)
+            .put((byte) bytes.length)
+            .put(bytes);
+        writeSlot(channel, target, slot);
+        writeHeader();
+        hotSet.put(hash, value);
+    }
+
+    /**
+     * @param hash the image hash.
+     * @return true if the hash was in the index.
+     */
+    public synchronized boolean remove(final HashCode hash) throws IOException {
+        hotSet.invalidate(hash);
+        final int idx = probe(hash);
+        if (idx < 0) {
+            return false;
+        }
+        // a tombstone keeps the probe sequences of the other keys intact.
+        slot.clear();
+        slot.put(DELETED);
+        writeSlot(channel, idx, slot);
+        size--;
+        deleted++;
+        writeHeader();
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        INDEXES.remove(path.toFile().getAbsolutePath(), this);
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * @return the slot index of the hash or <code>-(slot + 1)</code> where slot is the one
+     * where the hash should be inserted.
+     */
+    private int probe(final HashCode hash) throws IOException {
+        final byte[] key = checkKey(hash);
+        final int mask = capacity - 1;
+        int free = -1;
+        int idx = (int) hash.asLong() & mask;
+        for (int count = 0; count < capacity; count++) {
+            readSlot(channel, idx, slot);
+            final byte state = slot.get(0);
+            if (state == EMPTY) {
+                return -((free >= 0 ? free : idx) + 1);
+            }
+            if (state == DELETED) {
+                if (free < 0) {
+                    free = idx;
+                }
+            } else if (sameKey(key, slot)) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        if (free < 0) {
+            throw new IOException("the index " + path + " is full");
+        }
+        return -(free + 1);
+    }
+
+    private void rehash() throws IOException {
+        final int newCapacity = (size + 1) > (capacity / 8) * 3 ? capacity * 2 : capacity;
+        if (newCapacity > MAX_CAPACITY) {
+            throw new IOException("the index " + path + " cannot grow anymore");
+        }
+        LOG.info(String.format("Rehashing %s from %d to %d slots (%d entries)", path, capacity, newCapacity, size));
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (final FileChannel newChannel = create(tmp, newCapacity)) {
+            final ByteBuffer batch = ByteBuffer.allocate(SLOT_SIZE * REHASH_BATCH);
+            final ByteBuffer entry = ByteBuffer.allocate(SLOT_SIZE);
+            final ByteBuffer state = ByteBuffer.allocate(1);
+            for (int start = 0; start < capacity; start += REHASH_BATCH) {
+                final int count = Math.min(REHASH_BATCH, capacity - start);
+                batch.clear();
+                batch.limit(count * SLOT_SIZE);
+                readFully(channel, batch, slotPosition(start));
+                for (int idx = 0; idx < count; idx++) {
+                    if (batch.get(idx * SLOT_SIZE) != USED) {
+                        continue;
+                    }
+                    entry.clear();
+                    entry.put(batch.array(), idx * SLOT_SIZE, SLOT_SIZE);
+                    int target = (int) HashCode.fromBytes(keyOf(entry)).asLong() & (newCapacity - 1);
+                    while (true) {
+                        state.clear();
+                        readFully(newChannel, state, slotPosition(target));
+                        if (state.get(0) == EMPTY) {
+                            break;
+                        }
+                        target = (target + 1) & (newCapacity - 1);
+                    }
+                    writeSlot(newChannel, target, entry);
+                }
+            }
+            writeHeader(newChannel, newCapacity, size, 0);
+            newChannel.force(true);
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header.clear();
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("invalid index file " + path);
+        }
+        capacity = header.getInt(8);
+        size = header.getInt(12);
+        deleted = header.getInt(16);
+    }
+
+    private void writeHeader() throws IOException {
+        writeHeader(channel, capacity, size, deleted);
+    }
+
+    private static FileChannel create(final Path path,
+                                      final int capacity) throws IOException {
+        final FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+        // the file is sparse, the zeroes are empty slots.
+        channel.write(ByteBuffer.allocate(1), slotPosition(capacity) - 1);
+        writeHeader(channel, capacity, 0, 0);
+        return channel;
+    }
+
+    private static void writeHeader(final FileChannel channel,
+                                    final int capacity,
+                                    final int size,
+                                    final int deleted) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(MAGIC)
+              .putInt(VERSION)
+              .putInt(capacity)
+              .putInt(size)
+              .putInt(deleted);
+        buffer.clear();
+        writeFully(channel, buffer, 0);
+    }
+
+    private static int tableSize(final int capacity) {
+        int n = 16;
+        while (n < capacity && n < MAX_CAPACITY) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private static long slotPosition(final int idx) {
+        return HEADER_SIZE + (long) idx * SLOT_SIZE;
+    }
+
+    private static byte[] checkKey(final HashCode hash) {
+        final byte[] key = hash.asBytes();
+        if (key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("expected a SHA-256 hash but got " + hash.bits() + " bits");
+        }
+        return key;
+    }
+
+    private static boolean sameKey(final byte[] key,
+                                   final ByteBuffer slot) {
+        for (int idx = 0; idx < KEY_SIZE; idx++) {
+            if (key[idx] != slot.get(idx + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] keyOf(final ByteBuffer slot) {
+        final byte[] key = new byte[KEY_SIZE];
+        System.arraycopy(slot.array(), 1, key, 0, KEY_SIZE);
+        return key;
+    }
+
+    private static void readSlot(final FileChannel channel,
+                                 final int idx,
+                                 final ByteBuffer slot) throws IOException {
+        slot.clear();
+        readFully(channel, slot, slotPosition(idx));
+    }
+
+    private static void writeSlot(final FileChannel channel,
+                                  final int idx,
+                                  final ByteBuffer slot) throws IOException {
+        slot.clear();
+        writeFully(channel, slot, slotPosition(idx));
+    }
+
+    private static void readFully(final FileChannel channel,
+                                  final ByteBuffer buffer,
+                                  final long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new EOFException("unexpected end of index at " + pos);
+            }
+            pos += read;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel,
+                                   final ByteBuffer buffer,
+                                   final long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+}
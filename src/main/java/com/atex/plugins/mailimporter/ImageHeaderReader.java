@@ -0,0 +1,232 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * Read the size (in pixels) of an image looking only at its header: the frame header (SOFn)
+ * of a jpeg, the IHDR chunk of a png, the logical screen of a gif and the info header of a bmp.
+ * At most {@link #MAX_HEADER_SIZE} bytes are read, so the image is never decoded nor read in full.
+ *
+ * @author mnova
+ */
+public abstract class ImageHeaderReader {
+
+    /**
+     * The max number of bytes read, the jpeg frame header comes after the exif and xmp segments
+     * (each one is at most 64k).
+     */
+    public static final int MAX_HEADER_SIZE = 256 * 1024;
+
+    /**
+     * @param inputStream the image, it will be read (at most {@link #MAX_HEADER_SIZE} bytes) but not closed.
+     * @return the image size or empty if the format is not known or the size is not found.
+     */
+    public static Optional<ImageSize> read(final InputStream inputStream) throws IOException {
+        final HeaderInput in = new HeaderInput(inputStream, MAX_HEADER_SIZE);
+        try {
+            final int b0 = in.u8();
+            final int b1 = in.u8();
+            if (b0 == 0xff && b1 == 0xd8) {
+                return jpeg(in);
+            }
+            if (b0 == 0x89 && b1 == 'P') {
+                return png(in);
+            }
+            if (b0 == 'G' && b1 == 'I') {
+                return gif(in);
+            }
+            if (b0 == 'B' && b1 == 'M') {
+                return bmp(in);
+            }
+        } catch (EOFException e) {
+            // truncated image or header too big.
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<ImageSize> jpeg(final HeaderInput in) throws IOException {
+        while (true) {
+            if (in.u8() != 0xff) {
+                return Optional.empty();
+            }
+            int marker = in.u8();
+            while (marker == 0xff) {
+                // fill bytes.
+                marker = in.u8();
+            }
+            if (marker == 0xda || marker == 0xd9) {
+                // start of scan or end of image without a frame header.
+                return Optional.empty();
+            }
+            if (marker == 0x01 || marker == 0xd8 || (marker >= 0xd0 && marker <= 0xd7)) {
+                // standalone markers.
+                continue;
+            }
+            final int length = in.u16be();
+            if (length < 2) {
+                return Optional.empty();
+            }
+            // SOF0-SOF15 but DHT (c4), JPG (c8) and DAC (cc).
+            if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+                in.skip(1);
+                final int height = in.u16be();
+                final int width = in.u16be();
+                return Optional.of(new ImageSize(width, height));
+            }
+            in.skip(length - 2);
+        }
+    }
+
+    private static Optional<ImageSize> png(final HeaderInput in) throws IOException {
+        if (!in.expect('N', 'G', 0x0d, 0x0a, 0x1a, 0x0a)) {
+            return Optional.empty();
+        }
+        in.skip(4);
+        if (!in.expect('I', 'H', 'D', 'R')) {
+            return Optional.empty();
+        }
+        final long width = in.u32be();
+        final long height = in.u32be();
+        return Optional.of(new ImageSize(clamp(width), clamp(height)));
+    }
+
+    private static Optional<ImageSize> gif(final HeaderInput in) throws IOException {
+        if (!in.expect('F', '8')) {
+            return Optional.empty();
+        }
+        final int version = in.u8();
+        if ((version != '7' && version != '9') || in.u8() != 'a') {
+            return Optional.empty();
+        }
+        final int width = in.u16le();
+        final int height = in.u16le();
+        return Optional.of(new ImageSize(width, height));
+    }
+
+    private static Optional<ImageSize> bmp(final HeaderInput in) throws IOException {
+        // file size, reserved and data offset.
+        in.skip(12);
+        final long headerSize = in.u32le();
+        if (headerSize == 12) {
+            // os/2 bitmap core header.
+            final int width = in.u16le();
+            final int height = in.u16le();
+            return Optional.of(new ImageSize(width, height));
+        }
+        if (headerSize < 40) {
+            return Optional.empty();
+        }
+        final int width = (int) in.u32le();
+        // a negative height means a top-down bitmap.
+        final int height = (int) in.u32le();
+        return Optional.of(new ImageSize(Math.abs(width), Math.abs(height)));
+    }
+
+    private static int clamp(final long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The size of an image.
+     */
+    public static class ImageSize {
+
+        private final int width;
+        private final int height;
+
+        public ImageSize(final int width,
+                         final int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height;
+        }
+    }
+
+    /**
+     * Read the header with a budget, an {@link EOFException} is thrown when the
+     * stream or the budget are exhausted.
+     */
+    private static class HeaderInput {
+
+        private final InputStream is;
+        private int remaining;
+
+        HeaderInput(final InputStream is,
+                    final int limit) {
+            this.is = is;
+            this.remaining = limit;
+        }
+
+        int u8() throws IOException {
+            if (remaining <= 0) {
+                throw new EOFException();
+            }
+            final int value = is.read();
+            if (value < 0) {
+                throw new EOFException();
+            }
+            remaining--;
+            return value;
+        }
+
+        int u16be() throws IOException {
+            return (u8() << 8) | u8();
+        }
+
+        int u16le() throws IOException {
+            return u8() | (u8() << 8);
+        }
+
+        long u32be() throws IOException {
+            return ((long) u16be() << 16) | u16be();
+        }
+
+        long u32le() throws IOException {
+            return u16le() | ((long) u16le() << 16);
+        }
+
+        boolean expect(final int... values) throws IOException {
+            for (final int value : values) {
+                if (u8() != value) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void skip(final int count) throws IOException {
+            if (count > remaining) {
+                throw new EOFException();
+            }
+            int left = count;
+            while (left > 0) {
+                final long skipped = is.skip(left);
+                if (skipped > 0) {
+                    left -= skipped;
+                } else {
+                    // skip may return 0 before the end of the stream.
+                    u8();
+                    left--;
+                    remaining++;
+                }
+            }
+            remaining -= count;
+        }
+    }
+
+}
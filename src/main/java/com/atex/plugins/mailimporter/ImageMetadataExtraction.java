@@ -1,7 +1,13 @@
 package com.atex.plugins.mailimporter;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.core.MediaType;
 
@@ -14,11 +20,29 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.polopoly.util.StringUtil;
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.UniformInterfaceException;
 
 /**
  * ImageMetadataExtraction
  *
+ * A single thread safe client is shared by all the instances which use the same service url,
+ * the underlying http connections are kept alive and reused between the calls.
+ * The client is configured (once, when it is first used) with these system properties:
+ *
+ * <ul>
+ *     <li><code>image.metadata.service.connectTimeout</code>: the connect timeout in ms (default 5000),</li>
+ *     <li><code>image.metadata.service.readTimeout</code>: the read timeout in ms (default 30000),</li>
+ *     <li><code>image.metadata.service.maxConnections</code>: the max number of concurrent calls (default 10),</li>
+ *     <li><code>image.metadata.service.failureThreshold</code>: the number of consecutive failures which
+ *     opens the circuit breaker (default 5, 0 disables it),</li>
+ *     <li><code>image.metadata.service.openTimeout</code>: how long the circuit stays open in ms (default 30000),</li>
+ *     <li><code>image.metadata.service.payload</code>: <code>full</code> (the default) to send the whole image or
+ *     <code>metadata</code> to send only its metadata (see {@link MetadataPayload}).</li>
+ * </ul>
+ *
+ * While the circuit is open the service is not called and no metadata is returned.
+ *
  * @author mnova
  */
 public class ImageMetadataExtraction {
@@ -28,13 +52,30 @@ public class ImageMetadataExtraction {
     private static final String SYSTEM_PARAMETER = "image.metadata.service.url";
     private static final String DEFAULT_URL =  "http://localhost:8080/image-metadata-extractor-service/image";
 
+    private static final String CONNECT_TIMEOUT_PARAMETER = "image.metadata.service.connectTimeout";
+    private static final String READ_TIMEOUT_PARAMETER = "image.metadata.service.readTimeout";
+    private static final String MAX_CONNECTIONS_PARAMETER = "image.metadata.service.maxConnections";
+    private static final String FAILURE_THRESHOLD_PARAMETER = "image.metadata.service.failureThreshold";
+    private static final String OPEN_TIMEOUT_PARAMETER = "image.metadata.service.openTimeout";
+    private static final String PAYLOAD_PARAMETER = "image.metadata.service.payload";
+    private static final String METADATA_PAYLOAD = "metadata";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 10;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_TIMEOUT = 30000;
+
     private static final Gson GSON = new GsonBuilder().create();
 
+    private static final Map<String, ServiceClient> CLIENTS = new ConcurrentHashMap<>();
+
     private final String serviceUrl;
-    private final Client client = Client.create();
+    private final ServiceClient client;
 
     public ImageMetadataExtraction(final String serviceUrl) {
         this.serviceUrl = serviceUrl;
+        this.client = CLIENTS.computeIfAbsent(serviceUrl, url -> new ServiceClient());
     }
 
     public ImageMetadataExtraction() {
@@ -50,21 +91,68 @@ public class ImageMetadataExtraction {
         return extract(inputStream, mimeType);
     }
 
+    /**
+     * Extract the metadata of an image which can be read more than once, when the service is configured
+     * to receive only the metadata and the image format is supported the image itself is not sent.
+     *
+     * @param content the image.
+     * @param mimeType the image mime type.
+     * @return the metadata.
+     */
+    public Optional<MetadataTagsAspectBean> extract(final AttachmentContent content,
+                                                    final String mimeType) throws IOException {
+        if (client.metadataPayload) {
+            final ImagePipeline image = ImagePipeline.of(content);
+            final Optional<byte[]> payload = MetadataPayload.of(image.asByteBuffer(), mimeType);
+            if (payload.isPresent()) {
+                LOGGER.debug(getThreadId() + "Sending {} bytes of metadata instead of {} bytes", payload.get().length, image.getSize());
+                return extract(new ByteArrayInputStream(payload.get()), mimeType);
+            }
+        }
+        return extract(content.openStream(), mimeType);
+    }
+
     public Optional<MetadataTagsAspectBean> extract(final InputStream inputStream,
                                                     final String mimeType) {
+        try {
+            if (!client.breaker.allowRequest()) {
+                LOGGER.warn(getThreadId() + "Image metadata extraction service at {} is failing, skipping the call", serviceUrl);
+                return Optional.empty();
+            }
+            if (!client.acquire()) {
+                client.breaker.onCancel();
+                LOGGER.warn(getThreadId() + "Timeout waiting for a connection to the image metadata extraction service at {}", serviceUrl);
+                return Optional.empty();
+            }
+            try {
+                return call(inputStream, mimeType);
+            } finally {
+                client.permits.release();
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private Optional<MetadataTagsAspectBean> call(final InputStream inputStream,
+                                                  final String mimeType) {
+        boolean done = false;
         try {
             final String threadId = getThreadId();
             LOGGER.debug(threadId + "Calling service at {} with mimeType {}", serviceUrl, mimeType);
 
             final long startTime = System.currentTimeMillis();
 
-            final String json = client
+            final String json = client.client
                     .resource(serviceUrl)
                     .accept(MediaType.APPLICATION_JSON_TYPE)
                     .entity(inputStream)
                     .type(MediaType.valueOf(mimeType))
                     .post(String.class);
 
+            client.breaker.onSuccess();
+            done = true;
+
             final long elapsed = System.currentTimeMillis() - startTime;
             LOGGER.debug(threadId + "Result (took {}ms) is: {}", elapsed, json);
 
@@ -72,11 +160,25 @@ public class ImageMetadataExtraction {
                 return Optional.of(GSON.fromJson(json, MetadataTagsAspectBean.class));
             }
         } catch (UniformInterfaceException e) {
+            // only a server error means the service is not working, a client error is about the image.
+            if (e.getResponse().getStatus() >= 500) {
+                client.breaker.onFailure();
+            } else {
+                client.breaker.onSuccess();
+            }
+            done = true;
             logError(e, e.getResponse().getEntity(String.class));
+        } catch (ClientHandlerException e) {
+            // connection refused, connect or read timeouts.
+            client.breaker.onFailure();
+            done = true;
+            logError(e, null);
         } catch (Exception e) {
             logError(e, null);
         } finally {
-            IOUtils.closeQuietly(inputStream);
+            if (!done) {
+                client.breaker.onCancel();
+            }
         }
         return Optional.empty();
     }
@@ -92,4 +194,41 @@ public class ImageMetadataExtraction {
     private String getThreadId() {
         return String.format("[%d] ", Thread.currentThread().getId());
     }
+
+    /**
+     * The client, the connections limit and the circuit breaker of a service url.
+     */
+    private static class ServiceClient {
+
+        private final Client client;
+        private final Semaphore permits;
+        private final CircuitBreaker breaker;
+        private final int acquireTimeout;
+        private final boolean metadataPayload;
+
+        ServiceClient() {
+            final int connectTimeout = Integer.getInteger(CONNECT_TIMEOUT_PARAMETER, DEFAULT_CONNECT_TIMEOUT);
+            final int readTimeout = Integer.getInteger(READ_TIMEOUT_PARAMETER, DEFAULT_READ_TIMEOUT);
+            final int maxConnections = Math.max(1, Integer.getInteger(MAX_CONNECTIONS_PARAMETER, DEFAULT_MAX_CONNECTIONS));
+
+            this.client = Client.create();
+            this.client.setConnectTimeout(connectTimeout);
+            this.client.setReadTimeout(readTimeout);
+            this.permits = new Semaphore(maxConnections, true);
+            this.breaker = new CircuitBreaker(
+                    Integer.getInteger(FAILURE_THRESHOLD_PARAMETER, DEFAULT_FAILURE_THRESHOLD),
+                    Long.getLong(OPEN_TIMEOUT_PARAMETER, DEFAULT_OPEN_TIMEOUT));
+            this.acquireTimeout = connectTimeout;
+            this.metadataPayload = METADATA_PAYLOAD.equalsIgnoreCase(System.getProperty(PAYLOAD_PARAMETER));
+        }
+
+        boolean acquire() {
+            try {
+                return permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
 }
@@ -0,0 +1,227 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Optional;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An image attachment read only once and shared between all the consumers
+ * (mime type sniffing, metadata parsing, metadata service and file service uploads).
+ *
+ * The bytes are kept in a single buffer: the array of an in memory attachment is used
+ * as is, a spooled attachment is mapped in memory (so the os file cache is used instead of
+ * the heap), any other content is read once. Each call to {@link #openStream()} returns a
+ * view on the shared buffer which supports mark and reset, and the mime type is sniffed only once.
+ *
+ * The pipeline does not own the attachment, releasing it is still up to the caller.
+ *
+ * @author mnova
+ */
+public class ImagePipeline implements AttachmentContent {
+
+    private final ByteBuffer buffer;
+    private Optional<String> mimeType = null;
+
+    ImagePipeline(final ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    /**
+     * @param content the attachment content.
+     * @return a pipeline which shares the content bytes.
+     */
+    public static ImagePipeline of(final AttachmentContent content) throws IOException {
+        if (content == null) {
+            throw new IOException("missing attachment content");
+        }
+        if (content instanceof ImagePipeline) {
+            return (ImagePipeline) content;
+        }
+        if (content instanceof MemoryAttachmentContent) {
+            return new ImagePipeline(((MemoryAttachmentContent) content).asByteBuffer());
+        }
+        if (content instanceof FileAttachmentContent && content.getSize() <= Integer.MAX_VALUE) {
+            // the mapping stays valid after the channel has been closed.
+            try (final FileChannel channel = ((FileAttachmentContent) content).openChannel()) {
+                return new ImagePipeline(channel.map(FileChannel.MapMode.READ_ONLY, 0, content.getSize()));
+            }
+        }
+        return new ImagePipeline(ByteBuffer.wrap(content.toByteArray()));
+    }
+
+    /**
+     * @return the mime type of the image, it is sniffed on the first call.
+     */
+    public synchronized Optional<String> getMimeType() {
+        if (mimeType == null) {
+            mimeType = MimeTypeUtils.getMimeType(buffer);
+        }
+        return mimeType;
+    }
+
+    /**
+     * @return a read only view on the image bytes.
+     */
+    public ByteBuffer asByteBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    public long getSize() {
+        return buffer.limit();
+    }
+
+    @Override
+    public InputStream openStream() {
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * @return an ImageIO stream on the shared buffer, unlike a stream wrapped in a
+     * {@link javax.imageio.stream.MemoryCacheImageInputStream} the image bytes are not copied.
+     */
+    public ImageInputStream openImageInputStream() {
+        return new ByteBufferImageInputStream(buffer.duplicate());
+    }
+
+    @Override
+    public ReadableByteChannel openChannel() {
+        return Channels.newChannel(openStream());
+    }
+
+    /**
+     * @return the array backing the image buffer when it is fully used (as
+     * {@link MemoryAttachmentContent#toByteArray()}), it must not be modified.
+     */
+    @Override
+    public byte[] toByteArray() {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.limit()) {
+            return buffer.array();
+        }
+        final byte[] data = new byte[buffer.limit()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    /**
+     * An {@link InputStream} on a {@link ByteBuffer}, the buffer position is used as the stream position.
+     */
+    static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+        private int mark = 0;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            final int count = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(final int readLimit) {
+            mark = buffer.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.position(mark);
+        }
+    }
+
+    /**
+     * An {@link ImageInputStream} on a {@link ByteBuffer}, the seeks are absolute positions in the buffer.
+     */
+    static class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferImageInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            return buffer.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+            final int count = (int) Math.min(len, buffer.limit() - streamPos);
+            final ByteBuffer view = buffer.duplicate();
+            view.position((int) streamPos);
+            view.get(b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+    }
+
+}
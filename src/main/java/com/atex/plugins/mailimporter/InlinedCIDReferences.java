@@ -0,0 +1,94 @@
+package com.atex.plugins.mailimporter;
+
+import com.atex.plugins.mailimporter.CharPipeline.Sink;
+
+/**
+ * E-mail clients use in-line chunk data references to mark positions where images
+ * are in-lined in the mail. The default Mac Mail client (might be others as well)
+ * use a format like [cid:af1b90bbaa34355a] that neither GMail nor Apache Email
+ * seem to understand.
+ *
+ * In order to avoid these ugly markers in the resulting article texts, we try to clear
+ * them out, preferably without affecting anything else.
+ *
+ * @author mnova
+ */
+final class InlinedCIDReferences {
+
+    private static final String CID_START = "[cid:";
+
+    private InlinedCIDReferences() {
+    }
+
+    /**
+     * Same as <code>text.replaceAll("\\[cid:.*?]\n*", "")</code>, the remaining chars
+     * are pushed to the sink (the sink is not ended).
+     *
+     * @param text the text.
+     * @param start the start index (inclusive).
+     * @param end the end index (exclusive).
+     * @param sink where the chars are pushed.
+     */
+    static void remove(final CharSequence text,
+                       final int start,
+                       final int end,
+                       final Sink sink) {
+        int idx = start;
+        while (idx < end) {
+            final int cid = indexOf(text, CID_START, idx, end);
+            if (cid < 0) {
+                append(text, idx, end, sink);
+                break;
+            }
+            int close = cid + CID_START.length();
+            while (close < end && text.charAt(close) != ']' && !isLineTerminator(text.charAt(close))) {
+                close++;
+            }
+            if (close < end && text.charAt(close) == ']') {
+                append(text, idx, cid, sink);
+                idx = close + 1;
+                while (idx < end && text.charAt(idx) == '\n') {
+                    idx++;
+                }
+            } else {
+                append(text, idx, cid + 1, sink);
+                idx = cid + 1;
+            }
+        }
+    }
+
+    private static void append(final CharSequence text,
+                               final int start,
+                               final int end,
+                               final Sink sink) {
+        for (int idx = start; idx < end; idx++) {
+            sink.append(text.charAt(idx));
+        }
+    }
+
+    private static boolean isLineTerminator(final char c) {
+        // the chars not matched by "." in a java regex.
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static int indexOf(final CharSequence text,
+                               final String s,
+                               final int start,
+                               final int end) {
+        final int last = end - s.length();
+        final char first = s.charAt(0);
+        for (int idx = start; idx <= last; idx++) {
+            if (text.charAt(idx) == first) {
+                int k = 1;
+                while (k < s.length() && text.charAt(idx + k) == s.charAt(k)) {
+                    k++;
+                }
+                if (k == s.length()) {
+                    return idx;
+                }
+            }
+        }
+        return -1;
+    }
+
+}
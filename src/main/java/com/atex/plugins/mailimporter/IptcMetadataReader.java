@@ -0,0 +1,329 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read only the IPTC block of an image, without parsing the whole file with
+ * {@link com.drew.imaging.ImageMetadataReader}:
+ *
+ * <ul>
+ *     <li>jpeg: the Photoshop resources (APP13) segments are collected till the start of the scan data;</li>
+ *     <li>tiff: the IPTC (33723) or the Photoshop resources (34377) entries of the first IFD.</li>
+ * </ul>
+ *
+ * The IPTC block is decoded here, no metadata-extractor directory is built: the datasets of the application
+ * record are returned with the same tag types (<code>record &lt;&lt; 8 | dataset</code>) and descriptions of
+ * the metadata-extractor {@link com.drew.metadata.iptc.IptcDirectory}, so they can be mapped by
+ * {@link MailProcessorUtils#extract(Map)}. The cost only depends on the size of the metadata, not on the image size.
+ *
+ * @author mnova
+ */
+public abstract class IptcMetadataReader {
+
+    private static final byte[] PHOTOSHOP_HEADER = "Photoshop 3.0\u0000".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESOURCE_SIGNATURE = "8BIM".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UTF8_CHARSET_ESCAPE = new byte[] { 0x1b, '%', 'G' };
+
+    private static final int APP13 = 0xed;
+    private static final int SOS = 0xda;
+    private static final int EOI = 0xd9;
+
+    private static final int IPTC_RESOURCE = 0x0404;
+    private static final int TIFF_IPTC_TAG = 33723;
+    private static final int TIFF_PHOTOSHOP_TAG = 34377;
+
+    private static final int IPTC_MARKER = 0x1c;
+    private static final int ENVELOPE_RECORD = 1;
+    private static final int APPLICATION_RECORD = 2;
+    private static final int CODED_CHARACTER_SET = 90;
+    private static final int RECORD_VERSION = 0;
+    private static final int TAG_KEYWORDS = 0x0219;
+    private static final int TAG_DATE_CREATED = 0x0237;
+
+    /**
+     * @param image the image, it is not modified.
+     * @return the descriptions of the IPTC application record datasets by tag type, in the order they are
+     * found in the image (empty if the image has no IPTC block), or empty if the format is not supported or
+     * the image is malformed (in this case the caller should read all the metadata).
+     */
+    public static Optional<Map<Integer, String>> read(final ByteBuffer image) {
+        final ByteBuffer buffer = image.slice();
+        try {
+            final byte[] iptc;
+            if (buffer.limit() >= 4 && (buffer.get(0) & 0xff) == 0xff && (buffer.get(1) & 0xff) == 0xd8) {
+                iptc = jpeg(buffer);
+            } else if (buffer.limit() >= 8 && isTiff(buffer)) {
+                iptc = tiff(buffer);
+            } else {
+                return Optional.empty();
+            }
+            if (iptc == null || iptc.length == 0) {
+                return Optional.of(Collections.emptyMap());
+            }
+            return Optional.of(decode(iptc));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // truncated or malformed image.
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Decode the IPTC datasets (<code>0x1c, record, dataset, size, value</code>), a repeated dataset
+     * is described by its values separated by a space (a semicolon for the keywords).
+     */
+    private static Map<Integer, String> decode(final byte[] iptc) {
+        final Map<Integer, List<byte[]>> datasets = new LinkedHashMap<>();
+        Charset charset = null;
+        int pos = 0;
+        while (pos + 5 <= iptc.length && (iptc[pos] & 0xff) == IPTC_MARKER) {
+            final int record = iptc[pos + 1] & 0xff;
+            final int dataset = iptc[pos + 2] & 0xff;
+            int size = ((iptc[pos + 3] & 0xff) << 8) | (iptc[pos + 4] & 0xff);
+            pos += 5;
+            if ((size & 0x8000) != 0) {
+                // extended dataset: the size is written in the next (size & 0x7fff) bytes.
+                final int sizeLength = size & 0x7fff;
+                if (sizeLength > 4 || pos + sizeLength > iptc.length) {
+                    break;
+                }
+                size = 0;
+                for (int idx = 0; idx < sizeLength; idx++) {
+                    size = (size << 8) | (iptc[pos + idx] & 0xff);
+                }
+                pos += sizeLength;
+            }
+            if (size < 0 || pos + size > iptc.length) {
+                break;
+            }
+            final byte[] value = new byte[size];
+            System.arraycopy(iptc, pos, value, 0, size);
+            pos += size;
+            if (record == ENVELOPE_RECORD && dataset == CODED_CHARACTER_SET) {
+                charset = startsWith(ByteBuffer.wrap(value), 0, value.length, UTF8_CHARSET_ESCAPE) ? StandardCharsets.UTF_8 : null;
+            } else if (record == APPLICATION_RECORD && dataset != RECORD_VERSION) {
+                datasets.computeIfAbsent((record << 8) | dataset, k -> new ArrayList<>()).add(value);
+            }
+        }
+        final Map<Integer, String> descriptions = new LinkedHashMap<>();
+        for (final Map.Entry<Integer, List<byte[]>> entry : datasets.entrySet()) {
+            final int tagType = entry.getKey();
+            final StringBuilder description = new StringBuilder();
+            for (final byte[] value : entry.getValue()) {
+                if (description.length() > 0) {
+                    description.append(tagType == TAG_KEYWORDS ? ';' : ' ');
+                }
+                description.append(toString(value, charset));
+            }
+            if (tagType == TAG_DATE_CREATED && isDate(description)) {
+                // the metadata-extractor description of a CCYYMMDD date.
+                description.insert(6, ':').insert(4, ':');
+            }
+            descriptions.put(tagType, description.toString());
+        }
+        return descriptions;
+    }
+
+    /**
+     * @return the value decoded with the declared charset, without one the value is decoded
+     * as UTF-8 when it is valid, otherwise as ISO-8859-1.
+     */
+    private static String toString(final byte[] value,
+                                   final Charset charset) {
+        if (charset != null) {
+            return new String(value, charset);
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                                         .onMalformedInput(CodingErrorAction.REPORT)
+                                         .onUnmappableCharacter(CodingErrorAction.REPORT)
+                                         .decode(ByteBuffer.wrap(value))
+                                         .toString();
+        } catch (CharacterCodingException e) {
+            return new String(value, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static boolean isDate(final CharSequence value) {
+        if (value.length() != 8) {
+            return false;
+        }
+        for (int idx = 0; idx < value.length(); idx++) {
+            if (!Character.isDigit(value.charAt(idx))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] jpeg(final ByteBuffer buffer) {
+        final ByteArrayOutputStream resources = new ByteArrayOutputStream();
+        final int limit = buffer.limit();
+        int pos = 2;
+        while (pos + 1 < limit) {
+            if ((buffer.get(pos) & 0xff) != 0xff) {
+                throw new IllegalArgumentException("invalid marker at " + pos);
+            }
+            final int marker = buffer.get(pos + 1) & 0xff;
+            if (marker == 0xff) {
+                pos++;
+                continue;
+            }
+            if (marker == SOS || marker == EOI) {
+                break;
+            }
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                pos += 2;
+                continue;
+            }
+            final int length = ((buffer.get(pos + 2) & 0xff) << 8) | (buffer.get(pos + 3) & 0xff);
+            final int start = pos + 4;
+            final int end = pos + 2 + length;
+            if (length < 2 || end > limit) {
+                throw new IllegalArgumentException("invalid segment at " + pos);
+            }
+            if (marker == APP13 && startsWith(buffer, start, end, PHOTOSHOP_HEADER)) {
+                // a big resources block is split in more segments.
+                write(resources, buffer, start + PHOTOSHOP_HEADER.length, end);
+            }
+            pos = end;
+        }
+        if (resources.size() == 0) {
+            return null;
+        }
+        return findIptcResource(ByteBuffer.wrap(resources.toByteArray()));
+    }
+
+    private static boolean isTiff(final ByteBuffer buffer) {
+        final int b0 = buffer.get(0) & 0xff;
+        final int b1 = buffer.get(1) & 0xff;
+        if (b0 == 'I' && b1 == 'I') {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (b0 == 'M' && b1 == 'M') {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return false;
+        }
+        return buffer.getShort(2) == 42;
+    }
+
+    private static byte[] tiff(final ByteBuffer buffer) {
+        final int ifd = buffer.getInt(4);
+        final int count = buffer.getShort(ifd) & 0xffff;
+        for (int idx = 0; idx < count; idx++) {
+            final int entry = ifd + 2 + idx * 12;
+            final int tag = buffer.getShort(entry) & 0xffff;
+            if (tag != TIFF_IPTC_TAG && tag != TIFF_PHOTOSHOP_TAG) {
+                continue;
+            }
+            final int length = buffer.getInt(entry + 4) * getTypeSize(buffer.getShort(entry + 2) & 0xffff);
+            final int offset = (length <= 4) ? entry + 8 : buffer.getInt(entry + 8);
+            if (length < 0 || offset < 0 || offset + length > buffer.limit()) {
+                throw new IllegalArgumentException("invalid tiff entry " + tag);
+            }
+            final ByteBuffer value = slice(buffer, offset, offset + length);
+            if (tag == TIFF_IPTC_TAG) {
+                return toArray(value);
+            }
+            return findIptcResource(value);
+        }
+        return null;
+    }
+
+    private static int getTypeSize(final int type) {
+        switch (type) {
+            case 3: // SHORT
+            case 8: // SSHORT
+                return 2;
+            case 4: // LONG
+            case 9: // SLONG
+            case 11: // FLOAT
+                return 4;
+            case 5: // RATIONAL
+            case 10: // SRATIONAL
+            case 12: // DOUBLE
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * @param resources the Photoshop image resources.
+     * @return the IPTC resource or null.
+     */
+    private static byte[] findIptcResource(final ByteBuffer resources) {
+        resources.order(ByteOrder.BIG_ENDIAN);
+        int pos = 0;
+        final int limit = resources.limit();
+        while (pos + 12 <= limit && startsWith(resources, pos, limit, RESOURCE_SIGNATURE)) {
+            final int id = resources.getShort(pos + 4) & 0xffff;
+            // the name is a pascal string padded to an even size.
+            final int nameLength = resources.get(pos + 6) & 0xff;
+            final int sizePos = pos + 6 + ((nameLength + 2) & ~1);
+            if (sizePos + 4 > limit) {
+                break;
+            }
+            final int size = resources.getInt(sizePos);
+            final int start = sizePos + 4;
+            if (size < 0 || start + size > limit) {
+                break;
+            }
+            if (id == IPTC_RESOURCE) {
+                return toArray(slice(resources, start, start + size));
+            }
+            pos = start + ((size + 1) & ~1);
+        }
+        return null;
+    }
+
+    private static boolean startsWith(final ByteBuffer buffer,
+                                      final int start,
+                                      final int end,
+                                      final byte[] value) {
+        if (start + value.length > end) {
+            return false;
+        }
+        for (int idx = 0; idx < value.length; idx++) {
+            if (buffer.get(start + idx) != value[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer,
+                                    final int start,
+                                    final int end) {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(end);
+        view.position(start);
+        return view.slice();
+    }
+
+    private static byte[] toArray(final ByteBuffer buffer) {
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    private static void write(final ByteArrayOutputStream out,
+                              final ByteBuffer buffer,
+                              final int start,
+                              final int end) {
+        final byte[] data = toArray(slice(buffer, start, end));
+        out.write(data, 0, data.length);
+    }
+
+}
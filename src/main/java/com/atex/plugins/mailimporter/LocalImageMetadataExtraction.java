@@ -0,0 +1,143 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atex.onecms.image.exif.MetadataTagsAspectBean;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.Tag;
+import com.drew.metadata.bmp.BmpHeaderDirectory;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.gif.GifHeaderDirectory;
+import com.drew.metadata.icc.IccDirectory;
+import com.drew.metadata.iptc.IptcDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import com.drew.metadata.png.PngDirectory;
+import com.drew.metadata.webp.WebpDirectory;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Build the {@link MetadataTagsAspectBean} from the metadata already read by metadata-extractor,
+ * without calling the image metadata extraction service.
+ *
+ * The tags are grouped by the metadata-extractor directory names (i.e. "Exif IFD0", "IPTC")
+ * and the values are the tags descriptions, so they are not the same as the ones returned
+ * by the service (which uses exiftool).
+ *
+ * @author mnova
+ */
+public class LocalImageMetadataExtraction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalImageMetadataExtraction.class.getName());
+
+    private static final Gson GSON = new GsonBuilder().create();
+
+    /**
+     * The directories with the size of the image, the image headers comes before
+     * the exif ones since the exif size may not be updated when the image is edited.
+     */
+    private static final Size[] SIZES = new Size[] {
+            new Size(JpegDirectory.class, JpegDirectory.TAG_IMAGE_WIDTH, JpegDirectory.TAG_IMAGE_HEIGHT),
+            new Size(PngDirectory.class, PngDirectory.TAG_IMAGE_WIDTH, PngDirectory.TAG_IMAGE_HEIGHT),
+            new Size(GifHeaderDirectory.class, GifHeaderDirectory.TAG_IMAGE_WIDTH, GifHeaderDirectory.TAG_IMAGE_HEIGHT),
+            new Size(WebpDirectory.class, WebpDirectory.TAG_IMAGE_WIDTH, WebpDirectory.TAG_IMAGE_HEIGHT),
+            new Size(BmpHeaderDirectory.class, BmpHeaderDirectory.TAG_IMAGE_WIDTH, BmpHeaderDirectory.TAG_IMAGE_HEIGHT),
+            new Size(ExifIFD0Directory.class, ExifIFD0Directory.TAG_IMAGE_WIDTH, ExifIFD0Directory.TAG_IMAGE_HEIGHT),
+            new Size(ExifSubIFDDirectory.class, ExifSubIFDDirectory.TAG_EXIF_IMAGE_WIDTH, ExifSubIFDDirectory.TAG_EXIF_IMAGE_HEIGHT)
+    };
+
+    public Optional<MetadataTagsAspectBean> extract(final Metadata metadata) {
+        try {
+            final JsonObject json = new JsonObject();
+            json.addProperty("_type", "atex.ImageMetadata");
+            for (final Size size : SIZES) {
+                final Directory directory = metadata.getFirstDirectoryOfType(size.directoryClass);
+                if (directory != null) {
+                    final Integer width = directory.getInteger(size.widthTag);
+                    final Integer height = directory.getInteger(size.heightTag);
+                    if (width != null && height != null) {
+                        json.addProperty("imageWidth", width);
+                        json.addProperty("imageHeight", height);
+                        break;
+                    }
+                }
+            }
+            addProperty(json, "byline", metadata,
+                    IptcDirectory.class, IptcDirectory.TAG_BY_LINE,
+                    ExifIFD0Directory.class, ExifIFD0Directory.TAG_ARTIST);
+            addProperty(json, "title", metadata,
+                    IptcDirectory.class, IptcDirectory.TAG_OBJECT_NAME,
+                    IptcDirectory.class, IptcDirectory.TAG_HEADLINE);
+            addProperty(json, "description", metadata,
+                    IptcDirectory.class, IptcDirectory.TAG_CAPTION,
+                    ExifIFD0Directory.class, ExifIFD0Directory.TAG_IMAGE_DESCRIPTION);
+
+            final JsonObject tags = new JsonObject();
+            for (final Directory directory : metadata.getDirectories()) {
+                if (directory instanceof IccDirectory) {
+                    continue;
+                }
+                final JsonObject values = Optional.ofNullable(tags.getAsJsonObject(directory.getName()))
+                                                  .orElseGet(JsonObject::new);
+                for (final Tag tag : directory.getTags()) {
+                    final String description = tag.getDescription();
+                    if (description != null) {
+                        values.addProperty(tag.getTagName(), description);
+                    }
+                }
+                tags.add(directory.getName(), values);
+            }
+            json.add("tags", tags);
+            return Optional.of(GSON.fromJson(json, MetadataTagsAspectBean.class));
+        } catch (Exception e) {
+            LOGGER.error("Error extracting the image metadata", e);
+        }
+        return Optional.empty();
+    }
+
+    private void addProperty(final JsonObject json,
+                             final String name,
+                             final Metadata metadata,
+                             final Class<? extends Directory> directoryClass,
+                             final int tag,
+                             final Class<? extends Directory> fallbackDirectoryClass,
+                             final int fallbackTag) {
+        final String value = Optional.ofNullable(getString(metadata, directoryClass, tag))
+                                     .orElseGet(() -> getString(metadata, fallbackDirectoryClass, fallbackTag));
+        if (value != null) {
+            json.addProperty(name, value);
+        }
+    }
+
+    private String getString(final Metadata metadata,
+                             final Class<? extends Directory> directoryClass,
+                             final int tag) {
+        return Optional.ofNullable(metadata.getFirstDirectoryOfType(directoryClass))
+                       .map(d -> d.getString(tag))
+                       .map(String::trim)
+                       .filter(StringUtils::notEmpty)
+                       .orElse(null);
+    }
+
+    private static class Size {
+
+        private final Class<? extends Directory> directoryClass;
+        private final int widthTag;
+        private final int heightTag;
+
+        Size(final Class<? extends Directory> directoryClass,
+             final int widthTag,
+             final int heightTag) {
+            this.directoryClass = directoryClass;
+            this.widthTag = widthTag;
+            this.heightTag = heightTag;
+        }
+    }
+
+}
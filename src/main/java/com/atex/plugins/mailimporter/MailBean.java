@@ -1,6 +1,7 @@
 package com.atex.plugins.mailimporter;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -16,6 +17,7 @@ public class MailBean {
     private String from = null;
 
     private Map<String, MailBeanAttachment> attachments = new HashMap<>();
+    private Map<String, Long> rejectedAttachments = new LinkedHashMap<>();
     private String to;
 
     public MailBean() {
@@ -75,6 +77,22 @@ public class MailBean {
         this.attachments = attachments;
     }
 
+    /**
+     * @return the name and the declared size (-1 when unknown) of the
+     * attachments rejected by the parser without reading them.
+     */
+    public Map<String, Long> getRejectedAttachments() {
+        return rejectedAttachments;
+    }
+
+    public void setRejectedAttachments(Map<String, Long> rejectedAttachments) {
+        this.rejectedAttachments = rejectedAttachments;
+    }
+
+    public void addRejectedAttachment(String name, long declaredSize) {
+        this.rejectedAttachments.put(name, declaredSize);
+    }
+
     public void setTo(String to) {
         this.to = to;
     }
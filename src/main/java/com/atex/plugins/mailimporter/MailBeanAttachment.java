@@ -1,5 +1,9 @@
 package com.atex.plugins.mailimporter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
 /**
  * MailBeanAttachment
  *
@@ -8,7 +12,7 @@ package com.atex.plugins.mailimporter;
 public class MailBeanAttachment {
 
     private String contentType;
-    private byte[] content;
+    private AttachmentContent data;
 
     public String getContentType() {
         return contentType;
@@ -18,11 +22,51 @@ public class MailBeanAttachment {
         this.contentType = contentType;
     }
 
+    public AttachmentContent getData() {
+        return data;
+    }
+
+    public void setData(final AttachmentContent data) {
+        this.data = data;
+    }
+
+    public long getSize() {
+        return (data != null) ? data.getSize() : 0;
+    }
+
+    /**
+     * Open a new stream on the attachment content, prefer this to {@link #getContent()}
+     * since the content may have been spooled to disk.
+     */
+    public InputStream openStream() throws IOException {
+        if (data == null) {
+            throw new IOException("missing attachment content");
+        }
+        return data.openStream();
+    }
+
+    /**
+     * @return the attachment content, it will be read in memory if the content has been spooled.
+     * The in memory content array is returned as is, it must not be modified.
+     */
     public byte[] getContent() {
-        return content;
+        if (data == null) {
+            return null;
+        }
+        try {
+            return data.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public void setContent(final byte[] content) {
-        this.content = content;
+        this.data = (content != null) ? new MemoryAttachmentContent(content) : null;
+    }
+
+    public void release() {
+        if (data != null) {
+            data.release();
+        }
     }
 }
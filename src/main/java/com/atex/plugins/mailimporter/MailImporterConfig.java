@@ -157,6 +157,100 @@ public class MailImporterConfig {
         }
     }
 
+    public static class Triage {
+        public static final String ACTION_SKIP = "skip";
+        public static final String ACTION_DEFER = "defer";
+        public static final String ACTION_QUARANTINE = "quarantine";
+
+        private long maxSize = -1;
+        private List<String> allowedSenders = new ArrayList<>();
+        private List<String> deniedSenders = new ArrayList<>();
+        private boolean skipTinyImagesOnly = false;
+        private String action = ACTION_SKIP;
+        private String quarantineFolder;
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(final long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public List<String> getAllowedSenders() {
+            return allowedSenders;
+        }
+
+        public void setAllowedSenders(final List<String> allowedSenders) {
+            this.allowedSenders = allowedSenders;
+        }
+
+        public List<String> getDeniedSenders() {
+            return deniedSenders;
+        }
+
+        public void setDeniedSenders(final List<String> deniedSenders) {
+            this.deniedSenders = deniedSenders;
+        }
+
+        public boolean isSkipTinyImagesOnly() {
+            return skipTinyImagesOnly;
+        }
+
+        public void setSkipTinyImagesOnly(final boolean skipTinyImagesOnly) {
+            this.skipTinyImagesOnly = skipTinyImagesOnly;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public void setAction(final String action) {
+            this.action = action;
+        }
+
+        public String getQuarantineFolder() {
+            return quarantineFolder;
+        }
+
+        public void setQuarantineFolder(final String quarantineFolder) {
+            this.quarantineFolder = quarantineFolder;
+        }
+
+        /**
+         * @return true if at least one rule is enabled.
+         */
+        public boolean isEnabled() {
+            return maxSize >= 0 ||
+                    !allowedSenders.isEmpty() ||
+                    !deniedSenders.isEmpty() ||
+                    skipTinyImagesOnly;
+        }
+
+        public Triage copy() {
+            final Triage triage = new Triage();
+            triage.setMaxSize(maxSize);
+            triage.setAllowedSenders(new ArrayList<>(allowedSenders));
+            triage.setDeniedSenders(new ArrayList<>(deniedSenders));
+            triage.setSkipTinyImagesOnly(skipTinyImagesOnly);
+            triage.setAction(action);
+            triage.setQuarantineFolder(quarantineFolder);
+            return triage;
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", Triage.class.getSimpleName() + "[", "]")
+                    .add("maxSize=" + maxSize)
+                    .add("allowedSenders=" + allowedSenders)
+                    .add("deniedSenders=" + deniedSenders)
+                    .add("skipTinyImagesOnly=" + skipTinyImagesOnly)
+                    .add("action='" + action + "'")
+                    .add("quarantineFolder='" + quarantineFolder + "'")
+                    .toString();
+        }
+    }
+
     public static class MailRouteConfig {
         private boolean enabled;
         private String uri;
@@ -173,9 +267,27 @@ public class MailImporterConfig {
         private int minWords;
         private long imageMinSize;
         private String dumpFolder;
+        private long attachmentSpoolThreshold = -1;
+        private String spoolFolder;
+        private boolean selectiveFetch;
+        private boolean filterAttachments = true;
+        private String imageHashIndex;
+        private int imageConcurrency = 1;
+        private String imageMetadata;
+        private int imageMinWidth = -1;
+        private int imageMinHeight = -1;
+        private int zipMaxEntries = 1000;
+        private long zipMaxTotalSize = 536870912L;
+        private long imageMaxPixels = -1;
+        private long imageMaxBytes = -1;
+        private List<String> acceptedImageExtensions = new ArrayList<>();
+        private List<String> acceptedAttachmentExtensions = new ArrayList<>();
         private Map<String, Map<String, String>> fieldsDefaults = new HashMap<>();
         private Map<String, Map<String, String>> fieldsMappings = new HashMap<>();
         private List<Signature> signatures = new ArrayList<>();
+        private Triage triage = new Triage();
+        private volatile SignatureMatcher signatureMatcher = null;
+        private volatile AttachmentFilter attachmentFilter = null;
 
         public boolean isEnabled() {
             return enabled;
@@ -297,6 +409,126 @@ public class MailImporterConfig {
             this.dumpFolder = dumpFolder;
         }
 
+        public long getAttachmentSpoolThreshold() {
+            return attachmentSpoolThreshold;
+        }
+
+        public void setAttachmentSpoolThreshold(final long attachmentSpoolThreshold) {
+            this.attachmentSpoolThreshold = attachmentSpoolThreshold;
+        }
+
+        public String getSpoolFolder() {
+            return spoolFolder;
+        }
+
+        public void setSpoolFolder(final String spoolFolder) {
+            this.spoolFolder = spoolFolder;
+        }
+
+        public boolean isSelectiveFetch() {
+            return selectiveFetch;
+        }
+
+        public void setSelectiveFetch(final boolean selectiveFetch) {
+            this.selectiveFetch = selectiveFetch;
+        }
+
+        public boolean isFilterAttachments() {
+            return filterAttachments;
+        }
+
+        public void setFilterAttachments(final boolean filterAttachments) {
+            this.filterAttachments = filterAttachments;
+        }
+
+        public String getImageHashIndex() {
+            return imageHashIndex;
+        }
+
+        public void setImageHashIndex(final String imageHashIndex) {
+            this.imageHashIndex = imageHashIndex;
+        }
+
+        public int getImageConcurrency() {
+            return imageConcurrency;
+        }
+
+        public void setImageConcurrency(final int imageConcurrency) {
+            this.imageConcurrency = imageConcurrency;
+        }
+
+        public String getImageMetadata() {
+            return imageMetadata;
+        }
+
+        public void setImageMetadata(final String imageMetadata) {
+            this.imageMetadata = imageMetadata;
+        }
+
+        public int getImageMinWidth() {
+            return imageMinWidth;
+        }
+
+        public void setImageMinWidth(final int imageMinWidth) {
+            this.imageMinWidth = imageMinWidth;
+        }
+
+        public int getImageMinHeight() {
+            return imageMinHeight;
+        }
+
+        public void setImageMinHeight(final int imageMinHeight) {
+            this.imageMinHeight = imageMinHeight;
+        }
+
+        public int getZipMaxEntries() {
+            return zipMaxEntries;
+        }
+
+        public void setZipMaxEntries(final int zipMaxEntries) {
+            this.zipMaxEntries = zipMaxEntries;
+        }
+
+        public long getZipMaxTotalSize() {
+            return zipMaxTotalSize;
+        }
+
+        public void setZipMaxTotalSize(final long zipMaxTotalSize) {
+            this.zipMaxTotalSize = zipMaxTotalSize;
+        }
+
+        public long getImageMaxPixels() {
+            return imageMaxPixels;
+        }
+
+        public void setImageMaxPixels(final long imageMaxPixels) {
+            this.imageMaxPixels = imageMaxPixels;
+        }
+
+        public long getImageMaxBytes() {
+            return imageMaxBytes;
+        }
+
+        public void setImageMaxBytes(final long imageMaxBytes) {
+            this.imageMaxBytes = imageMaxBytes;
+        }
+
+        public List<String> getAcceptedImageExtensions() {
+            return acceptedImageExtensions;
+        }
+
+        public void setAcceptedImageExtensions(final List<String> acceptedImageExtensions) {
+            this.acceptedImageExtensions = acceptedImageExtensions;
+        }
+
+        public List<String> getAcceptedAttachmentExtensions() {
+            return acceptedAttachmentExtensions;
+        }
+
+        public void setAcceptedAttachmentExtensions(final List<String> acceptedAttachmentExtensions) {
+            this.acceptedAttachmentExtensions = acceptedAttachmentExtensions;
+        }
+
         public Map<String, Map<String, String>> getFieldsDefaults() {
             return fieldsDefaults;
         }
@@ -321,6 +553,39 @@ public class MailImporterConfig {
             this.signatures = signatures;
         }
 
+        public Triage getTriage() {
+            return triage;
+        }
+
+        public void setTriage(final Triage triage) {
+            this.triage = triage;
+        }
+
+        /**
+         * @return the compiled attachment filter, it will be compiled again if the accepted image
+         * extensions, the accepted attachment extensions or the image min size have been changed.
+         */
+        public AttachmentFilter getAttachmentFilter() {
+            AttachmentFilter filter = attachmentFilter;
+            if (filter == null || !filter.isCompiledFrom(acceptedImageExtensions, acceptedAttachmentExtensions, imageMinSize)) {
+                filter = AttachmentFilter.compile(acceptedImageExtensions, acceptedAttachmentExtensions, imageMinSize);
+                attachmentFilter = filter;
+            }
+            return filter;
+        }
+
+        /**
+         * @return the compiled signatures, they will be compiled again if the signatures have been changed.
+         */
+        public SignatureMatcher getSignatureMatcher() {
+            SignatureMatcher matcher = signatureMatcher;
+            if (matcher == null || !matcher.isCompiledFrom(signatures)) {
+                matcher = SignatureMatcher.compile(signatures);
+                signatureMatcher = matcher;
+            }
+            return matcher;
+        }
+
         @Override
         public String toString() {
             return new StringJoiner(", ", MailRouteConfig.class.getSimpleName() + "[", "]")
@@ -339,9 +604,25 @@ public class MailImporterConfig {
                     .add("minWords='" + minWords + "'")
                     .add("imageMinSize='" + imageMinSize + "'")
                     .add("dumpFolder='" + dumpFolder + "'")
+                    .add("attachmentSpoolThreshold='" + attachmentSpoolThreshold + "'")
+                    .add("spoolFolder='" + spoolFolder + "'")
+                    .add("selectiveFetch='" + selectiveFetch + "'")
+                    .add("filterAttachments='" + filterAttachments + "'")
+                    .add("imageHashIndex='" + imageHashIndex + "'")
+                    .add("imageConcurrency='" + imageConcurrency + "'")
+                    .add("imageMetadata='" + imageMetadata + "'")
+                    .add("imageMinWidth='" + imageMinWidth + "'")
+                    .add("imageMinHeight='" + imageMinHeight + "'")
+                    .add("zipMaxEntries='" + zipMaxEntries + "'")
+                    .add("zipMaxTotalSize='" + zipMaxTotalSize + "'")
+                    .add("imageMaxPixels='" + imageMaxPixels + "'")
+                    .add("imageMaxBytes='" + imageMaxBytes + "'")
+                    .add("acceptedImageExtensions=" + acceptedImageExtensions)
+                    .add("acceptedAttachmentExtensions=" + acceptedAttachmentExtensions)
                     .add("fieldsDefaults=" + fieldsDefaults)
                     .add("fieldsMappings=" + fieldsMappings)
                     .add("signatures=" + signatures)
+                    .add("triage=" + triage)
                     .toString();
         }
     }
@@ -5,17 +5,23 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Stream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.atex.plugins.baseline.policy.BaselinePolicy;
 import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
 import com.atex.plugins.mailimporter.MailImporterConfig.Signature;
+import com.atex.plugins.mailimporter.MailImporterConfig.Triage;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
@@ -38,6 +44,8 @@ import com.polopoly.cm.policy.PolicyCMServer;
  */
 public class MailImporterConfigLoader {
 
+    private static final Logger LOG = LoggerFactory.getLogger(MailImporterConfigLoader.class);
+
     public static final String CONFIG_EXT_ID = "plugins.com.atex.plugins.mail-importer.Config";
 
     private static final String ARTICLE_ASPECT = "article_aspect";
@@ -153,6 +161,22 @@ public class MailImporterConfigLoader {
         getPrimitive(json, "imageMinSize", JsonElement::getAsLong, route::setImageMinSize);
         getPrimitive(json, "dumpFolder", JsonElement::getAsString,
                 StringUtils::notEmpty, route::setDumpFolder);
+        getPrimitive(json, "attachmentSpoolThreshold", JsonElement::getAsLong, route::setAttachmentSpoolThreshold);
+        getPrimitive(json, "spoolFolder", JsonElement::getAsString,
+                StringUtils::notEmpty, route::setSpoolFolder);
+        getPrimitive(json, "selectiveFetch", JsonElement::getAsBoolean, route::setSelectiveFetch);
+        getPrimitive(json, "filterAttachments", JsonElement::getAsBoolean, route::setFilterAttachments);
+        getPrimitive(json, "imageHashIndex", JsonElement::getAsString,
+                StringUtils::notEmpty, route::setImageHashIndex);
+        getPrimitive(json, "imageConcurrency", JsonElement::getAsInt, route::setImageConcurrency);
+        getPrimitive(json, "imageMetadata", JsonElement::getAsString,
+                StringUtils::notEmpty, route::setImageMetadata);
+        getPrimitive(json, "imageMinWidth", JsonElement::getAsInt, route::setImageMinWidth);
+        getPrimitive(json, "imageMinHeight", JsonElement::getAsInt, route::setImageMinHeight);
+        getPrimitive(json, "zipMaxEntries", JsonElement::getAsInt, route::setZipMaxEntries);
+        getPrimitive(json, "zipMaxTotalSize", JsonElement::getAsLong, route::setZipMaxTotalSize);
+        getPrimitive(json, "imageMaxPixels", JsonElement::getAsLong, route::setImageMaxPixels);
+        getPrimitive(json, "imageMaxBytes", JsonElement::getAsLong, route::setImageMaxBytes);
         return route.isEnabled() ? route : null;
     }
 
@@ -205,8 +229,23 @@ public class MailImporterConfigLoader {
             final AtomicInteger defMinWords = new AtomicInteger(-1);
             final AtomicLong defImageMinSize = new AtomicLong(-1);
             final AtomicReference<String> defDumpFolder = new AtomicReference<>(null);
+            final AtomicLong defAttachmentSpoolThreshold = new AtomicLong(-1);
+            final AtomicReference<String> defSpoolFolder = new AtomicReference<>(null);
+            final AtomicBoolean defSelectiveFetch = new AtomicBoolean(false);
+            final AtomicBoolean defFilterAttachments = new AtomicBoolean(true);
+            final List<String> defAcceptedAttachmentExtensions = new ArrayList<>();
+            final AtomicReference<String> defImageHashIndex = new AtomicReference<>(null);
+            final AtomicInteger defImageConcurrency = new AtomicInteger(1);
+            final AtomicReference<String> defImageMetadata = new AtomicReference<>(null);
+            final AtomicInteger defImageMinWidth = new AtomicInteger(-1);
+            final AtomicInteger defImageMinHeight = new AtomicInteger(-1);
+            final AtomicInteger defZipMaxEntries = new AtomicInteger(1000);
+            final AtomicLong defZipMaxTotalSize = new AtomicLong(536870912L);
+            final AtomicLong defImageMaxPixels = new AtomicLong(-1);
+            final AtomicLong defImageMaxBytes = new AtomicLong(-1);
             final Map<String, Map<String, String>> defFieldDefaults = new HashMap<>();
             final List<Signature> defSignatures = new ArrayList<>();
+            final Triage defTriage = new Triage();
             jsonSection(jsonElement, "defaults", JsonElement::isJsonObject, JsonElement::getAsJsonObject)
                     .ifPresent(defaults -> {
                         getPrimitive(defaults, "webPage", JsonElement::getAsString, defWebPage::set);
@@ -218,8 +257,23 @@ public class MailImporterConfigLoader {
                         getPrimitive(defaults, "minWords", JsonElement::getAsInt, defMinWords::set);
                         getPrimitive(defaults, "imageMinSize", JsonElement::getAsLong, defImageMinSize::set);
                         getPrimitive(defaults, "dumpFolder", JsonElement::getAsString, defDumpFolder::set);
+                        getPrimitive(defaults, "attachmentSpoolThreshold", JsonElement::getAsLong, defAttachmentSpoolThreshold::set);
+                        getPrimitive(defaults, "spoolFolder", JsonElement::getAsString, defSpoolFolder::set);
+                        getPrimitive(defaults, "selectiveFetch", JsonElement::getAsBoolean, defSelectiveFetch::set);
+                        getPrimitive(defaults, "filterAttachments", JsonElement::getAsBoolean, defFilterAttachments::set);
+                        parseStrings(defaults, "acceptedAttachmentExtensions", defAcceptedAttachmentExtensions::addAll);
+                        getPrimitive(defaults, "imageHashIndex", JsonElement::getAsString, defImageHashIndex::set);
+                        getPrimitive(defaults, "imageConcurrency", JsonElement::getAsInt, defImageConcurrency::set);
+                        getPrimitive(defaults, "imageMetadata", JsonElement::getAsString, defImageMetadata::set);
+                        getPrimitive(defaults, "imageMinWidth", JsonElement::getAsInt, defImageMinWidth::set);
+                        getPrimitive(defaults, "imageMinHeight", JsonElement::getAsInt, defImageMinHeight::set);
+                        getPrimitive(defaults, "zipMaxEntries", JsonElement::getAsInt, defZipMaxEntries::set);
+                        getPrimitive(defaults, "zipMaxTotalSize", JsonElement::getAsLong, defZipMaxTotalSize::set);
+                        getPrimitive(defaults, "imageMaxPixels", JsonElement::getAsLong, defImageMaxPixels::set);
+                        getPrimitive(defaults, "imageMaxBytes", JsonElement::getAsLong, defImageMaxBytes::set);
                         defFieldDefaults.putAll(readContentTypesDefaults(defaults));
                         parseSignatures(defaults, defSignatures::add);
+                        parseTriage(defaults, defTriage);
                     });
             final String defaultPrincipalId = Optional.ofNullable(defPrincipalId.get())
                                                       .filter(StringUtils::notEmpty)
@@ -239,6 +293,21 @@ public class MailImporterConfigLoader {
                 mainRouteConfig.setImageMinSize(defImageMinSize.get());
                 mainRouteConfig.getSignatures().addAll(defSignatures);
                 mainRouteConfig.setDumpFolder(defDumpFolder.get());
+                mainRouteConfig.setAttachmentSpoolThreshold(defAttachmentSpoolThreshold.get());
+                mainRouteConfig.setSpoolFolder(defSpoolFolder.get());
+                mainRouteConfig.setSelectiveFetch(defSelectiveFetch.get());
+                mainRouteConfig.setFilterAttachments(defFilterAttachments.get());
+                mainRouteConfig.setAcceptedAttachmentExtensions(new ArrayList<>(defAcceptedAttachmentExtensions));
+                mainRouteConfig.setImageHashIndex(defImageHashIndex.get());
+                mainRouteConfig.setImageConcurrency(defImageConcurrency.get());
+                mainRouteConfig.setImageMetadata(defImageMetadata.get());
+                mainRouteConfig.setImageMinWidth(defImageMinWidth.get());
+                mainRouteConfig.setImageMinHeight(defImageMinHeight.get());
+                mainRouteConfig.setZipMaxEntries(defZipMaxEntries.get());
+                mainRouteConfig.setZipMaxTotalSize(defZipMaxTotalSize.get());
+                mainRouteConfig.setImageMaxPixels(defImageMaxPixels.get());
+                mainRouteConfig.setImageMaxBytes(defImageMaxBytes.get());
+                mainRouteConfig.setTriage(defTriage.copy());
             }
             jsonSection(jsonElement, "mailUri", JsonElement::isJsonArray, JsonElement::getAsJsonArray)
                     .ifPresent(mailUri -> {
@@ -258,6 +327,21 @@ public class MailImporterConfigLoader {
                                     routeConfig.setImageMinSize(defImageMinSize.get());
                                     routeConfig.getSignatures().addAll(defSignatures);
                                     routeConfig.setDumpFolder(defDumpFolder.get());
+                                    routeConfig.setAttachmentSpoolThreshold(defAttachmentSpoolThreshold.get());
+                                    routeConfig.setSpoolFolder(defSpoolFolder.get());
+                                    routeConfig.setSelectiveFetch(defSelectiveFetch.get());
+                                    routeConfig.setFilterAttachments(defFilterAttachments.get());
+                                    routeConfig.setAcceptedAttachmentExtensions(new ArrayList<>(defAcceptedAttachmentExtensions));
+                                    routeConfig.setImageHashIndex(defImageHashIndex.get());
+                                    routeConfig.setImageConcurrency(defImageConcurrency.get());
+                                    routeConfig.setImageMetadata(defImageMetadata.get());
+                                    routeConfig.setImageMinWidth(defImageMinWidth.get());
+                                    routeConfig.setImageMinHeight(defImageMinHeight.get());
+                                    routeConfig.setZipMaxEntries(defZipMaxEntries.get());
+                                    routeConfig.setZipMaxTotalSize(defZipMaxTotalSize.get());
+                                    routeConfig.setImageMaxPixels(defImageMaxPixels.get());
+                                    routeConfig.setImageMaxBytes(defImageMaxBytes.get());
+                                    routeConfig.setTriage(defTriage.copy());
                                     getPrimitive(mailJson, "webPage", JsonElement::getAsString, routeConfig::setWebPage);
                                     getPrimitive(mailJson, "deskLevel", JsonElement::getAsString, routeConfig::setDeskLevel);
                                     getPrimitive(mailJson, "section", JsonElement::getAsString, routeConfig::setSection);
@@ -267,18 +351,44 @@ public class MailImporterConfigLoader {
                                     getPrimitive(mailJson, "minWords", JsonElement::getAsInt, routeConfig::setMinWords);
                                     getPrimitive(mailJson, "imageMinSize", JsonElement::getAsLong, routeConfig::setImageMinSize);
                                     getPrimitive(mailJson, "dumpFolder", JsonElement::getAsString, routeConfig::setDumpFolder);
+                                    getPrimitive(mailJson, "attachmentSpoolThreshold", JsonElement::getAsLong, routeConfig::setAttachmentSpoolThreshold);
+                                    getPrimitive(mailJson, "spoolFolder", JsonElement::getAsString, routeConfig::setSpoolFolder);
+                                    getPrimitive(mailJson, "selectiveFetch", JsonElement::getAsBoolean, routeConfig::setSelectiveFetch);
+                                    getPrimitive(mailJson, "filterAttachments", JsonElement::getAsBoolean, routeConfig::setFilterAttachments);
+                                    parseStrings(mailJson, "acceptedAttachmentExtensions", routeConfig::setAcceptedAttachmentExtensions);
+                                    getPrimitive(mailJson, "imageHashIndex", JsonElement::getAsString, routeConfig::setImageHashIndex);
+                                    getPrimitive(mailJson, "imageConcurrency", JsonElement::getAsInt, routeConfig::setImageConcurrency);
+                                    getPrimitive(mailJson, "imageMetadata", JsonElement::getAsString, routeConfig::setImageMetadata);
+                                    getPrimitive(mailJson, "imageMinWidth", JsonElement::getAsInt, routeConfig::setImageMinWidth);
+                                    getPrimitive(mailJson, "imageMinHeight", JsonElement::getAsInt, routeConfig::setImageMinHeight);
+                                    getPrimitive(mailJson, "zipMaxEntries", JsonElement::getAsInt, routeConfig::setZipMaxEntries);
+                                    getPrimitive(mailJson, "zipMaxTotalSize", JsonElement::getAsLong, routeConfig::setZipMaxTotalSize);
+                                    getPrimitive(mailJson, "imageMaxPixels", JsonElement::getAsLong, routeConfig::setImageMaxPixels);
+                                    getPrimitive(mailJson, "imageMaxBytes", JsonElement::getAsLong, routeConfig::setImageMaxBytes);
                                     final Map<String, Map<String, String>> fieldDefaults = new HashMap<>();
                                     fieldDefaults.putAll(defFieldDefaults);
                                     fieldDefaults.putAll(readContentTypesDefaults(mailJson));
                                     routeConfig.setFieldsDefaults(fieldDefaults);
                                     routeConfig.setFieldsMappings(defFieldMappings);
                                     parseSignatures(mailJson, routeConfig.getSignatures()::add);
+                                    parseTriage(mailJson, routeConfig.getTriage());
                                     config.getMailUris().add(routeConfig);
                                 }
                             }
                         }
                     });
         }
+        for (final MailRouteConfig routeConfig : config.getMailUris()) {
+            // the parser needs them to skip the unused attachments.
+            routeConfig.setAcceptedImageExtensions(new ArrayList<>(config.getAcceptedImageExtensions()));
+
+            // compile the signatures now so we do not need to compile them for each mail.
+            try {
+                routeConfig.getSignatureMatcher();
+            } catch (PatternSyntaxException e) {
+                LOG.error("Invalid signature in route " + routeConfig.getUri() + ": " + e.getMessage());
+            }
+        }
         return config;
     }
 
@@ -299,6 +409,37 @@ public class MailImporterConfigLoader {
                 });
     }
 
+    private static void parseTriage(final JsonElement json,
+                                    final Triage triage) {
+        jsonSection(json, "triage", JsonElement::isJsonObject, JsonElement::getAsJsonObject)
+                .ifPresent(triageJson -> {
+                    getPrimitive(triageJson, "maxSize", JsonElement::getAsLong, triage::setMaxSize);
+                    getPrimitive(triageJson, "skipTinyImagesOnly", JsonElement::getAsBoolean, triage::setSkipTinyImagesOnly);
+                    getPrimitive(triageJson, "action", JsonElement::getAsString,
+                            StringUtils::notEmpty, triage::setAction);
+                    getPrimitive(triageJson, "quarantineFolder", JsonElement::getAsString,
+                            StringUtils::notEmpty, triage::setQuarantineFolder);
+                    parseStrings(triageJson, "allowedSenders", triage::setAllowedSenders);
+                    parseStrings(triageJson, "deniedSenders", triage::setDeniedSenders);
+                });
+    }
+
+    private static void parseStrings(final JsonElement json,
+                                     final String name,
+                                     final Consumer<List<String>> consumer) {
+        jsonSection(json, name, JsonElement::isJsonArray, JsonElement::getAsJsonArray)
+                .ifPresent(array -> {
+                    final List<String> values = new ArrayList<>();
+                    for (int idx = 0; idx < array.size(); idx++) {
+                        final JsonElement element = array.get(idx);
+                        if (element.isJsonPrimitive()) {
+                            values.add(element.getAsString());
+                        }
+                    }
+                    consumer.accept(values);
+                });
+    }
+
     private static Map<String, Map<String, String>> readContentTypesDefaults(final JsonElement jsonElement) {
         final Map<String, Map<String, String>> defaults = new HashMap<>();
         jsonSection(jsonElement, "contentTypes", JsonElement::isJsonObject, JsonElement::getAsJsonObject)
@@ -35,6 +35,9 @@ public class MailImporterEnabledChecker implements Job {
 
     private static final String MAIL_IMPORTER_ROUTE = "mailImporterRoute";
 
+    @Autowired
+    private MailTriageProcessor triageProcessor;
+
     @Autowired
     private MailParseProcessor mailProcessor;
 
@@ -108,6 +111,7 @@ public class MailImporterEnabledChecker implements Job {
                                     //.description(description)
                                     //.setHeader("X-ROUTE-CONFIG", () -> routeConfig)
                                     .process((m) -> m.getIn().setHeader("X-ROUTE-CONFIG", routeConfig))
+                                    .process(triageProcessor)
                                     .process(mailProcessor)
                                     .process(publishProcessor);
                         }
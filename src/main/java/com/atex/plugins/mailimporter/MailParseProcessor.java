@@ -12,6 +12,7 @@ import org.apache.camel.Exchange;
 import org.apache.camel.Message;
 import org.apache.camel.Processor;
 import org.apache.camel.component.mail.MailMessage;
+import org.apache.camel.support.SynchronizationAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -56,6 +57,19 @@ public class MailParseProcessor
     public void process(final Exchange exchange) throws Exception {
         final Message inMsg = exchange.getIn();
         final MailBean mail = parser.parse(exchange);
+        if (mail != null && mail.getRejectedAttachments() != null && !mail.getRejectedAttachments().isEmpty()) {
+            LOG.info(String.format("Mail %s: skipped attachments %s", mail.getSubject(), mail.getRejectedAttachments()));
+        }
+        if (mail != null) {
+            // attachments may have been spooled to disk, make sure
+            // we cleanup them once the exchange has been processed.
+            exchange.addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onDone(final Exchange exchange) {
+                    releaseAttachments(mail);
+                }
+            });
+        }
         exchange.getOut().setBody(mail);
         final MailRouteConfig config = inMsg.getHeader("X-ROUTE-CONFIG", MailRouteConfig.class);
         if (config != null && mail != null) {
@@ -66,6 +80,18 @@ public class MailParseProcessor
         }
     }
 
+    private void releaseAttachments(final MailBean mail) {
+        if (mail.getAttachments() != null) {
+            for (final MailBeanAttachment attachment : mail.getAttachments().values()) {
+                try {
+                    attachment.release();
+                } catch (Exception e) {
+                    LOG.warn("cannot release attachment: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
     private void dumpEmail(final Exchange exchange,
                            final MailBean mail,
                            final String dumpFolder) {
@@ -5,6 +5,7 @@ import java.util.List;
 import org.apache.camel.Exchange;
 import org.apache.commons.mail.util.MimeMessageParser;
 
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
 import com.atex.plugins.mailimporter.MailImporterConfig.Signature;
 
 /**
@@ -18,6 +19,10 @@ public interface MailParser {
         return new MailBean();
     }
 
+    default AttachmentStore createAttachmentStore(final MailRouteConfig routeConfig) {
+        return SpoolingAttachmentStore.of(routeConfig);
+    }
+
     MailBean parse(final Exchange exchange) throws Exception;
 
     String getMessageText(MimeMessageParser messageParser);
@@ -1,7 +1,8 @@
 package com.atex.plugins.mailimporter;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,10 +18,9 @@ import javax.mail.internet.MimeMessage;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.component.mail.MailMessage;
-import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.mail.util.MimeMessageParser;
 import org.jsoup.Jsoup;
-import org.jsoup.parser.Parser;
 import org.jsoup.safety.Whitelist;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,7 +46,9 @@ public class MailParserImpl implements MailParser {
 
     private static final Logger LOG = LoggerFactory.getLogger(MailParserImpl.class);
 
-    private static final String PARAGRAPH_DELIMITER = "\n\n";
+    private static final Whitelist EMAIL_WHITELIST = new Whitelist().addTags(
+            StringUtils.EMAIL_HTML_TAGS.toArray(new String[] {})
+    );
     public static final Pattern EMPTY_PARA_PATTERN = Pattern.compile("^((\\n*<p>(&nbsp;)?</p>\\n*)|(\n+))");
 
     public MailParserImpl() {
@@ -77,57 +79,215 @@ public class MailParserImpl implements MailParser {
         String from = messageParser.getFrom();
         mailBean.setFrom(from);
 
-        Map<String, DataHandler> attachments = mailMessage.getAttachments();
-
-        Map<String, MailBeanAttachment> attachmentFiles = new HashMap<>();
-
         final MailRouteConfig routeConfig = mailMessage.getHeader("X-ROUTE-CONFIG", MailRouteConfig.class);
+        final Map<String, DataHandler> attachments = mailMessage.getAttachments();
+        final Map<String, MailBeanAttachment> attachmentFiles = new HashMap<>();
         if (attachments.size() > 0) {
-            final long minImageSize = Optional.ofNullable(routeConfig)
-                                              .map(MailRouteConfig::getImageMinSize)
-                                              .orElse(-1L);
-            for (String attachmentKey : attachments.keySet()) {
-                final DataHandler dataHandler = attachments.get(attachmentKey);
-                final String contentType = Optional.ofNullable(dataHandler.getContentType())
-                                                   .orElse("")
-                                                   .toLowerCase();
-
-                final String filename = dataHandler.getName();
-                final byte[] data = exchange.getContext()
-                                            .getTypeConverter()
-                                            .convertTo(byte[].class, dataHandler.getInputStream());
-                if (!contentType.startsWith("image") || data.length > minImageSize) {
-                    LOG.info(String.format("Found attachment %s (%s) of size %d",
-                            filename,
-                            contentType,
-                            data.length));
-                    final MailBeanAttachment attachment = new MailBeanAttachment();
-                    attachment.setContentType(contentType);
-                    attachment.setContent(data);
-                    attachmentFiles.put(filename, attachment);
-                } else {
-                    LOG.warn(String.format("Skipping attachment %s (%s of size %d) minImageSize is %d",
-                            filename,
-                            contentType,
-                            data.length,
-                            minImageSize));
+            final AttachmentStore attachmentStore = createAttachmentStore(routeConfig);
+            final AttachmentFilter attachmentFilter = getAttachmentFilter(routeConfig);
+            try {
+                for (String attachmentKey : attachments.keySet()) {
+                    final DataHandler dataHandler = attachments.get(attachmentKey);
+                    // the data handler content is decoded only when its stream is read.
+                    if (!attachmentFilter.accept(dataHandler.getName(), dataHandler.getContentType(), -1)) {
+                        rejectAttachment(mailBean, dataHandler.getName(), dataHandler.getContentType(), -1);
+                        continue;
+                    }
+                    try (final InputStream is = dataHandler.getInputStream()) {
+                        addAttachment(
+                                attachmentFiles,
+                                attachmentStore,
+                                routeConfig,
+                                dataHandler.getName(),
+                                dataHandler.getContentType(),
+                                is
+                        );
+                    }
                 }
+            } catch (IOException | RuntimeException e) {
+                // the bean is not returned, so nobody else would release the spooled attachments.
+                attachmentFiles.values().forEach(MailBeanAttachment::release);
+                throw e;
             }
         }
 
         mailBean.setAttachments(attachmentFiles);
 
-        final String body = normalizeLineEndings(getMessageText(messageParser));
-        if (StringUtils.isHtmlBody(body)) {
-            setHtmlContent(mailBean, body);
+        return setMessageText(mailBean, getMessageText(messageParser), routeConfig);
+    }
+
+    /**
+     * @param routeConfig the route config.
+     * @return the filter of the attachments, checked before reading them: the route accepted image and attachment
+     * extensions and image min size are used unless the route disables <code>filterAttachments</code> (the
+     * <code>selectiveFetch</code> option always enables it), in that case all the attachments are read.
+     */
+    protected AttachmentFilter getAttachmentFilter(final MailRouteConfig routeConfig) {
+        return Optional.ofNullable(routeConfig)
+                       .filter(route -> route.isFilterAttachments() || route.isSelectiveFetch())
+                       .map(MailRouteConfig::getAttachmentFilter)
+                       .orElse(AttachmentFilter.ACCEPT_ALL);
+    }
+
+    protected void rejectAttachment(final MailBean mailBean,
+                                    final String filename,
+                                    final String contentType,
+                                    final long declaredSize) {
+        LOG.debug(String.format("Skipping attachment %s (%s of declared size %d) without reading it",
+                filename,
+                contentType,
+                declaredSize));
+        mailBean.addRejectedAttachment(filename, declaredSize);
+    }
+
+    protected long getImageMinSize(final MailRouteConfig routeConfig) {
+        return Optional.ofNullable(routeConfig)
+                       .map(MailRouteConfig::getImageMinSize)
+                       .orElse(-1L);
+    }
+
+    protected int getImageMinWidth(final MailRouteConfig routeConfig) {
+        return Optional.ofNullable(routeConfig)
+                       .map(MailRouteConfig::getImageMinWidth)
+                       .orElse(-1);
+    }
+
+    protected int getImageMinHeight(final MailRouteConfig routeConfig) {
+        return Optional.ofNullable(routeConfig)
+                       .map(MailRouteConfig::getImageMinHeight)
+                       .orElse(-1);
+    }
+
+    /**
+     * @param routeConfig the route config.
+     * @return the expander of the archives attachments or null if they should be kept as they are.
+     */
+    protected ZipAttachmentExpander createZipExpander(final MailRouteConfig routeConfig) {
+        if (routeConfig == null || routeConfig.getAcceptedImageExtensions() == null) {
+            return null;
+        }
+        return new ZipAttachmentExpander(
+                routeConfig.getAcceptedImageExtensions(),
+                routeConfig.getZipMaxEntries(),
+                routeConfig.getZipMaxTotalSize()
+        );
+    }
+
+    protected void addAttachment(final Map<String, MailBeanAttachment> attachmentFiles,
+                                 final AttachmentStore attachmentStore,
+                                 final long minImageSize,
+                                 final String filename,
+                                 final String mimeType,
+                                 final InputStream is) throws IOException {
+        addAttachment(attachmentFiles, attachmentStore, minImageSize, -1, -1, filename, mimeType, is);
+    }
+
+    /**
+     * Add the attachment using the route filters, the archives are expanded
+     * and each accepted entry is added as an attachment.
+     */
+    protected void addAttachment(final Map<String, MailBeanAttachment> attachmentFiles,
+                                 final AttachmentStore attachmentStore,
+                                 final MailRouteConfig routeConfig,
+                                 final String filename,
+                                 final String mimeType,
+                                 final InputStream is) throws IOException {
+        final long minImageSize = getImageMinSize(routeConfig);
+        final int minImageWidth = getImageMinWidth(routeConfig);
+        final int minImageHeight = getImageMinHeight(routeConfig);
+        final ZipAttachmentExpander expander = createZipExpander(routeConfig);
+        if (expander != null && expander.canExpand(filename)) {
+            final int count = expander.expand(filename, is, (entryName, entryType, entryStream) -> addAttachment(
+                    attachmentFiles,
+                    attachmentStore,
+                    minImageSize,
+                    minImageWidth,
+                    minImageHeight,
+                    getUniqueName(attachmentFiles, filename, entryName),
+                    entryType,
+                    entryStream
+            ));
+            LOG.info(String.format("Expanded %d entries from archive %s", count, filename));
+            return;
+        }
+        addAttachment(attachmentFiles, attachmentStore, minImageSize, minImageWidth, minImageHeight, filename, mimeType, is);
+    }
+
+    private String getUniqueName(final Map<String, MailBeanAttachment> attachmentFiles,
+                                 final String archiveName,
+                                 final String entryName) {
+        String name = entryName;
+        int idx = 0;
+        while (attachmentFiles.containsKey(name)) {
+            name = FilenameUtils.getBaseName(archiveName) + "-" + (++idx) + "-" + entryName;
+        }
+        return name;
+    }
+
+    /**
+     * Add the attachment, images smaller than the min size (in bytes) or than the min width
+     * and height (in pixels) are skipped. The pixel size is read from the image header before
+     * the attachment is stored, so the images which are too small are never read in full.
+     */
+    protected void addAttachment(final Map<String, MailBeanAttachment> attachmentFiles,
+                                 final AttachmentStore attachmentStore,
+                                 final long minImageSize,
+                                 final int minImageWidth,
+                                 final int minImageHeight,
+                                 final String filename,
+                                 final String mimeType,
+                                 final InputStream inputStream) throws IOException {
+        final String contentType = Optional.ofNullable(mimeType)
+                                           .orElse("")
+                                           .toLowerCase();
+        InputStream is = inputStream;
+        if (contentType.startsWith("image") && (minImageWidth > 0 || minImageHeight > 0)) {
+            is = new BufferedInputStream(inputStream);
+            is.mark(ImageHeaderReader.MAX_HEADER_SIZE);
+            final Optional<ImageHeaderReader.ImageSize> size = ImageHeaderReader.read(is);
+            is.reset();
+            if (size.isPresent() && (size.get().getWidth() < minImageWidth || size.get().getHeight() < minImageHeight)) {
+                LOG.warn(String.format("Skipping attachment %s (%s of %s pixels) minImageWidth is %d and minImageHeight is %d",
+                        filename,
+                        contentType,
+                        size.get(),
+                        minImageWidth,
+                        minImageHeight));
+                return;
+            }
+        }
+        final AttachmentContent data = attachmentStore.store(filename, is);
+        if (!contentType.startsWith("image") || data.getSize() > minImageSize) {
+            LOG.info(String.format("Found attachment %s (%s) of size %d",
+                    filename,
+                    contentType,
+                    data.getSize()));
+            final MailBeanAttachment attachment = new MailBeanAttachment();
+            attachment.setContentType(contentType);
+            attachment.setData(data);
+            attachmentFiles.put(filename, attachment);
         } else {
-            setPlainTextContent(mailBean, body);
+            LOG.warn(String.format("Skipping attachment %s (%s of size %d) minImageSize is %d",
+                    filename,
+                    contentType,
+                    data.getSize(),
+                    minImageSize));
+            data.release();
+        }
+    }
+
+    protected MailBean setMessageText(final MailBean mailBean,
+                                      final String text,
+                                      final MailRouteConfig routeConfig) {
+        if (StringUtils.isHtmlBody(text)) {
+            setHtmlContent(mailBean, normalizeLineEndings(text));
+        } else {
+            setPlainTextContent(mailBean, normalizeLineEndings(text));
         }
 
         if (routeConfig != null) {
-            if (routeConfig.getSignatures() != null && routeConfig.getSignatures().size() > 0) {
-                return removeSignatures(mailBean, routeConfig.getSignatures());
-            }
+            // the signatures are compiled once by the route.
+            return removeSignatures(mailBean, routeConfig.getSignatureMatcher());
         }
 
         return mailBean;
@@ -135,179 +295,94 @@ public class MailParserImpl implements MailParser {
 
     @Override
     public String getMessageText(final MimeMessageParser messageParser) {
-        final String content = messageParser.getPlainContent();
+        return getMessageText(messageParser.getPlainContent(), messageParser.getHtmlContent());
+    }
+
+    /**
+     * Select the message text, the plain content is preferred, when it is empty
+     * the html content will be cleaned up and used.
+     *
+     * @param content the plain content (may be null).
+     * @param htmlContent the html content (may be null).
+     * @return the message text.
+     */
+    protected String getMessageText(final String content,
+                                    final String htmlContent) {
         if (!StringUtil.isEmpty(content)) {
             return content;
         }
-        final String htmlContent = messageParser.getHtmlContent();
         if (htmlContent != null) {
-            return Jsoup.clean(htmlContent, simpleTextWithParagraphs());
+            return Jsoup.clean(htmlContent, EMAIL_WHITELIST);
         }
         return "";
     }
 
-    private String cleanUpHtml(final String text) {
-        return text
-                   // NBSP will cause lot of issues, convert them
-                   .replace("&nbsp;", " ")
-                   .replace('\u00A0', ' ')
-
-                   // ignore text lines
-                   .replace("\n", "")
-                   .replace("\r", "")
-
-                   // convert paragraphs into new lines.
-                   .replace("<p>", "")
-                   .replace("</p>", "\n")
-
-                   // convert line breaks into new lines
-                   .replace("<br>", "\n")
-                   .replace("<br/>", "\n")
-                   .replace("<br />", "\n")
-
-                   // convert divs into new lines
-                   .replace("<div>", "")
-                   .replace("</div>", "\n")
-
-                   // normalize line endings
-                   .replace("\n ", "\n")
-                   .replace(" \n", "\n")
-                   .replaceAll("\r\n", "\n")
-                   .replaceAll("\r", "\n");
-    }
-
-    private Whitelist simpleTextWithParagraphs() {
-        return new Whitelist().addTags(StringUtils.EMAIL_HTML_TAGS.toArray(new String[] {}));
-    }
-
     @Override
     public String removeSignatures(final String text,
                                    final List<Signature> signatureList) {
-        if (StringUtils.notEmpty(text) && signatureList != null && signatureList.size() > 0) {
-            if (text.toLowerCase().contains("<p>")) {
-                final String lines = StringUtils.paragraphsToLines(text);
-                final String newText = cleanupSignatures(lines, signatureList);
-                return StringUtils.linesToParagraphs(newText);
-            } else {
-                return cleanupSignatures(text, signatureList);
-            }
+        return removeSignatures(text, SignatureMatcher.compile(signatureList));
+    }
+
+    /**
+     * Remove the signatures from the mail body, it is called with the signatures compiled by the route.
+     *
+     * @param bean the mail.
+     * @param signatureMatcher the compiled signatures.
+     * @return the mail.
+     */
+    protected MailBean removeSignatures(final MailBean bean,
+                                        final SignatureMatcher signatureMatcher) {
+        if (bean != null && !signatureMatcher.isEmpty()) {
+            bean.setBody(removeSignatures(bean.getBody(), signatureMatcher));
         }
-        return text;
+        return bean;
     }
 
-    private String cleanupSignatures(final String text,
-                                     final List<Signature> signatureList) {
-        if (StringUtils.notEmpty(text)) {
-            final List<Pattern> patterns = signatureList.stream()
-                                                        .map(Signature::getRegex)
-                                                        .map(re -> Pattern.compile(re, Pattern.MULTILINE))
-                                                        .collect(Collectors.toList());
-            String newText = text;
-            for (int pIdx = 0; pIdx < patterns.size(); pIdx++) {
-                final Pattern p = patterns.get(pIdx);
-                final Matcher matcher = p.matcher(newText);
-                if (matcher.find()) {
-                    newText = newText.substring(0, matcher.start());
-                    final String[] lines = newText.split("\n");
-                    final List<String> ll = new ArrayList<>(Arrays.asList(lines));
-                    final int e = ll.size();
-                    final int before = signatureList.get(pIdx).getBefore();
-                    final int top = Math.max(0, ll.size() - before);
-                    if (e > top) {
-                        ll.subList(top, e).clear();
-                    }
-                    for (int i = ll.size() - 1; i >= 0; i--) {
-                        if (StringUtil.isEmpty(ll.get(i))) {
-                            ll.remove(i);
-                        } else {
-                            break;
-                        }
-                    }
-                    return String.join("\n", ll);
-                }
+    protected String removeSignatures(final String text,
+                                      final SignatureMatcher signatureMatcher) {
+        if (StringUtils.notEmpty(text) && !signatureMatcher.isEmpty()) {
+            if (ParagraphCodec.containsParagraph(text)) {
+                final String lines = ParagraphCodec.paragraphsToLines(text);
+                final String newText = signatureMatcher.apply(lines);
+                return ParagraphCodec.linesToParagraphs(newText);
+            } else {
+                return signatureMatcher.apply(text);
             }
         }
         return text;
     }
 
-    protected void setPlainTextContent(MailBean mailBean, String body) {
-        String lead = "";
-
-        if (body.contains(PARAGRAPH_DELIMITER)) {
-            int paragraphIndex = body.indexOf(PARAGRAPH_DELIMITER);
-
-            lead = body.substring(0, paragraphIndex).trim();
-            body = body.substring(paragraphIndex + PARAGRAPH_DELIMITER.length()).trim();
-        }
-
-        // E-mail clients use in-line chunk data references to mark positions where images
-        // are in-lined in the mail. The default Mac Mail client (might be others as well)
-        // use a format like [cid:af1b90bbaa34355a] that neither GMail nor Apache Email
-        // seem to understand.
-        //
-        // I order to avoid these ugly markers in the resulting article texts, we try to clear
-        // them out, preferably without affecting anything else.
-
-        lead = removeInlinedCIDReferences(lead);
-        body = removeInlinedCIDReferences(body);
-
-        body = StringUtils.linesToParagraphs(
-                StringEscapeUtils.escapeHtml(body.replace('\u00A0', ' '))
-        );
+    /**
+     * Set the lead and the body from the plain text, the parsers call it for the plain text mails.
+     *
+     * @param mailBean the mail bean.
+     * @param body the plain text, the line endings must be already normalized.
+     */
+    protected void setPlainTextContent(final MailBean mailBean,
+                                       final String body) {
+        setPlainTextContent(mailBean, PlainBodyNormalizer.normalize(body, false));
+    }
 
-        mailBean.setBody(body);
-        mailBean.setLead(lead);
+    protected void setPlainTextContent(final MailBean mailBean,
+                                       final PlainBodyNormalizer normalizer) {
+        mailBean.setBody(normalizer.getBody());
+        mailBean.setLead(normalizer.getLead());
     }
 
     protected void setHtmlContent(final MailBean mailBean,
                                   final String html) {
-        // HTML Layout is specified as:
-        //          lead
-        //          <p>{whitespace}</p>
-        //          body
-        //
-        //          newlines are not required.
-
-        final String fullText = Parser.unescapeEntities(html, true);
-
-        String lead = "";
-        // trim lines to make sure we don't have unwanted spaces.
-        String body = StringUtils.trimLines(cleanUpHtml(fullText));
-        if (body.contains("\n\n")) {
-            int paragraphIndex = body.indexOf("\n\n");
-            lead = body.substring(0, paragraphIndex).trim();
-            body = body.substring(paragraphIndex + "\n\n".length()).trim();
-        } else if (body.contains("\n")) {
-            int paragraphIndex = body.indexOf("\n");
-            lead = body.substring(0, paragraphIndex).trim();
-            body = body.substring(paragraphIndex + "\n".length()).trim();
-        }
-
-        // E-mail clients use in-line chunk data references to mark positions where images
-        // are in-lined in the mail. The default Mac Mail client (might be others as well)
-        // use a format like [cid:af1b90bbaa34355a] that neither GMail nor Apache Email
-        // seem to understand.
-        //
-        // I order to avoid these ugly markers in the resulting article texts, we try to clear
-        // them out, preferably without affecting anything else.
-
-        lead = removeInlinedCIDReferences(lead);
-        lead = StringEscapeUtils.unescapeXml(StringEscapeUtils.escapeHtml(lead));
-
-        body = removeInlinedCIDReferences(body);
-        body = StringUtils.linesToParagraphs(StringEscapeUtils.unescapeXml(StringEscapeUtils.escapeHtml(body)));
-
-        mailBean.setBody(body);
-        mailBean.setLead(lead);
+        final HtmlBodyNormalizer normalizer = HtmlBodyNormalizer.normalize(html);
+        mailBean.setBody(normalizer.getBody());
+        mailBean.setLead(normalizer.getLead());
     }
 
     private String normalizeLineEndings(final String text) {
         if (text == null) {
             return "";
         }
-        return text.replaceAll("\r\n", "\n")
-                   .replaceAll("\n ", "\n")
-                   .replaceAll("\r", "\n");
+        return text.replace("\r\n", "\n")
+                   .replace("\n ", "\n")
+                   .replace('\r', '\n');
     }
 
     String removeStartingEmptyLines(String body) {
@@ -321,8 +396,4 @@ public class MailParserImpl implements MailParser {
         }
         return body;
     }
-
-    private String removeInlinedCIDReferences(final String text) {
-        return text.replaceAll("\\[cid:.*?]\n*", "");
-    }
 }
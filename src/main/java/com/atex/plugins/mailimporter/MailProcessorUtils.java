@@ -1,13 +1,8 @@
 package com.atex.plugins.mailimporter;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,7 +14,6 @@ import java.util.Set;
 
 import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.beanutils.PropertyUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.text.StrLookup;
 import org.apache.commons.lang.text.StrSubstitutor;
 import org.slf4j.Logger;
@@ -44,6 +38,10 @@ import com.drew.metadata.Directory;
 import com.drew.metadata.Tag;
 import com.drew.metadata.icc.IccDirectory;
 import com.drew.metadata.iptc.IptcDirectory;
+import com.google.common.hash.HashCode;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import com.polopoly.metadata.Metadata;
 import com.polopoly.model.ModelDomain;
 import com.polopoly.model.ModelType;
@@ -52,16 +50,35 @@ import com.polopoly.model.ModelTypeBean;
 public class MailProcessorUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger(MailProcessorUtils.class);
+    private static final Gson GSON = new GsonBuilder().create();
 
     private static final Subject SYSTEM_SUBJECT = new Subject("98", "");
 
+    static final String IMAGE_METADATA_MODE_PARAMETER = "image.metadata.mode";
+    static final String IMAGE_METADATA_LOCAL = "local";
+    static final String IPTC_FAST_PATH_PARAMETER = "image.metadata.iptc.fastPath";
+
+    private static final String IPTC_DIRECTORY_NAME = "IPTC";
+
     private final ContentManager contentManager;
     private final ModelDomain modelDomain;
+    private final MetadataTagsCache metadataTagsCache;
 
     public MailProcessorUtils(final ContentManager contentManager,
                               final ModelDomain modelDomain) {
+        this(contentManager, modelDomain, MetadataTagsCache.fromSystemProperties());
+    }
+
+    public MailProcessorUtils(final ContentManager contentManager,
+                              final ModelDomain modelDomain,
+                              final MetadataTagsCache metadataTagsCache) {
         this.contentManager = contentManager;
         this.modelDomain = modelDomain;
+        this.metadataTagsCache = metadataTagsCache;
+    }
+
+    public MetadataTagsCache getMetadataTagsCache() {
+        return metadataTagsCache;
     }
 
     static class BeanStrLookup extends StrLookup {
@@ -98,35 +115,166 @@ public class MailProcessorUtils {
         CustomMetadataTags customTags;
     }
 
-    public MetadataTagsHolder getMetadataTags(final InputStream is) throws ImageProcessingException, IOException {
+    /**
+     * @param holder the metadata of an image.
+     * @param width the new image width.
+     * @param height the new image height.
+     * @return the metadata of the resized image, the given ones are not modified since they may be cached.
+     */
+    public static MetadataTagsHolder withImageSize(final MetadataTagsHolder holder,
+                                                   final int width,
+                                                   final int height) {
         final MetadataTagsHolder result = new MetadataTagsHolder();
+        result.customTags = holder.customTags;
+        if (holder.tags != null) {
+            final JsonObject json = GSON.toJsonTree(holder.tags).getAsJsonObject();
+            json.addProperty("imageWidth", width);
+            json.addProperty("imageHeight", height);
+            result.tags = GSON.fromJson(json, MetadataTagsAspectBean.class);
+        }
+        return result;
+    }
 
-        // resetting the stream is not an option when the stream is quite large, so we have to copy
-        // the stream to a temporary file, we are not using an array since it means we will have a
-        // very large array sitting in memory, but copying to a file in the fileSystem we will relay
-        // on the os files cache.
-
-        final Path tempFile = Files.createTempFile("image.", ".jpg");
+    public MetadataTagsHolder getMetadataTags(final InputStream is) throws ImageProcessingException, IOException {
+        // a stream cannot be read twice, so we have to keep a copy: small images stay in memory
+        // and only the big ones are spooled to a temporary file.
+        final AttachmentContent content = new SpoolingAttachmentStore().store("image", is);
         try {
-            try (final OutputStream os = Files.newOutputStream(tempFile, StandardOpenOption.APPEND)) {
-                IOUtils.copy(is, os);
+            return getMetadataTags(content);
+        } finally {
+            content.release();
+        }
+    }
+
+    /**
+     * Read the metadata of an image which can be read more than once (i.e. an attachment),
+     * the image is read in place and not copied.
+     *
+     * @param content the image.
+     * @return the metadata.
+     */
+    public MetadataTagsHolder getMetadataTags(final AttachmentContent content) throws ImageProcessingException, IOException {
+        final ImagePipeline image = ImagePipeline.of(content);
+        return getMetadataTags(image, image.getMimeType().orElse("image/jpeg"));
+    }
+
+    /**
+     * Read the metadata of an image which can be read more than once, the image is not copied
+     * since each reader gets its own stream on the content and the mime type is not sniffed again.
+     *
+     * @param content the image.
+     * @param mimeType the image mime type.
+     * @return the metadata.
+     */
+    public MetadataTagsHolder getMetadataTags(final AttachmentContent content,
+                                              final String mimeType) throws ImageProcessingException, IOException {
+        return getMetadataTags(content, mimeType, isLocalImageMetadata(null));
+    }
+
+    /**
+     * Read the metadata of an image which can be read more than once.
+     *
+     * @param content the image.
+     * @param mimeType the image mime type.
+     * @param local true to build the image metadata from the local metadata-extractor pass
+     *              instead of calling the image metadata extraction service.
+     * @return the metadata, they are cached using the image hash (see {@link MetadataTagsCache}).
+     */
+    public MetadataTagsHolder getMetadataTags(final AttachmentContent content,
+                                              final String mimeType,
+                                              final boolean local) throws ImageProcessingException, IOException {
+        return getMetadataTags(content, mimeType, local, null);
+    }
+
+    /**
+     * Read the metadata of an image which can be read more than once.
+     *
+     * @param content the image.
+     * @param mimeType the image mime type.
+     * @param local true to build the image metadata from the local metadata-extractor pass
+     *              instead of calling the image metadata extraction service.
+     * @param imageHash the {@link ImageHashIndex#hash(InputStream)} of the image when it is already known
+     *                  (i.e. it has been computed for the image hash index), null to compute it when needed.
+     * @return the metadata, they are cached using the image hash (see {@link MetadataTagsCache}).
+     */
+    public MetadataTagsHolder getMetadataTags(final AttachmentContent content,
+                                              final String mimeType,
+                                              final boolean local,
+                                              final HashCode imageHash) throws ImageProcessingException, IOException {
+        final ImagePipeline image = ImagePipeline.of(content);
+        final HashCode hash;
+        if (metadataTagsCache.isEnabled()) {
+            if (imageHash != null) {
+                hash = imageHash;
+            } else {
+                try (final InputStream is = image.openStream()) {
+                    hash = ImageHashIndex.hash(is);
+                }
             }
-            try (final InputStream fis = Files.newInputStream(tempFile, StandardOpenOption.READ)) {
-                com.drew.metadata.Metadata metadata = ImageMetadataReader.readMetadata(fis);
-                result.customTags = extract(metadata);
+            final MetadataTagsHolder cached = metadataTagsCache.get(hash, local);
+            if (cached != null) {
+                LOG.debug("Using cached metadata for image {} ({})", hash, metadataTagsCache.stats());
+                return cached;
             }
-            try (final InputStream fis = Files.newInputStream(tempFile, StandardOpenOption.READ)) {
-                try (final BufferedInputStream bfis = new BufferedInputStream(fis)) {
-                    final Optional<MetadataTagsAspectBean> metadataTags = new ImageMetadataExtraction().extract(bfis);
-                    metadataTags.ifPresent(metadataTagsAspectBean -> result.tags = metadataTagsAspectBean);
-                }
+        } else {
+            hash = null;
+        }
+        final MetadataTagsHolder result = new MetadataTagsHolder();
+        // the service does not need the metadata-extractor directories, so only the iptc block is decoded
+        // (unless the custom tags should have a key for each directory, see isIptcFastPath).
+        final Map<Integer, String> iptc = (local || !isIptcFastPath())
+                ? null
+                : IptcMetadataReader.read(image.asByteBuffer()).orElse(null);
+        com.drew.metadata.Metadata metadata = null;
+        if (iptc != null) {
+            result.customTags = extract(iptc);
+        } else {
+            try (final InputStream is = image.openStream()) {
+                metadata = ImageMetadataReader.readMetadata(is);
             }
-        } finally {
-            Files.deleteIfExists(tempFile);
+            result.customTags = extract(metadata);
+        }
+        final Optional<MetadataTagsAspectBean> metadataTags;
+        if (local) {
+            metadataTags = new LocalImageMetadataExtraction().extract(metadata);
+        } else {
+            metadataTags = new ImageMetadataExtraction().extract(image, mimeType);
+        }
+        metadataTags.ifPresent(metadataTagsAspectBean -> result.tags = metadataTagsAspectBean);
+        // when the service failed we will try again next time.
+        if (hash != null && result.tags != null) {
+            metadataTagsCache.put(hash, local, result);
         }
         return result;
     }
 
+    /**
+     * @param routeConfig the route configuration (may be null).
+     * @return true if the image metadata should be extracted locally, the route <code>imageMetadata</code>
+     * option takes precedence over the <code>image.metadata.mode</code> system property.
+     */
+    public static boolean isLocalImageMetadata(final MailRouteConfig routeConfig) {
+        final String mode = Optional.ofNullable(routeConfig)
+                                    .map(MailRouteConfig::getImageMetadata)
+                                    .filter(StringUtils::notEmpty)
+                                    .orElseGet(() -> System.getProperty(IMAGE_METADATA_MODE_PARAMETER));
+        return IMAGE_METADATA_LOCAL.equalsIgnoreCase(mode);
+    }
+
+    /**
+     * @return true (the default) if the iptc tags of the images sent to the metadata service are decoded straight
+     * from the iptc block, in that case the custom tags map only has the <code>IPTC</code> key. Set the
+     * <code>image.metadata.iptc.fastPath</code> system property to false to always get a key for each
+     * metadata-extractor directory.
+     */
+    static boolean isIptcFastPath() {
+        return !"false".equalsIgnoreCase(System.getProperty(IPTC_FAST_PATH_PARAMETER));
+    }
+
+    /**
+     * @param metadata the metadata read by metadata-extractor.
+     * @return the custom tags, the tags map has a key for each directory (but the icc one).
+     */
     public CustomMetadataTags extract(com.drew.metadata.Metadata metadata) {
 
         Map<String, Map<String, ?>> tags = new HashMap<>();
@@ -147,44 +295,70 @@ public class MailProcessorUtils {
         return customMetadataTags;
     }
 
+    /**
+     * @param iptc the IPTC descriptions by tag type read by {@link IptcMetadataReader}.
+     * @return the custom tags, since only the IPTC block has been read the tags map has only
+     * the <code>IPTC</code> key (when the image has an IPTC block).
+     */
+    public CustomMetadataTags extract(final Map<Integer, String> iptc) {
+        final Map<String, Map<String, ?>> tags = new HashMap<>();
+        final CustomMetadataTags customMetadataTags = new CustomMetadataTags();
+        for (final Map.Entry<Integer, String> entry : iptc.entrySet()) {
+            readIptcTag(entry.getKey(), entry.getValue(), customMetadataTags);
+        }
+        if (!iptc.isEmpty()) {
+            tags.put(IPTC_DIRECTORY_NAME, new HashMap<String, Object>());
+        }
+        customMetadataTags.setTags(tags);
+        return customMetadataTags;
+    }
+
     public void readIptcDirectoryTag(final Directory directory,
                                      final Tag tag,
                                      final CustomMetadataTags metadataTags) {
-        int type = tag.getTagType();
+        readIptcTag(tag.getTagType(), directory.getDescription(tag.getTagType()), metadataTags);
+    }
 
+    /**
+     * @param type the IPTC tag type (see {@link IptcDirectory}).
+     * @param description the tag description.
+     * @param metadataTags the custom tags to be filled.
+     */
+    public void readIptcTag(final int type,
+                            final String description,
+                            final CustomMetadataTags metadataTags) {
         switch (type) {
             case IptcDirectory.TAG_BY_LINE:
-                metadataTags.setByline(trim(directory.getDescription(type)));
+                metadataTags.setByline(trim(description));
                 break;
             case IptcDirectory.TAG_SOURCE:
-                metadataTags.setSource(trim(directory.getDescription(type)));
+                metadataTags.setSource(trim(description));
                 break;
             case IptcDirectory.TAG_CAPTION:
-                metadataTags.setDescription(trim(directory.getDescription(type)));
-                metadataTags.setCaption(trim(directory.getDescription(type)));
+                metadataTags.setDescription(trim(description));
+                metadataTags.setCaption(trim(description));
                 break;
             case IptcDirectory.TAG_HEADLINE:
-                metadataTags.setHeadline(trim(directory.getDescription(type)));
+                metadataTags.setHeadline(trim(description));
                 break;
             case IptcDirectory.TAG_COPYRIGHT_NOTICE:
-                metadataTags.setCopyright(trim(directory.getDescription(type)));
+                metadataTags.setCopyright(trim(description));
                 break;
             case IptcDirectory.TAG_CREDIT:
-                metadataTags.setCredit(trim(directory.getDescription(type)));
+                metadataTags.setCredit(trim(description));
                 break;
             case IptcDirectory.TAG_KEYWORDS:
-                metadataTags.setKeywords(trim(directory.getDescription(type)));
+                metadataTags.setKeywords(trim(description));
                 break;
             case IptcDirectory.TAG_CATEGORY:
-                metadataTags.setSubject(trim(directory.getDescription(type)));
+                metadataTags.setSubject(trim(description));
                 break;
             case IptcDirectory.TAG_DATE_CREATED:
-                String dateString = directory.getDescription(type);
-                metadataTags.setDateCreated(StringUtils.getNormalizedDateString(dateString));
+                metadataTags.setDateCreated(StringUtils.getNormalizedDateString(description));
                 break;
             case IptcDirectory.TAG_COUNTRY_OR_PRIMARY_LOCATION_NAME:
             case IptcDirectory.TAG_SUB_LOCATION:
-                final String desc = trim(directory.getDescription(type));
+                final String desc = trim(description);
                 if (metadataTags.getLocation() == null) {
                     metadataTags.setLocation(desc);
                 } else {
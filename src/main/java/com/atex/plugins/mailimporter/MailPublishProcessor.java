@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Message;
@@ -45,6 +46,13 @@ public class MailPublishProcessor implements Processor {
         }
     }
 
+    @PreDestroy
+    public void destroy() {
+        if (publisher != null) {
+            publisher.shutdown();
+        }
+    }
+
     @Override
     public void process(final Exchange exchange) throws Exception {
         final Message inMsg = exchange.getIn();
@@ -18,4 +18,10 @@ public interface MailPublisher {
     List<ContentId> publish(final MailBean mail,
                             final MailRouteConfig routeConfig) throws Exception;
 
+    /**
+     * Release the resources of the publisher, it is called when the route is stopped.
+     */
+    default void shutdown() {
+    }
+
 }
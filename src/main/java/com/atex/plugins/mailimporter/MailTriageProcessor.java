@@ -0,0 +1,225 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.InternetAddress;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.Processor;
+import org.apache.camel.component.mail.MailMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+import com.atex.plugins.mailimporter.MailImporterConfig.Triage;
+
+/**
+ * <p>
+ *   Camel {@link Processor} which rejects the unwanted mails before the
+ *   {@link MailParseProcessor} downloads and parses them.
+ * </p>
+ *
+ * <p>
+ *   Only the envelope data is used: the sender, the message size (RFC822.SIZE
+ *   in IMAP and LIST in POP3) and the mime structure (BODYSTRUCTURE in IMAP), the
+ *   javax.mail providers fetch them without fetching the message body.
+ *   Use <code>mapMailMessage=false</code> in the mail uri, otherwise camel
+ *   will fetch the whole message before calling the route.
+ * </p>
+ *
+ * <p>
+ *   A rejected mail can be:
+ *   <ul>
+ *     <li><code>skip</code>: the route is stopped and the mail is handled as a processed one
+ *     (i.e. deleted or marked as seen).</li>
+ *     <li><code>defer</code>: the exchange fails so the mail will be left in the mailbox.</li>
+ *     <li><code>quarantine</code>: like skip but the mail is copied to the quarantine folder
+ *     (only IMAP support it), when the folder is not configured the mail will be deferred.</li>
+ *   </ul>
+ *   Unknown actions defer the mail.
+ * </p>
+ *
+ * @author mnova
+ */
+@Component
+public class MailTriageProcessor implements Processor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailTriageProcessor.class);
+
+    /**
+     * The header used by camel to copy the message to another folder after it has been processed.
+     */
+    static final String COPY_TO_HEADER = "copyTo";
+
+    public MailTriageProcessor() {
+    }
+
+    @Override
+    public void process(final Exchange exchange) throws Exception {
+        final Message inMsg = exchange.getIn();
+        final MailRouteConfig routeConfig = inMsg.getHeader("X-ROUTE-CONFIG", MailRouteConfig.class);
+        if (routeConfig == null || routeConfig.getTriage() == null || !routeConfig.getTriage().isEnabled()) {
+            return;
+        }
+        final MailMessage mailMessage = exchange.getIn(MailMessage.class);
+        if (mailMessage == null || mailMessage.getOriginalMessage() == null) {
+            return;
+        }
+        final Triage triage = routeConfig.getTriage();
+        final String reason = getRejectReason(mailMessage.getOriginalMessage(), routeConfig);
+        if (reason == null) {
+            return;
+        }
+        final String action = triage.getAction();
+        if (Triage.ACTION_QUARANTINE.equalsIgnoreCase(action) && StringUtils.notEmpty(triage.getQuarantineFolder())) {
+            LOG.info(String.format("Quarantine mail to %s: %s", triage.getQuarantineFolder(), reason));
+            inMsg.setHeader(COPY_TO_HEADER, triage.getQuarantineFolder());
+            exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+        } else if (Triage.ACTION_SKIP.equalsIgnoreCase(action)) {
+            LOG.info("Skip mail: " + reason);
+            exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+        } else {
+            throw new MailDeferredException("Defer mail: " + reason);
+        }
+    }
+
+    /**
+     * @param message the mail.
+     * @param routeConfig the route config.
+     * @return the reason why the mail should be rejected or null if it should be processed.
+     */
+    String getRejectReason(final javax.mail.Message message,
+                           final MailRouteConfig routeConfig) throws MessagingException, IOException {
+        final Triage triage = routeConfig.getTriage();
+
+        // the sender comes from the envelope.
+        if (!triage.getAllowedSenders().isEmpty() || !triage.getDeniedSenders().isEmpty()) {
+            final String sender = getSender(message.getFrom());
+            if (!triage.getAllowedSenders().isEmpty() && !matchesSender(sender, triage.getAllowedSenders())) {
+                return "sender " + sender + " is not allowed";
+            }
+            if (matchesSender(sender, triage.getDeniedSenders())) {
+                return "sender " + sender + " is denied";
+            }
+        }
+
+        // the size comes from the message list.
+        if (triage.getMaxSize() >= 0) {
+            final int size = message.getSize();
+            if (size > triage.getMaxSize()) {
+                return "size " + size + " is greater than " + triage.getMaxSize();
+            }
+        }
+
+        // the structure comes from the message body structure, the part size
+        // is the encoded one so it is never less than the decoded image size.
+        if (triage.isSkipTinyImagesOnly() && routeConfig.getImageMinSize() > 0) {
+            final PartsSummary summary = new PartsSummary(routeConfig.getImageMinSize());
+            summary.walk(message);
+            if (summary.tinyImages > 0 && !summary.hasContent) {
+                return "it only contains " + summary.tinyImages + " images smaller than " + routeConfig.getImageMinSize();
+            }
+        }
+        return null;
+    }
+
+    private String getSender(final Address[] addresses) {
+        if (addresses != null) {
+            for (final Address address : addresses) {
+                if (address instanceof InternetAddress) {
+                    return ((InternetAddress) address).getAddress();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An entry with a local part (<code>user@example.com</code>) must match the whole address,
+     * otherwise it is a domain (<code>example.com</code> or <code>@example.com</code>)
+     * which matches the address domain and its sub domains.
+     */
+    boolean matchesSender(final String sender,
+                          final List<String> entries) {
+        if (sender == null || entries.isEmpty()) {
+            return false;
+        }
+        final String address = sender.trim().toLowerCase(Locale.ROOT);
+        final String domain = address.substring(address.lastIndexOf('@') + 1);
+        for (final String entry : entries) {
+            final String value = entry.trim().toLowerCase(Locale.ROOT);
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (value.indexOf('@') > 0) {
+                if (value.equals(address)) {
+                    return true;
+                }
+            } else {
+                final String entryDomain = (value.charAt(0) == '@') ? value.substring(1) : value;
+                if (domain.equals(entryDomain) || domain.endsWith("." + entryDomain)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class PartsSummary {
+
+        private final long minImageSize;
+        private int tinyImages = 0;
+        private boolean hasContent = false;
+
+        PartsSummary(final long minImageSize) {
+            this.minImageSize = minImageSize;
+        }
+
+        void walk(final Part part) throws MessagingException, IOException {
+            if (hasContent) {
+                return;
+            }
+            if (part.isMimeType("multipart/*")) {
+                final Object content = part.getContent();
+                if (content instanceof Multipart) {
+                    final Multipart multipart = (Multipart) content;
+                    for (int idx = 0; idx < multipart.getCount(); idx++) {
+                        walk(multipart.getBodyPart(idx));
+                    }
+                } else {
+                    hasContent = true;
+                }
+                return;
+            }
+            if (part.isMimeType("image/*")) {
+                final int size = part.getSize();
+                if (size >= 0 && size < minImageSize) {
+                    tinyImages++;
+                    return;
+                }
+            }
+            // any other part (text, big or unknown size images, other attachments)
+            // may produce some content.
+            hasContent = true;
+        }
+    }
+
+    /**
+     * Thrown when a mail should be left in the mailbox and processed later.
+     */
+    public static class MailDeferredException extends Exception {
+
+        public MailDeferredException(final String message) {
+            super(message);
+        }
+    }
+
+}
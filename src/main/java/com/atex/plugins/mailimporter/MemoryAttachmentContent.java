@@ -0,0 +1,68 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An {@link AttachmentContent} kept in memory.
+ *
+ * @author mnova
+ */
+public class MemoryAttachmentContent implements AttachmentContent {
+
+    private final byte[] data;
+    private final int length;
+
+    public MemoryAttachmentContent(final byte[] data) {
+        this(data, data.length);
+    }
+
+    public MemoryAttachmentContent(final byte[] data,
+                                   final int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    @Override
+    public long getSize() {
+        return length;
+    }
+
+    @Override
+    public InputStream openStream() {
+        return new ByteArrayInputStream(data, 0, length);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel() {
+        return Channels.newChannel(openStream());
+    }
+
+    /**
+     * @return the content array itself when it is fully used, it must not be modified.
+     */
+    @Override
+    public byte[] toByteArray() {
+        if (length == data.length) {
+            return data;
+        }
+        final byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * @return a buffer which shares the content array.
+     */
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(data, 0, length);
+    }
+
+    @Override
+    public void release() {
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Build a minimal image which only contains the metadata of the original one, it is used
+ * to avoid uploading the whole image to the image metadata extraction service.
+ *
+ * <ul>
+ *     <li>jpeg: all the segments before the scan data, so the APPn (exif, xmp, icc, iptc) and COM segments,
+ *     the frame header (SOFn) and the small tables which make it a valid (empty) jpeg, the scan data is dropped;</li>
+ *     <li>png: all the chunks but the image data (IDAT), so the header and the text and exif chunks are kept.</li>
+ * </ul>
+ *
+ * The other formats (i.e. tiff, where the metadata and the image data are referenced by offsets) are not
+ * supported, the caller should send the whole image.
+ *
+ * @author mnova
+ */
+public abstract class MetadataPayload {
+
+    private static final byte[] PNG_SIGNATURE = new byte[] { (byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a };
+    private static final byte[] PNG_IEND = new byte[] { 0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xae, 0x42, 0x60, (byte) 0x82 };
+
+    private static final int SOI = 0xd8;
+    private static final int EOI = 0xd9;
+    private static final int SOS = 0xda;
+
+    /**
+     * @param image the image, it is not modified.
+     * @param mimeType the image mime type.
+     * @return the metadata only image or empty if the format is not supported or the image is malformed.
+     */
+    public static Optional<byte[]> of(final ByteBuffer image,
+                                      final String mimeType) {
+        final ByteBuffer buffer = image.slice();
+        if ("image/jpeg".equals(mimeType)) {
+            return Optional.ofNullable(jpeg(buffer));
+        }
+        if ("image/png".equals(mimeType)) {
+            return Optional.ofNullable(png(buffer));
+        }
+        return Optional.empty();
+    }
+
+    private static byte[] jpeg(final ByteBuffer buffer) {
+        final int limit = buffer.limit();
+        if (limit < 4 || (buffer.get(0) & 0xff) != 0xff || (buffer.get(1) & 0xff) != SOI) {
+            return null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+        out.write(0xff);
+        out.write(SOI);
+        int pos = 2;
+        boolean frame = false;
+        while (pos + 1 < limit) {
+            if ((buffer.get(pos) & 0xff) != 0xff) {
+                return null;
+            }
+            final int marker = buffer.get(pos + 1) & 0xff;
+            if (marker == 0xff) {
+                // fill byte.
+                pos++;
+                continue;
+            }
+            if (marker == EOI) {
+                break;
+            }
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                // standalone markers, without a length.
+                pos += 2;
+                continue;
+            }
+            if (pos + 4 > limit) {
+                return null;
+            }
+            final int length = ((buffer.get(pos + 2) & 0xff) << 8) | (buffer.get(pos + 3) & 0xff);
+            final int end = pos + 2 + length;
+            if (length < 2 || end > limit) {
+                return null;
+            }
+            frame |= isFrame(marker);
+            write(out, buffer, pos, end);
+            if (marker == SOS) {
+                // the entropy coded data follows the scan header.
+                break;
+            }
+            pos = end;
+        }
+        if (!frame) {
+            // without the frame header the service would not find the image size.
+            return null;
+        }
+        out.write(0xff);
+        out.write(EOI);
+        return out.toByteArray();
+    }
+
+    private static boolean isFrame(final int marker) {
+        // SOF0-SOF15 but DHT (c4), JPG (c8) and DAC (cc).
+        return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+    }
+
+    private static byte[] png(final ByteBuffer buffer) {
+        final int limit = buffer.limit();
+        if (limit < PNG_SIGNATURE.length) {
+            return null;
+        }
+        for (int idx = 0; idx < PNG_SIGNATURE.length; idx++) {
+            if (buffer.get(idx) != PNG_SIGNATURE[idx]) {
+                return null;
+            }
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+        write(out, buffer, 0, PNG_SIGNATURE.length);
+        int pos = PNG_SIGNATURE.length;
+        boolean header = false;
+        while (pos + 8 <= limit) {
+            final long length = buffer.getInt(pos) & 0xffffffffL;
+            final long end = pos + 12 + length;
+            if (end > limit) {
+                return null;
+            }
+            final String type = new String(new char[] {
+                    (char) buffer.get(pos + 4),
+                    (char) buffer.get(pos + 5),
+                    (char) buffer.get(pos + 6),
+                    (char) buffer.get(pos + 7)
+            });
+            if (type.equals("IEND")) {
+                break;
+            }
+            if (type.equals("IHDR")) {
+                header = true;
+            }
+            if (!type.equals("IDAT")) {
+                write(out, buffer, pos, (int) end);
+            }
+            pos = (int) end;
+        }
+        if (!header) {
+            return null;
+        }
+        out.write(PNG_IEND, 0, PNG_IEND.length);
+        return out.toByteArray();
+    }
+
+    private static void write(final ByteArrayOutputStream out,
+                              final ByteBuffer buffer,
+                              final int start,
+                              final int end) {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + start, end - start);
+        } else {
+            final byte[] data = new byte[end - start];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(data);
+            out.write(data, 0, data.length);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.concurrent.TimeUnit;
+
+import com.atex.plugins.mailimporter.MailProcessorUtils.MetadataTagsHolder;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+
+/**
+ * A bounded cache of the image metadata keyed by the SHA-256 hash of the image, so the same
+ * image received again (resends, retries, replays from the dump folder) is not parsed and
+ * sent to the image metadata extraction service again.
+ *
+ * It is configured with the system properties <code>image.metadata.cache.size</code> (the max
+ * number of images, default 1000, 0 disables the cache) and <code>image.metadata.cache.ttl</code>
+ * (the seconds an entry is kept, default 3600).
+ *
+ * @author mnova
+ */
+public class MetadataTagsCache {
+
+    private static final String SIZE_PARAMETER = "image.metadata.cache.size";
+    private static final String TTL_PARAMETER = "image.metadata.cache.ttl";
+
+    private static final long DEFAULT_SIZE = 1000;
+    private static final long DEFAULT_TTL = 3600;
+
+    private final Cache<String, MetadataTagsHolder> cache;
+
+    /**
+     * @param maximumSize the max number of entries, 0 disables the cache.
+     * @param ttlSeconds the seconds an entry is kept after it has been added.
+     */
+    public MetadataTagsCache(final long maximumSize,
+                             final long ttlSeconds) {
+        if (maximumSize > 0) {
+            this.cache = CacheBuilder.newBuilder()
+                                     .maximumSize(maximumSize)
+                                     .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                                     .recordStats()
+                                     .build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    public static MetadataTagsCache fromSystemProperties() {
+        return new MetadataTagsCache(
+                Long.getLong(SIZE_PARAMETER, DEFAULT_SIZE),
+                Long.getLong(TTL_PARAMETER, DEFAULT_TTL));
+    }
+
+    /**
+     * @param hash the image hash.
+     * @param local true if the metadata have been extracted locally.
+     * @return a copy of the cached metadata or null.
+     */
+    public MetadataTagsHolder get(final HashCode hash,
+                                  final boolean local) {
+        if (cache == null) {
+            return null;
+        }
+        final MetadataTagsHolder holder = cache.getIfPresent(key(hash, local));
+        return (holder != null) ? copy(holder) : null;
+    }
+
+    public void put(final HashCode hash,
+                    final boolean local,
+                    final MetadataTagsHolder holder) {
+        if (cache != null) {
+            cache.put(key(hash, local), copy(holder));
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    public long size() {
+        return (cache != null) ? cache.size() : 0;
+    }
+
+    /**
+     * @return the hits and misses counters.
+     */
+    public CacheStats stats() {
+        return (cache != null) ? cache.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    private String key(final HashCode hash,
+                       final boolean local) {
+        // the local and the service metadata are not the same.
+        return hash.toString() + (local ? "/local" : "/service");
+    }
+
+    private MetadataTagsHolder copy(final MetadataTagsHolder holder) {
+        final MetadataTagsHolder copy = new MetadataTagsHolder();
+        copy.tags = holder.tags;
+        copy.customTags = holder.customTags;
+        return copy;
+    }
+
+}
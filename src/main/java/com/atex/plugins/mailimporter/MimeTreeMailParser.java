@@ -0,0 +1,207 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.mail.MailMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+import com.polopoly.util.StringUtil;
+
+/**
+ * <p>
+ * A {@link MailParser} which walks the mime tree of the message only once,
+ * the headers, the message text and the attachments are collected in a single
+ * traversal instead of decoding the message with {@link org.apache.commons.mail.util.MimeMessageParser}
+ * and again with {@link MailMessage#getAttachments()}.
+ * </p>
+ *
+ * <p>
+ * The text selection follows the {@link org.apache.commons.mail.util.MimeMessageParser} rules
+ * (the first text/plain and text/html parts not marked as attachment), while the
+ * attachments follow the Camel ones (every part with a filename, the first one wins
+ * when the same filename is used more than once).
+ * </p>
+ *
+ * <p>
+ * The attachments which will not be used are not fetched at all: they are checked with the
+ * route {@link AttachmentFilter} (their filename must match one of the accepted image
+ * extensions and, for images, the declared size must be greater than the image min size).
+ * With IMAP the filename and the size come from the BODYSTRUCTURE so the discarded parts
+ * are never downloaded (use <code>mapMailMessage=false</code> in the mail uri so camel
+ * does not fetch the whole message).
+ * </p>
+ *
+ * <p>
+ * To use it, write its class name in
+ * <code>src/main/resources/META-INF/services/com.atex.plugins.mailimporter.MailParser</code>
+ * in your project.
+ * </p>
+ *
+ * @author mnova
+ */
+public class MimeTreeMailParser extends MailParserImpl {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MimeTreeMailParser.class);
+
+    public MimeTreeMailParser() {
+    }
+
+    @Override
+    public MailBean parse(final Exchange exchange) throws Exception {
+        final MailMessage mailMessage = exchange.getIn(MailMessage.class);
+        final Message originalMessage = mailMessage.getOriginalMessage();
+
+        if (!(originalMessage instanceof MimeMessage)) {
+            throw new RuntimeException("Unknown e-mail message format received!");
+        }
+
+        final MimeMessage realMessage = (MimeMessage) originalMessage;
+        final MailRouteConfig routeConfig = mailMessage.getHeader("X-ROUTE-CONFIG", MailRouteConfig.class);
+
+        final MailBean mailBean = createMailBean();
+        mailBean.setSubject(StringUtil.trim(realMessage.getSubject()));
+        mailBean.setTo(getAddresses(realMessage.getRecipients(Message.RecipientType.TO)));
+        mailBean.setFrom(getFirstAddress(realMessage.getFrom()));
+
+        final MimeTreeWalker walker = new MimeTreeWalker(
+                mailBean,
+                createAttachmentStore(routeConfig),
+                routeConfig,
+                getAttachmentFilter(routeConfig)
+        );
+        final String text;
+        try {
+            walker.walk(realMessage, true);
+            text = walker.getMessageText();
+        } catch (MessagingException | IOException | RuntimeException e) {
+            walker.attachmentFiles.values().forEach(MailBeanAttachment::release);
+            throw e;
+        }
+
+        mailBean.setAttachments(walker.attachmentFiles);
+
+        return setMessageText(mailBean, text, routeConfig);
+    }
+
+    private String getAddresses(final Address[] addresses) {
+        if (addresses == null) {
+            return "";
+        }
+        return Arrays.stream(addresses)
+                     .map(Address::toString)
+                     .collect(Collectors.joining(","));
+    }
+
+    private String getFirstAddress(final Address[] addresses) {
+        if (addresses == null || addresses.length == 0) {
+            return null;
+        }
+        return ((InternetAddress) addresses[0]).getAddress();
+    }
+
+    private class MimeTreeWalker {
+
+        private final MailBean mailBean;
+        private final AttachmentStore attachmentStore;
+        private final MailRouteConfig routeConfig;
+        private final AttachmentFilter attachmentFilter;
+        private final Map<String, MailBeanAttachment> attachmentFiles = new HashMap<>();
+        private final Set<String> filenames = new HashSet<>();
+        private Part plainPart = null;
+        private Part htmlPart = null;
+
+        MimeTreeWalker(final MailBean mailBean,
+                       final AttachmentStore attachmentStore,
+                       final MailRouteConfig routeConfig,
+                       final AttachmentFilter attachmentFilter) {
+            this.mailBean = mailBean;
+            this.attachmentStore = attachmentStore;
+            this.routeConfig = routeConfig;
+            this.attachmentFilter = attachmentFilter;
+        }
+
+        void walk(final Part part,
+                  final boolean root) throws MessagingException, IOException {
+            if (part.isMimeType("multipart/*")) {
+                final Multipart multipart = (Multipart) part.getContent();
+                for (int idx = 0; idx < multipart.getCount(); idx++) {
+                    walk(multipart.getBodyPart(idx), false);
+                }
+                return;
+            }
+
+            // text parts are only remembered here, their content
+            // will be decoded after the walk and only when needed.
+            if (!Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())) {
+                if (plainPart == null && part.isMimeType("text/plain")) {
+                    plainPart = part;
+                } else if (htmlPart == null && part.isMimeType("text/html")) {
+                    htmlPart = part;
+                }
+            }
+
+            // like camel, attachments are only searched inside multipart messages.
+            if (!root) {
+                final String filename = part.getFileName();
+                if (filename != null) {
+                    if (filenames.add(filename)) {
+                        final String contentType = part.getContentType();
+                        if (attachmentFilter.accept(filename, contentType, part.getSize())) {
+                            try (final InputStream is = part.getInputStream()) {
+                                addAttachment(
+                                        attachmentFiles,
+                                        attachmentStore,
+                                        routeConfig,
+                                        filename,
+                                        contentType,
+                                        is
+                                );
+                            }
+                        } else {
+                            rejectAttachment(mailBean, filename, contentType, part.getSize());
+                        }
+                    } else {
+                        LOG.warn("Cannot extract duplicate file attachment: " + filename);
+                    }
+                }
+            }
+        }
+
+        String getMessageText() throws MessagingException, IOException {
+            final String plainContent = readText(plainPart);
+            if (!StringUtil.isEmpty(plainContent)) {
+                return MimeTreeMailParser.this.getMessageText(plainContent, null);
+            }
+            return MimeTreeMailParser.this.getMessageText(plainContent, readText(htmlPart));
+        }
+
+        private String readText(final Part part) throws MessagingException, IOException {
+            if (part != null) {
+                final Object content = part.getContent();
+                if (content instanceof String) {
+                    return (String) content;
+                }
+            }
+            return null;
+        }
+    }
+
+}
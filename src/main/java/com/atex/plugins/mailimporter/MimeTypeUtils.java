@@ -3,6 +3,8 @@ package com.atex.plugins.mailimporter;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Optional;
 import java.util.concurrent.Callable;
@@ -11,6 +13,7 @@ import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.spi.ImageReaderWriterSpi;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,20 +21,48 @@ import org.slf4j.LoggerFactory;
 /**
  * MimeTypeUtils
  *
+ * The mime type is recognized from the first bytes of the image (the "magic" bytes)
+ * using a table of the known signatures, ImageIO is only used for the formats which
+ * are not in the table.
+ *
  * @author mnova
  */
 public abstract class MimeTypeUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MimeTypeUtils.class.getName());
 
+    /**
+     * The number of bytes needed to match all the signatures.
+     */
+    static final int HEADER_SIZE = 16;
+
+    private static final Signature[] SIGNATURES = new Signature[] {
+            new Signature("image/jpeg", 0, 0xff, 0xd8, 0xff),
+            new Signature("image/png", 0, 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a),
+            new Signature("image/gif", 0, "GIF87a"),
+            new Signature("image/gif", 0, "GIF89a"),
+            new Signature("image/webp", 0, "RIFF").and(8, "WEBP"),
+            new Signature("image/tiff", 0, 'I', 'I', '*', 0),
+            new Signature("image/tiff", 0, 'M', 'M', 0, '*'),
+            new Signature("image/heic", 4, "ftypheic"),
+            new Signature("image/heic", 4, "ftypheix"),
+            new Signature("image/heic", 4, "ftyphevc"),
+            new Signature("image/heic", 4, "ftyphevx"),
+            new Signature("image/heic", 4, "ftypheim"),
+            new Signature("image/heic", 4, "ftypheis"),
+            new Signature("image/heif", 4, "ftypmif1"),
+            new Signature("image/heif", 4, "ftypmsf1"),
+            new Signature("image/bmp", 0, "BM")
+    };
+
+    // reused by each thread, so sniffing a stream does not allocate.
+    private static final ThreadLocal<ByteBuffer> HEADER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEADER_SIZE));
+
     public static Optional<String> getMimeType(final InputStream inputStream) {
         final InputStream is;
         final Callable<Void> reset;
         if (inputStream.markSupported()) {
             is = inputStream;
-            // mark the input stream so a call to reset will not
-            // throw because of the invalid mark point.
-            is.mark(16384);
             reset = () -> {
                 is.reset();
                 return null;
@@ -43,7 +74,73 @@ public abstract class MimeTypeUtils {
                 return null;
             };
         }
-        try (final ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+        // mark the input stream so a call to reset will not
+        // throw because of the invalid mark point.
+        is.mark(16384);
+        try {
+            final ByteBuffer header = HEADER.get();
+            header.clear();
+            final byte[] array = header.array();
+            int length = 0;
+            while (length < array.length) {
+                final int read = is.read(array, length, array.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            header.limit(length);
+            final String mimeType = sniff(header);
+            if (mimeType != null) {
+                return Optional.of(mimeType);
+            }
+            is.reset();
+            return getImageIOMimeType(is);
+        } catch (Exception e) {
+            LOGGER.warn(e.getMessage());
+        } finally {
+            try {
+                reset.call();
+            } catch (Exception e) {
+                LOGGER.warn("while resetting stream of class {}: "  + e.getMessage(), is.getClass().getName(), e);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param buffer the image, it is not modified.
+     * @return the mime type of the image.
+     */
+    public static Optional<String> getMimeType(final ByteBuffer buffer) {
+        final String mimeType = sniff(buffer);
+        if (mimeType != null) {
+            return Optional.of(mimeType);
+        }
+        try {
+            return getImageIOMimeType(new ImagePipeline.ByteBufferInputStream(buffer.duplicate()));
+        } catch (IOException e) {
+            LOGGER.warn(e.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param header the first bytes of the image (from the buffer position to its limit).
+     * @return the mime type or null if the header does not match any known signature.
+     */
+    static String sniff(final ByteBuffer header) {
+        for (final Signature signature : SIGNATURES) {
+            if (signature.matches(header)) {
+                return signature.mimeType;
+            }
+        }
+        return null;
+    }
+
+    private static Optional<String> getImageIOMimeType(final InputStream is) throws IOException {
+        // use a memory cache so ImageIO will not create a temporary file for the stream.
+        try (final ImageInputStream iis = new MemoryCacheImageInputStream(is)) {
             final Iterator<ImageReader> iter = ImageIO.getImageReaders(iis);
             if (!iter.hasNext()) {
                 return Optional.empty();
@@ -54,16 +151,73 @@ public abstract class MimeTypeUtils {
                            .map(ImageReaderWriterSpi::getMIMETypes)
                            .filter(v -> v.length > 0)
                            .map(v -> v[0]);
-        } catch (IOException e) {
-            LOGGER.warn(e.getMessage());
-        } finally {
-            try {
-                reset.call();
-            } catch (Exception e) {
-                LOGGER.warn("while resetting stream of class {}: "  + e.getMessage(), is.getClass().getName(), e);
+        }
+    }
+
+    private static class Signature {
+
+        private final String mimeType;
+        private final int[] offsets;
+        private final byte[][] values;
+
+        Signature(final String mimeType,
+                  final int offset,
+                  final String value) {
+            this(mimeType, new int[] { offset }, new byte[][] { value.getBytes(StandardCharsets.US_ASCII) });
+        }
+
+        Signature(final String mimeType,
+                  final int offset,
+                  final int... value) {
+            this(mimeType, new int[] { offset }, new byte[][] { toBytes(value) });
+        }
+
+        private Signature(final String mimeType,
+                          final int[] offsets,
+                          final byte[][] values) {
+            this.mimeType = mimeType;
+            this.offsets = offsets;
+            this.values = values;
+        }
+
+        /**
+         * @return a signature which also requires the value at the given offset.
+         */
+        Signature and(final int offset,
+                      final String value) {
+            final int[] newOffsets = new int[offsets.length + 1];
+            final byte[][] newValues = new byte[values.length + 1][];
+            System.arraycopy(offsets, 0, newOffsets, 0, offsets.length);
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            newOffsets[offsets.length] = offset;
+            newValues[values.length] = value.getBytes(StandardCharsets.US_ASCII);
+            return new Signature(mimeType, newOffsets, newValues);
+        }
+
+        boolean matches(final ByteBuffer header) {
+            final int start = header.position();
+            for (int idx = 0; idx < offsets.length; idx++) {
+                final byte[] value = values[idx];
+                final int offset = start + offsets[idx];
+                if (offset + value.length > header.limit()) {
+                    return false;
+                }
+                for (int pos = 0; pos < value.length; pos++) {
+                    if (header.get(offset + pos) != value[pos]) {
+                        return false;
+                    }
+                }
             }
+            return true;
+        }
+
+        private static byte[] toBytes(final int[] value) {
+            final byte[] bytes = new byte[value.length];
+            for (int idx = 0; idx < value.length; idx++) {
+                bytes[idx] = (byte) value[idx];
+            }
+            return bytes;
         }
-        return Optional.empty();
     }
 
 }
@@ -0,0 +1,207 @@
+package com.atex.plugins.mailimporter;
+
+import static com.atex.plugins.mailimporter.CharPipeline.feed;
+import static com.atex.plugins.mailimporter.CharPipeline.replace;
+
+import com.atex.plugins.mailimporter.CharPipeline.Sink;
+import com.atex.plugins.mailimporter.CharPipeline.StringSink;
+
+/**
+ * Convert a text between the paragraphs form (<code>&lt;p&gt;line&lt;/p&gt;</code>)
+ * and the lines form (<code>line\n</code>).
+ *
+ * The conversions are done in a single pass and the <code>&lt;p&gt;</code> tags are
+ * searched ignoring the (ascii) case without lowercasing the text.
+ *
+ * @author mnova
+ */
+public final class ParagraphCodec {
+
+    private static final String P_START = "<p>";
+    private static final String P_END = "</p>";
+
+    /**
+     * Append the text between start and end to the buffer.
+     */
+    public interface LineAppender {
+
+        void append(final StringBuilder sb,
+                    final CharSequence text,
+                    final int start,
+                    final int end);
+
+    }
+
+    /**
+     * Copy the line as it is.
+     */
+    public static final LineAppender COPY = StringBuilder::append;
+
+    private ParagraphCodec() {
+    }
+
+    /**
+     * @param text the text.
+     * @return true if the text contains a <code>&lt;p&gt;</code> (ignoring case).
+     */
+    public static boolean containsParagraph(final CharSequence text) {
+        return text != null && indexOfIgnoreCase(text, P_START, 0) >= 0;
+    }
+
+    /**
+     * Same as {@link #linesToParagraphs(CharSequence, LineAppender)} with {@link #COPY}.
+     */
+    public static String linesToParagraphs(final CharSequence text) {
+        return linesToParagraphs(text, COPY);
+    }
+
+    /**
+     * Each line of the text is wrapped in a paragraph, lines which already starts
+     * with <code>&lt;p&gt;</code> or ends with <code>&lt;/p&gt;</code> will not get
+     * another one. Trailing empty lines are ignored.
+     *
+     * @param text the text.
+     * @param appender used to copy the lines to the result (i.e. to escape them).
+     * @return the paragraphs.
+     */
+    public static String linesToParagraphs(final CharSequence text,
+                                           final LineAppender appender) {
+        final int length = text.length();
+        if (length == 0) {
+            return "<p></p>";
+        }
+        // trailing empty lines are ignored (like String.split does).
+        int end = length;
+        while (end > 0 && text.charAt(end - 1) == '\n') {
+            end--;
+        }
+        final StringBuilder sb = new StringBuilder(length + length / 8 + 16);
+        if (end == 0) {
+            sb.append(P_START);
+            appender.append(sb, text, 0, length);
+            sb.append(P_END);
+            return sb.toString();
+        }
+        int lineStart = 0;
+        while (lineStart <= end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (!regionMatchesIgnoreCase(text, lineStart, lineEnd, P_START)) {
+                sb.append(P_START);
+            }
+            appender.append(sb, text, lineStart, lineEnd);
+            if (!endsWithParagraph(text, lineStart, lineEnd)) {
+                sb.append(P_END);
+            }
+            if (lineEnd < end) {
+                sb.append('\n');
+            }
+            lineStart = lineEnd + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Convert the paragraphs in lines, when the text contains paragraphs the
+     * existing new lines are removed (after being normalized with
+     * {@link StringUtils#normalizeLineEndings(String)}), the text outside
+     * paragraphs is kept on its own line. A paragraph without the closing tag
+     * ends at the end of the text.
+     *
+     * @param text the text.
+     * @return the lines.
+     */
+    public static String paragraphsToLines(final CharSequence text) {
+        if (!containsParagraph(text)) {
+            return (text != null) ? text.toString() : null;
+        }
+        final StringSink normalized = new StringSink(text.length());
+        Sink sink = replace('\n', "", normalized);
+        sink = normalizeLineEndings(sink);
+        feed(text, sink);
+        final CharSequence s = normalized.getBuilder();
+
+        final int length = s.length();
+        final StringBuilder sb = new StringBuilder(length + 16);
+        int pos = 0;
+        while (pos < length) {
+            final int start = indexOfIgnoreCase(s, P_START, pos);
+            if (start < 0) {
+                sb.append(s, pos, length);
+                break;
+            }
+            if (start > pos) {
+                sb.append(s, pos, start);
+                sb.append('\n');
+            }
+            pos = start + P_START.length();
+            int end = indexOfIgnoreCase(s, P_END, pos);
+            if (end < 0) {
+                end = length;
+            }
+            sb.append(s, pos, end);
+            sb.append('\n');
+            pos = Math.min(length, end + P_END.length());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Add the stages which behave like {@link StringUtils#normalizeLineEndings(String)}.
+     *
+     * @param next the next stage.
+     * @return the first stage.
+     */
+    static Sink normalizeLineEndings(final Sink next) {
+        Sink sink = replace('\r', "\n", next);
+        sink = replace("\n\r", "\n", sink);
+        sink = replace("\r\n", "\n", sink);
+        sink = replace(" \n", "\n", sink);
+        return replace("\n ", "\n", sink);
+    }
+
+    private static boolean endsWithParagraph(final CharSequence text,
+                                             final int start,
+                                             final int end) {
+        // like trim().endsWith()
+        int e = end;
+        while (e > start && text.charAt(e - 1) <= ' ') {
+            e--;
+        }
+        return (e - start) >= P_END.length() && regionMatchesIgnoreCase(text, e - P_END.length(), e, P_END);
+    }
+
+    private static boolean regionMatchesIgnoreCase(final CharSequence text,
+                                                   final int start,
+                                                   final int end,
+                                                   final String s) {
+        if (end - start < s.length()) {
+            return false;
+        }
+        for (int idx = 0; idx < s.length(); idx++) {
+            if (toLowerAscii(text.charAt(start + idx)) != s.charAt(idx)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfIgnoreCase(final CharSequence text,
+                                         final String s,
+                                         final int from) {
+        final int last = text.length() - s.length();
+        for (int idx = from; idx <= last; idx++) {
+            if (regionMatchesIgnoreCase(text, idx, idx + s.length(), s)) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    private static char toLowerAscii(final char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+}
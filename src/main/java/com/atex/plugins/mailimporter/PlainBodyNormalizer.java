@@ -0,0 +1,112 @@
+package com.atex.plugins.mailimporter;
+
+import static com.atex.plugins.mailimporter.CharPipeline.feed;
+import static com.atex.plugins.mailimporter.CharPipeline.replace;
+
+import com.atex.plugins.mailimporter.CharPipeline.EscapedParagraphsSink;
+import com.atex.plugins.mailimporter.CharPipeline.Sink;
+import com.atex.plugins.mailimporter.CharPipeline.StringSink;
+
+/**
+ * Convert the plain text body of a mail in the lead and the paragraphs body.
+ *
+ * The lead is the text before the first empty line, the body is the remaining text.
+ *
+ * The line endings are normalized while copying the text in a single buffer, then
+ * the <code>[cid:...]</code> markers are removed and the body is escaped and wrapped
+ * in paragraphs in the same pass; the result is the same we had by chaining
+ * <code>String.replaceAll</code> for the line endings and the markers,
+ * <code>String.replace</code> for the NBSP, <code>StringEscapeUtils.escapeHtml</code>
+ * and {@link StringUtils#linesToParagraphs(String)}.
+ *
+ * @author mnova
+ */
+public final class PlainBodyNormalizer {
+
+    private final String lead;
+    private final String body;
+
+    private PlainBodyNormalizer(final String lead,
+                                final String body) {
+        this.lead = lead;
+        this.body = body;
+    }
+
+    public String getLead() {
+        return lead;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Normalize the text as it comes from the mail.
+     *
+     * @param text the text (may be null).
+     * @return the normalized lead and body.
+     */
+    public static PlainBodyNormalizer normalize(final String text) {
+        return normalize(text, true);
+    }
+
+    /**
+     * @param text the text (may be null).
+     * @param normalizeLineEndings false when the line endings are already normalized.
+     * @return the normalized lead and body.
+     */
+    static PlainBodyNormalizer normalize(final String text,
+                                         final boolean normalizeLineEndings) {
+        final CharSequence s;
+        if (text == null) {
+            s = "";
+        } else if (normalizeLineEndings) {
+            final StringSink lines = new StringSink(text.length());
+
+            // the stages are chained from the last to the first one.
+            Sink sink = replace('\r', "\n", lines);
+            sink = replace("\n ", "\n", sink);
+            sink = replace("\r\n", "\n", sink);
+            feed(text, sink);
+            s = lines.getBuilder();
+        } else {
+            s = text;
+        }
+
+        final int length = s.length();
+        final int idx = indexOfParagraphDelimiter(s);
+
+        String lead = "";
+        int bodyStart = 0;
+        int bodyEnd = length;
+        if (idx >= 0) {
+            final StringSink leadText = new StringSink(idx);
+            InlinedCIDReferences.remove(
+                    s,
+                    HtmlBodyNormalizer.trimStart(s, 0, idx),
+                    HtmlBodyNormalizer.trimEnd(s, 0, idx),
+                    leadText
+            );
+            lead = leadText.toString();
+            bodyStart = HtmlBodyNormalizer.trimStart(s, idx + 2, length);
+            bodyEnd = HtmlBodyNormalizer.trimEnd(s, bodyStart, length);
+        }
+
+        final EscapedParagraphsSink paragraphs = new EscapedParagraphsSink(bodyEnd - bodyStart + (bodyEnd - bodyStart) / 8 + 16);
+        final Sink sink = replace('\u00A0', " ", paragraphs);
+        InlinedCIDReferences.remove(s, bodyStart, bodyEnd, sink);
+        sink.end();
+
+        return new PlainBodyNormalizer(lead, paragraphs.toString());
+    }
+
+    private static int indexOfParagraphDelimiter(final CharSequence s) {
+        for (int idx = 1; idx < s.length(); idx++) {
+            if (s.charAt(idx) == '\n' && s.charAt(idx - 1) == '\n') {
+                return idx - 1;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.Signature;
+import com.polopoly.util.StringUtil;
+
+/**
+ * An immutable, compiled, list of {@link Signature}.
+ *
+ * All the signatures regex are compiled in a single alternation so the text is
+ * scanned only once and the earliest matching signature wins (when two signatures
+ * match at the same position the first one in the list wins).
+ * Regex which cannot be safely combined (back references, named groups or inline
+ * flags) are matched one by one.
+ *
+ * @author mnova
+ */
+public final class SignatureMatcher {
+
+    public static final SignatureMatcher EMPTY = new SignatureMatcher(Collections.emptyList());
+
+    private static final Pattern NOT_COMBINABLE_PATTERN = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]|\\(\\?[idmsuxU-]");
+
+    private final List<Signature> signatures;
+    private final int[] before;
+    private final Pattern combined;
+    private final int[] groups;
+    private final List<Pattern> patterns;
+
+    private SignatureMatcher(final List<Signature> signatures) {
+        this.signatures = Collections.unmodifiableList(copy(signatures));
+        this.before = new int[signatures.size()];
+        this.patterns = new ArrayList<>(signatures.size());
+        for (int idx = 0; idx < signatures.size(); idx++) {
+            final Signature signature = signatures.get(idx);
+            before[idx] = signature.getBefore();
+            patterns.add(Pattern.compile(signature.getRegex(), Pattern.MULTILINE));
+        }
+        if (patterns.size() > 1 && isCombinable(signatures)) {
+            // each regex is wrapped in a capturing group, we need to know the
+            // group number of each wrapper to find out which signature matched.
+            groups = new int[patterns.size()];
+            final StringBuilder sb = new StringBuilder();
+            int group = 1;
+            for (int idx = 0; idx < patterns.size(); idx++) {
+                if (idx > 0) {
+                    sb.append('|');
+                }
+                sb.append('(').append(patterns.get(idx).pattern()).append(')');
+                groups[idx] = group;
+                group += 1 + patterns.get(idx).matcher("").groupCount();
+            }
+            combined = Pattern.compile(sb.toString(), Pattern.MULTILINE);
+        } else {
+            groups = null;
+            combined = null;
+        }
+    }
+
+    public static SignatureMatcher compile(final List<Signature> signatures) {
+        if (signatures == null || signatures.isEmpty()) {
+            return EMPTY;
+        }
+        return new SignatureMatcher(signatures);
+    }
+
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * @param signatures a signature list.
+     * @return true if this matcher has been compiled from the same signatures.
+     */
+    public boolean isCompiledFrom(final List<Signature> signatures) {
+        final int size = (signatures != null) ? signatures.size() : 0;
+        if (size != this.signatures.size()) {
+            return false;
+        }
+        for (int idx = 0; idx < size; idx++) {
+            final Signature s1 = this.signatures.get(idx);
+            final Signature s2 = signatures.get(idx);
+            if (s1.getBefore() != s2.getBefore() || !Objects.equals(s1.getRegex(), s2.getRegex())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the first signature found in the text, the text will be truncated
+     * at the signature start, the configured number of lines before the
+     * signature will be removed and then any trailing empty line.
+     *
+     * @param text the text.
+     * @return the text without the signature.
+     */
+    public String apply(final String text) {
+        if (!StringUtils.notEmpty(text) || isEmpty()) {
+            return text;
+        }
+        if (combined != null) {
+            final Matcher matcher = combined.matcher(text);
+            if (matcher.find()) {
+                for (int idx = 0; idx < groups.length; idx++) {
+                    if (matcher.start(groups[idx]) >= 0) {
+                        return truncate(text, matcher.start(), before[idx]);
+                    }
+                }
+            }
+            return text;
+        }
+        int start = -1;
+        int found = -1;
+        for (int idx = 0; idx < patterns.size(); idx++) {
+            final Matcher matcher = patterns.get(idx).matcher(text);
+            if (matcher.find() && (start < 0 || matcher.start() < start)) {
+                start = matcher.start();
+                found = idx;
+            }
+        }
+        if (found >= 0) {
+            return truncate(text, start, before[found]);
+        }
+        return text;
+    }
+
+    private String truncate(final String text,
+                            final int start,
+                            final int before) {
+        int end = start;
+
+        // trailing empty lines are not counted as lines (like String.split does).
+        while (end > 0 && text.charAt(end - 1) == '\n') {
+            end--;
+        }
+
+        // remove the lines before the signature.
+        for (int count = 0; count < before && end > 0; count++) {
+            end = Math.max(0, text.lastIndexOf('\n', end - 1));
+        }
+
+        // remove the trailing empty lines.
+        while (end > 0) {
+            final int lineStart = text.lastIndexOf('\n', end - 1) + 1;
+            if (!StringUtil.isEmpty(text.substring(lineStart, end))) {
+                break;
+            }
+            end = Math.max(0, lineStart - 1);
+        }
+        return text.substring(0, end);
+    }
+
+    private static boolean isCombinable(final List<Signature> signatures) {
+        for (final Signature signature : signatures) {
+            if (NOT_COMBINABLE_PATTERN.matcher(signature.getRegex()).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Signature> copy(final List<Signature> signatures) {
+        final List<Signature> list = new ArrayList<>(signatures.size());
+        for (final Signature signature : signatures) {
+            list.add(Signature.of(signature.getRegex(), signature.getBefore()));
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return signatures.toString();
+    }
+
+}
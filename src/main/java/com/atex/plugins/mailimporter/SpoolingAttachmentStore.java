@@ -0,0 +1,105 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Optional;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+
+/**
+ * An {@link AttachmentStore} which keeps small attachments in memory
+ * and spools to a temporary file the ones bigger than the threshold,
+ * this way we do not keep big arrays in the heap while processing
+ * mails with lot of photos.
+ *
+ * @author mnova
+ */
+public class SpoolingAttachmentStore implements AttachmentStore {
+
+    public static final long DEFAULT_THRESHOLD = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final long threshold;
+    private final File spoolFolder;
+
+    public SpoolingAttachmentStore() {
+        this(DEFAULT_THRESHOLD, null);
+    }
+
+    public SpoolingAttachmentStore(final long threshold,
+                                   final File spoolFolder) {
+        this.threshold = threshold;
+        this.spoolFolder = spoolFolder;
+    }
+
+    public static SpoolingAttachmentStore of(final MailRouteConfig routeConfig) {
+        final long threshold = Optional.ofNullable(routeConfig)
+                                       .map(MailRouteConfig::getAttachmentSpoolThreshold)
+                                       .filter(v -> v >= 0)
+                                       .orElse(DEFAULT_THRESHOLD);
+        final File folder = Optional.ofNullable(routeConfig)
+                                    .map(MailRouteConfig::getSpoolFolder)
+                                    .filter(StringUtils::notEmpty)
+                                    .map(File::new)
+                                    .orElse(null);
+        return new SpoolingAttachmentStore(threshold, folder);
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    public File getSpoolFolder() {
+        return spoolFolder;
+    }
+
+    @Override
+    public AttachmentContent store(final String name,
+                                   final InputStream is) throws IOException {
+        // read up to the threshold in memory, we need one more byte
+        // to known if the stream is bigger than the threshold.
+        final int limit = (int) Math.min(threshold + 1, Integer.MAX_VALUE - 8);
+        byte[] buffer = new byte[Math.min(limit, BUFFER_SIZE)];
+        int length = 0;
+        while (length < limit) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(limit, buffer.length * 2));
+            }
+            final int read = is.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                return new MemoryAttachmentContent(buffer, length);
+            }
+            length += read;
+        }
+        return spool(buffer, length, is);
+    }
+
+    private AttachmentContent spool(final byte[] head,
+                                    final int length,
+                                    final InputStream is) throws IOException {
+        if (spoolFolder != null && !spoolFolder.exists() && !spoolFolder.mkdirs()) {
+            throw new IOException("Cannot create " + spoolFolder.getAbsolutePath());
+        }
+        final File file = (spoolFolder != null)
+                ? Files.createTempFile(spoolFolder.toPath(), "mail-", ".att").toFile()
+                : Files.createTempFile("mail-", ".att").toFile();
+        try (final OutputStream os = Files.newOutputStream(file.toPath())) {
+            os.write(head, 0, length);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                os.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+        return new FileAttachmentContent(file);
+    }
+
+}
@@ -1,6 +1,5 @@
 package com.atex.plugins.mailimporter;
 
-import java.text.SimpleDateFormat;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -8,7 +7,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -16,7 +15,7 @@ import com.polopoly.util.StringUtil;
 
 public abstract class StringUtils {
 
-    private static final String ISO_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+    private static final DateNormalizer DATE_NORMALIZER = new DateNormalizer(256);
     public static final List<String> EMAIL_HTML_TAGS = Arrays.asList(
             "p",
             "br",
@@ -27,12 +26,25 @@ public abstract class StringUtils {
             "strong",
             "u"
     );
+
+    /**
+     * @deprecated {@link #isHtmlBody(String)} does not use it anymore since it backtracks
+     * over the whole body for each tag, it is kept for compatibility.
+     */
+    @Deprecated
     public static final Pattern EMAIL_HTML_PATTERN = Pattern.compile(
             "(.*)(" +
                     EMAIL_HTML_TAGS.stream()
                                    .map(s -> "<" + s + "\\s*?>")
                                    .collect(Collectors.joining("|"))
                     + ")(.*)", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+    private static final Set<String> EMAIL_HTML_TAG_NAMES = EMAIL_HTML_TAGS.stream()
+                                                                           .map(String::toLowerCase)
+                                                                           .collect(Collectors.toSet());
+    private static final int EMAIL_HTML_TAG_MAX_LENGTH = EMAIL_HTML_TAGS.stream()
+                                                                        .mapToInt(String::length)
+                                                                        .max()
+                                                                        .orElse(0);
 
     public static String dateToUTCDateString(Date date) {
         ZonedDateTime a = date.toInstant().atZone(ZoneId.of("UTC"));
@@ -40,43 +52,61 @@ public abstract class StringUtils {
     }
 
     public static String getNormalizedDateString(String dateString) {
+        return DATE_NORMALIZER.normalize(dateString);
+    }
 
-        String ret = null;
-
-        String[] datePatterns = new String[]{"yyyy:MM:dd HH:mm:ss", "yyyy:MM:dd HH:mm", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm",
-                "yyyy.MM.dd HH:mm:ss", "yyyy.MM.dd HH:mm", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss'Z'",
-                "yyyy-MM-dd'T'HH:mm", "yyyy:MM:dd", "yyyy-MM-dd", "yyyy-MM", "yyyy", "yyyyMMdd"};
-
-        SimpleDateFormat sdf = new SimpleDateFormat();
-        SimpleDateFormat outputSdf = new SimpleDateFormat(ISO_DATE_FORMAT);
-        for (int i = 0; i < datePatterns.length; i++) {
-            try {
-                sdf.applyPattern(datePatterns[i]);
-                Date d = sdf.parse(dateString);
-                ret = outputSdf.format(d);
+    public static boolean notEmpty(final String value) {
+        return !StringUtil.isEmpty(value);
+    }
 
-                // if date in the future, take current
-                if (d.after(new Date())) {
-                    d = new Date();
-                    ret = outputSdf.format(d);
+    /**
+     * Check if the body contains one of the {@link #EMAIL_HTML_TAGS}, the tags can be written
+     * in any case and may have spaces before the closing bracket (i.e. <code>&lt;P &gt;</code>)
+     * but they cannot have attributes.
+     *
+     * The body is scanned only once and the scan stops at the first tag found.
+     *
+     * @param mailBody the body (may be null).
+     * @return true if the body contains an html tag.
+     */
+    public static boolean isHtmlBody(final String mailBody) {
+        if (mailBody == null) {
+            return false;
+        }
+        final int length = mailBody.length();
+        final char[] name = new char[EMAIL_HTML_TAG_MAX_LENGTH];
+        int idx = mailBody.indexOf('<');
+        while (idx >= 0) {
+            int pos = idx + 1;
+            int nameLength = 0;
+            while (pos < length && isAsciiLetter(mailBody.charAt(pos))) {
+                if (nameLength < name.length) {
+                    name[nameLength] = Character.toLowerCase(mailBody.charAt(pos));
+                }
+                nameLength++;
+                pos++;
+            }
+            if (nameLength > 0 && nameLength <= name.length &&
+                    EMAIL_HTML_TAG_NAMES.contains(new String(name, 0, nameLength))) {
+                while (pos < length && isRegexSpace(mailBody.charAt(pos))) {
+                    pos++;
+                }
+                if (pos < length && mailBody.charAt(pos) == '>') {
+                    return true;
                 }
-
-                break;
-            } catch (Exception ex) {
-                continue;
             }
+            idx = mailBody.indexOf('<', pos);
         }
-        return ret;
-
+        return false;
     }
 
-    public static boolean notEmpty(final String value) {
-        return !StringUtil.isEmpty(value);
+    private static boolean isAsciiLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
-    public static boolean isHtmlBody(String mailBody) {
-        Matcher matcher = EMAIL_HTML_PATTERN.matcher(trim(mailBody));
-        return matcher.find();
+    private static boolean isRegexSpace(final char c) {
+        // same as \s in a java regex.
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     public static String trimLines(final String body) {
@@ -95,63 +125,14 @@ public abstract class StringUtils {
     }
 
     public static String linesToParagraphs(final String body) {
-        //final String[] lines = org.apache.commons.lang.StringUtils.split(body, '\n');
-        final String[] lines = Optional.ofNullable(body)
-                                       .map(s -> s.split("\n"))
-                                       .orElseGet(() -> new String[] {});
-        if (lines.length > 0) {
-            final StringBuilder sb = new StringBuilder();
-            for (int idx = 0; idx < lines.length; idx++) {
-                final String line = lines[idx];
-                if (!line.toLowerCase().startsWith("<p>")) {
-                    sb.append("<p>");
-                }
-                sb.append(line);
-                if (!line.trim().toLowerCase().endsWith("</p>")) {
-                    sb.append("</p>");
-                }
-                if (idx < (lines.length - 1)) {
-                    sb.append("\n");
-                }
-            }
-            return sb.toString();
+        if (body == null) {
+            return "<p>" + body + "</p>";
         }
-        return "<p>" + body + "</p>";
+        return ParagraphCodec.linesToParagraphs(body);
     }
 
     public static String paragraphsToLines(final String body) {
-        if (body != null) {
-            final StringBuilder sb = new StringBuilder();
-            String s = body;
-            if (s.toLowerCase().contains("<p>")) {
-                s = normalizeLineEndings(s).replace("\n", "");
-            }
-            while (true) {
-                int idx = s.toLowerCase().indexOf("<p>");
-                if (idx >= 0) {
-                    if (idx > 0) {
-                        sb.append(s, 0, idx);
-                        sb.append('\n');
-                    }
-                    s = s.substring(idx + 3);
-                    int end = s.toLowerCase().indexOf("</p>", idx);
-                    if (end < 0) {
-                        end = s.length();
-                    }
-                    sb.append(s, 0, end);
-                    sb.append('\n');
-                    s = s.substring(end + 4);
-                    if (s.length() == 0) {
-                        break;
-                    }
-                } else {
-                    sb.append(s);
-                    break;
-                }
-            }
-            return sb.toString();
-        }
-        return null;
+        return ParagraphCodec.paragraphsToLines(body);
     }
 
     public static String normalizeLineEndings(final String s) {
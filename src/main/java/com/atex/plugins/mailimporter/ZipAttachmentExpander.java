@@ -0,0 +1,280 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expand a zip (or jar) attachment while it is read: each entry with an accepted image extension
+ * is given to the consumer as a stream, so the archive is never extracted to memory or disk.
+ *
+ * To guard against zip bombs the expansion stops after <code>maxEntries</code> entries or when
+ * more than <code>maxTotalSize</code> bytes have been uncompressed (the bytes are counted while
+ * they are read, the sizes declared in the archive are not trusted). The entries already given
+ * to the consumer are kept, the one which exceeded the limit fails with an {@link IOException}
+ * which is handled here. An archive which cannot be read (i.e. it is corrupt, truncated or encrypted)
+ * is handled the same way: the entries already given to the consumer are kept and the archive itself
+ * is skipped, so the mail is imported anyway.
+ *
+ * The content type of an entry is sniffed from its first bytes by {@link MimeTypeUtils}, the name is
+ * only used when the content is not recognized.
+ *
+ * @author mnova
+ */
+public class ZipAttachmentExpander {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZipAttachmentExpander.class);
+
+    private static final List<String> ARCHIVE_EXTENSIONS = Arrays.asList("zip", "jar");
+
+    private final List<String> extensions;
+    private final List<String> archiveExtensions;
+    private final int maxEntries;
+    private final long maxTotalSize;
+
+    /**
+     * @param extensions the accepted extensions, only the archives with an accepted extension are expanded
+     *                   and the nested archives are not expanded.
+     * @param maxEntries the max number of entries read from the archive.
+     * @param maxTotalSize the max number of uncompressed bytes read from the archive.
+     */
+    public ZipAttachmentExpander(final List<String> extensions,
+                                 final int maxEntries,
+                                 final long maxTotalSize) {
+        this.extensions = extensions.stream()
+                                    .map(String::toLowerCase)
+                                    .filter(e -> !ARCHIVE_EXTENSIONS.contains(e))
+                                    .collect(Collectors.toList());
+        this.archiveExtensions = extensions.stream()
+                                           .map(String::toLowerCase)
+                                           .filter(ARCHIVE_EXTENSIONS::contains)
+                                           .collect(Collectors.toList());
+        this.maxEntries = maxEntries;
+        this.maxTotalSize = maxTotalSize;
+    }
+
+    /**
+     * @param filename the attachment file name.
+     * @return true if the attachment is an archive which can be expanded.
+     */
+    public boolean canExpand(final String filename) {
+        return filename != null && archiveExtensions.contains(FilenameUtils.getExtension(filename).toLowerCase());
+    }
+
+    /**
+     * @param archiveName the archive name (used for logging).
+     * @param is the archive, it will be read but not closed.
+     * @param consumer the consumer of the accepted entries.
+     * @return the number of entries given to the consumer.
+     */
+    public int expand(final String archiveName,
+                      final InputStream is,
+                      final EntryConsumer consumer) throws IOException {
+        final ZipInputStream zis = new ZipInputStream(new ShieldInputStream(is));
+        final long[] totalSize = new long[] { 0 };
+        int entries = 0;
+        int accepted = 0;
+        ZipEntry entry;
+        try {
+            while ((entry = nextEntry(zis)) != null) {
+                if (++entries > maxEntries) {
+                    LOG.warn(String.format("Archive %s has more than %d entries, the remaining entries are skipped",
+                            archiveName,
+                            maxEntries));
+                    break;
+                }
+                final String name = FilenameUtils.getName(entry.getName());
+                final EntryInputStream entryStream = new EntryInputStream(zis, totalSize, maxTotalSize);
+                try {
+                    if (entry.isDirectory() || name.isEmpty() || name.startsWith(".") || !isAccepted(name)) {
+                        LOG.debug("Skipping entry {} of archive {}", entry.getName(), archiveName);
+                    } else {
+                        final InputStream entryContent = new BufferedInputStream(entryStream);
+                        final String contentType = getContentType(name, entryContent);
+                        // the sniffed bytes are counted too.
+                        entryStream.checkLimit();
+                        consumer.accept(name, contentType, entryContent);
+                        accepted++;
+                    }
+                    // the entries are read (and counted) till the end, the zip stream would skip them anyway.
+                    entryStream.drain();
+                } catch (LimitExceededException e) {
+                    LOG.warn(String.format("Archive %s is bigger than %d bytes when uncompressed, the remaining entries are skipped",
+                            archiveName,
+                            maxTotalSize));
+                    break;
+                }
+            }
+        } catch (InvalidArchiveException e) {
+            LOG.warn(String.format("Archive %s cannot be read (%s), %d entries have been expanded and the remaining entries are skipped",
+                    archiveName,
+                    e.getCause().getMessage(),
+                    accepted));
+        }
+        return accepted;
+    }
+
+    private static ZipEntry nextEntry(final ZipInputStream zis) throws InvalidArchiveException {
+        try {
+            return zis.getNextEntry();
+        } catch (IOException e) {
+            throw new InvalidArchiveException(e);
+        }
+    }
+
+    /**
+     * @param name the entry name.
+     * @param is the entry content, it must support mark and it is reset after the sniffing.
+     * @return the sniffed content type, when it is not recognized the one guessed from the name.
+     */
+    private String getContentType(final String name,
+                                  final InputStream is) {
+        return MimeTypeUtils.getMimeType(is)
+                            .orElseGet(() -> Optional.ofNullable(URLConnection.guessContentTypeFromName(name))
+                                                     .orElse("application/octet-stream"));
+    }
+
+    private boolean isAccepted(final String name) {
+        final String lowerName = name.toLowerCase();
+        return extensions.stream().anyMatch(lowerName::endsWith);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        /**
+         * @param filename the entry name (without the folders).
+         * @param contentType the content type sniffed from the content (or guessed from the name).
+         * @param is the entry content, it must not be closed.
+         */
+        void accept(String filename, String contentType, InputStream is) throws IOException;
+    }
+
+    /**
+     * Do not close the attachment stream when the archive is closed.
+     */
+    private static class ShieldInputStream extends FilterInputStream {
+
+        ShieldInputStream(final InputStream is) {
+            super(is);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The stream of the current entry, it counts the uncompressed bytes of the whole archive;
+     * the errors of the archive are reported as an {@link InvalidArchiveException}.
+     */
+    private static class EntryInputStream extends FilterInputStream {
+
+        private final long[] totalSize;
+        private final long maxTotalSize;
+
+        EntryInputStream(final ZipInputStream zis,
+                         final long[] totalSize,
+                         final long maxTotalSize) {
+            super(zis);
+            this.totalSize = totalSize;
+            this.maxTotalSize = maxTotalSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value;
+            try {
+                value = super.read();
+            } catch (IOException e) {
+                throw new InvalidArchiveException(e);
+            }
+            if (value >= 0) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+            final int read;
+            try {
+                read = super.read(b, off, len);
+            } catch (IOException e) {
+                throw new InvalidArchiveException(e);
+            }
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped;
+            try {
+                skipped = super.skip(n);
+            } catch (IOException e) {
+                throw new InvalidArchiveException(e);
+            }
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            final byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // just count them.
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void count(final long read) throws LimitExceededException {
+            totalSize[0] += read;
+            checkLimit();
+        }
+
+        void checkLimit() throws LimitExceededException {
+            if (totalSize[0] > maxTotalSize) {
+                throw new LimitExceededException();
+            }
+        }
+    }
+
+    private static class LimitExceededException extends IOException {
+
+        LimitExceededException() {
+            super("archive too big");
+        }
+    }
+
+    private static class InvalidArchiveException extends IOException {
+
+        InvalidArchiveException(final IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+
+/**
+ * AttachmentFilterTest
+ *
+ * @author mnova
+ */
+public class AttachmentFilterTest {
+
+    @Test
+    public void test_accept_all() {
+        Assert.assertTrue(AttachmentFilter.ACCEPT_ALL.accept("a.pdf", "application/pdf", 10));
+        Assert.assertTrue(AttachmentFilter.ACCEPT_ALL.accept("a.jpg", "image/jpeg", 0));
+        Assert.assertTrue(AttachmentFilter.ACCEPT_ALL.accept(null, null, -1));
+        Assert.assertTrue(AttachmentFilter.compile(Collections.emptyList(), 100).acceptName("a.pdf"));
+    }
+
+    @Test
+    public void test_extensions() {
+        final AttachmentFilter filter = AttachmentFilter.compile(Arrays.asList("JPG", "png"), 100);
+        Assert.assertTrue(filter.acceptName("a.jpg"));
+        Assert.assertTrue(filter.acceptName("A.JPG"));
+        Assert.assertTrue(filter.acceptName("a.Png"));
+        Assert.assertFalse(filter.acceptName("a.pdf"));
+        Assert.assertFalse(filter.acceptName(null));
+        Assert.assertFalse(filter.accept("a.pdf", "application/pdf", 1000));
+    }
+
+    @Test
+    public void test_other_extensions() {
+        final AttachmentFilter filter = AttachmentFilter.compile(Arrays.asList("jpg", "png"), Arrays.asList("PDF", "docx"), 100);
+        Assert.assertTrue(filter.acceptName("a.jpg"));
+        Assert.assertTrue(filter.acceptName("a.pdf"));
+        Assert.assertTrue(filter.acceptName("a.DOCX"));
+        Assert.assertFalse(filter.acceptName("a.mp4"));
+        Assert.assertTrue(filter.accept("a.pdf", "application/pdf", 10));
+        // without image extensions any name is accepted.
+        Assert.assertTrue(AttachmentFilter.compile(null, Collections.singletonList("pdf"), 100).acceptName("a.mp4"));
+    }
+
+    @Test
+    public void test_min_image_size() {
+        final AttachmentFilter filter = AttachmentFilter.compile(Arrays.asList("jpg", "png"), 100);
+        Assert.assertTrue(filter.accept("a.jpg", "image/jpeg", 1000));
+        Assert.assertTrue(filter.accept("a.jpg", "image/jpeg", -1));
+        Assert.assertFalse(filter.accept("a.jpg", "image/jpeg", 100));
+        Assert.assertFalse(filter.accept("a.jpg", "IMAGE/JPEG", 0));
+        Assert.assertTrue(filter.accept("a.jpg", "application/octet-stream", 100));
+        Assert.assertTrue(filter.accept("a.jpg", null, 100));
+    }
+
+    @Test
+    public void test_route_filter_is_recompiled() {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.setAcceptedImageExtensions(new ArrayList<>(Collections.singletonList("jpg")));
+        config.setImageMinSize(100);
+        final AttachmentFilter filter = config.getAttachmentFilter();
+        Assert.assertSame(filter, config.getAttachmentFilter());
+        Assert.assertTrue(filter.isCompiledFrom(Collections.singletonList("jpg"), 100));
+        Assert.assertFalse(filter.acceptName("a.png"));
+
+        config.setImageMinSize(200);
+        Assert.assertNotSame(filter, config.getAttachmentFilter());
+        Assert.assertEquals(200, config.getAttachmentFilter().getMinImageSize());
+
+        final List<String> extensions = config.getAcceptedImageExtensions();
+        extensions.add("png");
+        Assert.assertTrue(config.getAttachmentFilter().acceptName("a.png"));
+
+        config.getAcceptedAttachmentExtensions().add("pdf");
+        Assert.assertTrue(config.getAttachmentFilter().acceptName("a.pdf"));
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * CircuitBreakerTest
+ *
+ * @author mnova
+ */
+public class CircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong(1000);
+
+    @Test
+    public void test_opens_after_failures() {
+        final CircuitBreaker breaker = new CircuitBreaker(2, 100, clock::get);
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        Assert.assertFalse(breaker.isOpen());
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        Assert.assertTrue(breaker.isOpen());
+        Assert.assertFalse(breaker.allowRequest());
+
+        clock.addAndGet(99);
+        Assert.assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void test_success_resets_failures() {
+        final CircuitBreaker breaker = new CircuitBreaker(2, 100, clock::get);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        Assert.assertFalse(breaker.isOpen());
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void test_half_open_allows_one_trial() {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 100, clock::get);
+        breaker.onFailure();
+        Assert.assertFalse(breaker.allowRequest());
+
+        clock.addAndGet(100);
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertFalse(breaker.allowRequest());
+
+        // the trial failed, the circuit is open for another period.
+        breaker.onFailure();
+        Assert.assertFalse(breaker.allowRequest());
+        clock.addAndGet(100);
+        Assert.assertTrue(breaker.allowRequest());
+
+        // a cancelled trial lets another call check the service.
+        breaker.onCancel();
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        Assert.assertFalse(breaker.isOpen());
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void test_disabled() {
+        final CircuitBreaker breaker = new CircuitBreaker(0, 100, clock::get);
+        for (int idx = 0; idx < 10; idx++) {
+            breaker.onFailure();
+        }
+        Assert.assertFalse(breaker.isOpen());
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+}
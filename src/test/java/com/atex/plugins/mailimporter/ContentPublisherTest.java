@@ -1,12 +1,15 @@
 package com.atex.plugins.mailimporter;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -28,6 +31,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.RestoreSystemProperties;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -85,6 +89,9 @@ public class ContentPublisherTest {
     @Rule
     public final JettyRule jettyWrapperRule = new JettyRule();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     Application application;
 
@@ -595,6 +602,147 @@ public class ContentPublisherTest {
         Assert.assertArrayEquals(imgData, imgSupplier.get());
     }
 
+    @Test
+    public void test_concurrent_images_keep_the_order() throws Exception {
+        assertImagesOrder(4);
+    }
+
+    @Test
+    public void test_failed_image_is_skipped() throws Exception {
+        // a broken image does not fail the mail even when the images are imported one by one.
+        assertImagesOrder(1);
+    }
+
+    private void assertImagesOrder(final int imageConcurrency) throws Exception {
+        final MailImporterConfig config = new MailImporterConfig();
+        config.setAcceptedImageExtensions(Collections.singletonList("jpg"));
+
+        final ContentPublisher concurrentPublisher = new ContentPublisher() {
+            @Override
+            protected Object createArticleBean(final MailImporterConfig config,
+                                               final MailRouteConfig routeConfig,
+                                               final MailProcessorUtils mailProcessorUtils,
+                                               final MailBean mail) {
+                return new ImagesBean();
+            }
+
+            @Override
+            protected ContentId createImage(final MailImporterConfig config,
+                                            final MailRouteConfig routeConfig,
+                                            final MailProcessorUtils mailProcessorUtils,
+                                            final MailBean mailBean,
+                                            final String name,
+                                            final MailBeanAttachment attachment,
+                                            final int imageNumber,
+                                            final int imageCount) throws Exception {
+                // the first images are the slowest ones.
+                Thread.sleep((imageCount - imageNumber) * 20);
+                if (name.equals("image3.jpg")) {
+                    throw new IOException("broken image");
+                }
+                return IdUtil.fromString("onecms:image" + imageNumber);
+            }
+        };
+        concurrentPublisher.init(application);
+
+        final MailBean mail = new MailBean();
+        final Map<String, MailBeanAttachment> attachments = new LinkedHashMap<>();
+        for (int idx = 1; idx <= 5; idx++) {
+            attachments.put("image" + idx + ".jpg", createImageAttachment(new byte[] { (byte) idx }));
+        }
+        mail.setAttachments(attachments);
+
+        final MailRouteConfig routeConfig = new MailRouteConfig();
+        routeConfig.setImageConcurrency(imageConcurrency);
+
+        ContentPublisher.CREATE_IDS.set(new ArrayList<>());
+        try {
+            final ImagesBean bean = (ImagesBean) concurrentPublisher.createArticle(
+                    config,
+                    routeConfig,
+                    concurrentPublisher.getMailProcessorUtils(),
+                    mail
+            );
+            Assert.assertEquals(Arrays.asList(
+                    IdUtil.fromString("onecms:image5"),
+                    IdUtil.fromString("onecms:image4"),
+                    IdUtil.fromString("onecms:image2"),
+                    IdUtil.fromString("onecms:image1")
+            ), bean.getImages());
+            Assert.assertEquals(Arrays.asList(
+                    IdUtil.fromString("onecms:image1"),
+                    IdUtil.fromString("onecms:image2"),
+                    IdUtil.fromString("onecms:image4"),
+                    IdUtil.fromString("onecms:image5")
+            ), ContentPublisher.CREATE_IDS.get());
+        } finally {
+            ContentPublisher.CREATE_IDS.remove();
+        }
+
+        final ContentWritePipeline pipeline = concurrentPublisher.getWritePipeline();
+        concurrentPublisher.shutdown();
+        Assert.assertTrue(pipeline.isShutdown());
+        // a new pipeline is created when the publisher is used again.
+        Assert.assertNotSame(pipeline, concurrentPublisher.getWritePipeline());
+        concurrentPublisher.shutdown();
+    }
+
+    @Test
+    public void test_publish_duplicated_image() throws Exception {
+        MailImporterConfig config = new MailImporterConfig();
+        config.setTaxonomyId("configTaxonomyId.d");
+        config.setAcceptedImageExtensions(Collections.singletonList("jpg"));
+        config.setAttachmentNamePattern("${subject}");
+
+        publisher.setConfig(config);
+
+        setupModelTypeName("com.my.articleBean", MyArticleBean.class);
+        setupModelTypeName("com.my.imageBean", MyImageBean.class);
+
+        final ContentVersionId imageId = IdUtil.fromVersionedString("onecms:abcd:efgh");
+        setupContentWrites(Collections.singletonMap("com.my.imageBean", imageId));
+
+        final long now = System.currentTimeMillis();
+        final FileInfo fileInfo = new FileInfo(
+                "content://myimage.jpg",
+                "image/jpg",
+                "myimage.jpg",
+                0,
+                null,
+                now,
+                now,
+                now);
+        setupFileService("myimage.jpg", fileInfo);
+        Mockito.when(contentManager.resolve(Mockito.eq(imageId.getContentId()), Mockito.any()))
+               .thenReturn(imageId);
+
+        final MailRouteConfig routeConfig = new MailRouteConfig();
+        routeConfig.setTaxonomyId("routeTaxonomy.d");
+        routeConfig.setArticleAspect("com.my.articleBean");
+        routeConfig.setImageAspect("com.my.imageBean");
+        routeConfig.setMinWords(10);
+        routeConfig.setImageHashIndex(new File(folder.getRoot(), "images.idx").getAbsolutePath());
+
+        final MailBean mail = new MailBean();
+        mail.setSubject("This is the subject");
+        mail.setBody("This is the body");
+        mail.setFrom("mnova@atex.com");
+        try (final InputStream is = ClassUtil.getResourceAsStream(this.getClass(), "/image.jpg")) {
+            mail.setAttachments(Collections.singletonMap("myimage.jpg", createImageAttachment(IOUtils.toByteArray(is))));
+        }
+
+        final List<ContentId> ids = publisher.publish(mail, routeConfig);
+        Assert.assertEquals(Collections.singletonList(imageId.getContentId()), ids);
+
+        // the same image is not imported again.
+        final List<ContentId> newIds = publisher.publish(mail, routeConfig);
+        Assert.assertEquals(0, newIds.size());
+        Mockito.verify(contentManager, Mockito.times(1))
+               .create(Mockito.any(), Mockito.any());
+        Mockito.verify(fileService, Mockito.times(1))
+               .uploadFile(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
     @Test
     public void test_publish_long_article_with_image() throws Exception {
         MailImporterConfig config = new MailImporterConfig();
@@ -1291,6 +1439,18 @@ public class ContentPublisherTest {
         return a;
     }
 
+    public static class ImagesBean {
+        private List<ContentId> images;
+
+        public List<ContentId> getImages() {
+            return images;
+        }
+
+        public void setImages(final List<ContentId> images) {
+            this.images = images;
+        }
+    }
+
     public static class MyArticleBean {
         private String name;
         private String headline;
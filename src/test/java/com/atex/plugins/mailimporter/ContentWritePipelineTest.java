@@ -0,0 +1,141 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * ContentWritePipelineTest
+ *
+ * @author mnova
+ */
+public class ContentWritePipelineTest {
+
+    private ContentWritePipeline pipeline;
+
+    @After
+    public void after() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void test_results() throws Exception {
+        pipeline = new ContentWritePipeline(4, 16);
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int idx = 0; idx < 10; idx++) {
+            final int value = idx;
+            futures.add(pipeline.submit(() -> value * 2));
+        }
+        for (int idx = 0; idx < 10; idx++) {
+            Assert.assertEquals(Integer.valueOf(idx * 2), futures.get(idx).get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(0, pipeline.getQueueDepth());
+    }
+
+    @Test
+    public void test_failure() throws Exception {
+        pipeline = new ContentWritePipeline(1, 1);
+        final CompletableFuture<Object> future = pipeline.submit(() -> {
+            throw new IOException("broken");
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("expected an exception");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        // the permit has been released.
+        Assert.assertEquals("ok", pipeline.submit(() -> "ok").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_bounded() throws Exception {
+        pipeline = new ContentWritePipeline(1, 2);
+        Assert.assertEquals(2, pipeline.getMaxPending());
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline.submit(() -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        pipeline.submit(() -> true);
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, pipeline.getQueueDepth());
+
+        final AtomicBoolean submitted = new AtomicBoolean(false);
+        final Thread thread = new Thread(() -> {
+            try {
+                pipeline.submit(() -> true);
+                submitted.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        thread.join(200);
+        // the third write waits for a pending one.
+        Assert.assertFalse(submitted.get());
+
+        release.countDown();
+        thread.join(5000);
+        Assert.assertTrue(submitted.get());
+    }
+
+    @Test
+    public void test_cancelled_write_is_skipped() throws Exception {
+        pipeline = new ContentWritePipeline(1, 4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CompletableFuture<Boolean> first = pipeline.submit(() -> release.await(5, TimeUnit.SECONDS));
+        final CompletableFuture<Integer> second = pipeline.submit(calls::incrementAndGet);
+        Assert.assertTrue(second.cancel(false));
+        release.countDown();
+        Assert.assertTrue(first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("ok", pipeline.submit(() -> "ok").get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, calls.get());
+        Assert.assertEquals(0, pipeline.getQueueDepth());
+    }
+
+    @Test
+    public void test_shutdown() throws Exception {
+        pipeline = new ContentWritePipeline(1, 4);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CompletableFuture<Boolean> first = pipeline.submit(() -> {
+            running.countDown();
+            Thread.sleep(100);
+            return true;
+        });
+        final CompletableFuture<String> second = pipeline.submit(() -> "ok");
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        Assert.assertTrue(pipeline.isShutdown());
+
+        // the pending writes are completed before the shutdown returns.
+        Assert.assertTrue(first.isDone());
+        Assert.assertTrue(first.get());
+        Assert.assertEquals("ok", second.getNow(null));
+        Assert.assertEquals(0, pipeline.getQueueDepth());
+
+        try {
+            pipeline.submit(() -> "ko").get(5, TimeUnit.SECONDS);
+            Assert.fail("expected an exception");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(0, pipeline.getQueueDepth());
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.atex.plugins.mailimporter;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * DateNormalizerTest
+ *
+ * @author mnova
+ */
+public class DateNormalizerTest {
+
+    private final DateNormalizer normalizer = new DateNormalizer(16);
+
+    @Test
+    public void test_shapes() {
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize("2020:01:31 10:11:12"));
+        Assert.assertEquals("2020-01-31T10:11:00Z", normalizer.normalize("2020:01:31 10:11"));
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize("2020-01-31 10:11:12"));
+        Assert.assertEquals("2020-01-31T10:11:00Z", normalizer.normalize("2020-01-31 10:11"));
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize("2020.01.31 10:11:12"));
+        Assert.assertEquals("2020-01-31T10:11:00Z", normalizer.normalize("2020.01.31 10:11"));
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize("2020-01-31T10:11:12"));
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize("2020-01-31T10:11:12Z"));
+        Assert.assertEquals("2020-01-31T10:11:00Z", normalizer.normalize("2020-01-31T10:11"));
+        Assert.assertEquals("2020-01-31T00:00:00Z", normalizer.normalize("2020:01:31"));
+        Assert.assertEquals("2020-01-31T00:00:00Z", normalizer.normalize("2020-01-31"));
+        Assert.assertEquals("2020-01-01T00:00:00Z", normalizer.normalize("2020-01"));
+        Assert.assertEquals("2020-01-01T00:00:00Z", normalizer.normalize("2020"));
+        Assert.assertEquals("2020-01-31T00:00:00Z", normalizer.normalize("20200131"));
+    }
+
+    @Test
+    public void test_trailing_text_is_ignored() {
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize("2020-01-31T10:11:12.345+02:00"));
+        Assert.assertEquals("2020-01-31T00:00:00Z", normalizer.normalize("2020:01:31 10"));
+        Assert.assertEquals("2020-01-01T00:00:00Z", normalizer.normalize("2020.01.31"));
+    }
+
+    @Test
+    public void test_whitespaces_are_ignored() {
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize(" 2020:01:31 10:11:12"));
+        Assert.assertEquals("2020-01-31T10:11:12Z", normalizer.normalize("\t2020-01-31T10:11:12 \n"));
+        Assert.assertEquals("2020-01-31T00:00:00Z", normalizer.normalize("  20200131"));
+        Assert.assertNull(normalizer.normalize("   "));
+    }
+
+    @Test
+    public void test_lenient() {
+        Assert.assertEquals("2021-01-01T00:00:00Z", normalizer.normalize("2020:13:01"));
+        Assert.assertEquals("2020-02-01T00:00:00Z", normalizer.normalize("2020-1-32"));
+    }
+
+    @Test
+    public void test_invalid() {
+        Assert.assertNull(normalizer.normalize(null));
+        Assert.assertNull(normalizer.normalize(""));
+        Assert.assertNull(normalizer.normalize("yesterday"));
+        Assert.assertNull(normalizer.normalize("yesterday"));
+    }
+
+    @Test
+    public void test_future_date() {
+        final String now = DateTimeFormatter.ofPattern("yyyy-MM-dd").format(LocalDateTime.now());
+        final String date = normalizer.normalize("2999:01:01 10:00:00");
+        Assert.assertNotNull(date);
+        Assert.assertTrue(date, date.startsWith(now));
+
+        // cached dates are checked again.
+        Assert.assertEquals(date.substring(0, 10), normalizer.normalize("2999:01:01 10:00:00").substring(0, 10));
+    }
+
+    @Test
+    public void test_string_utils() {
+        Assert.assertEquals("2020-01-31T10:11:12Z", StringUtils.getNormalizedDateString("2020:01:31 10:11:12"));
+        Assert.assertNull(StringUtils.getNormalizedDateString("no date"));
+    }
+
+}
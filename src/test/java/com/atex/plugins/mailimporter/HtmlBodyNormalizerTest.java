@@ -0,0 +1,47 @@
+package com.atex.plugins.mailimporter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * HtmlBodyNormalizerTest
+ *
+ * @author mnova
+ */
+public class HtmlBodyNormalizerTest {
+
+    @Test
+    public void test_line_breaks() {
+        final HtmlBodyNormalizer n = HtmlBodyNormalizer.normalize(
+                "<p>Lead</p><p>&nbsp;</p><p>Line 1<br>Line 2<br/>Line 3<br />Line 4</p>");
+        Assert.assertEquals("Lead", n.getLead());
+        Assert.assertEquals("<p>Line 1</p>\n<p>Line 2</p>\n<p>Line 3</p>\n<p>Line 4</p>", n.getBody());
+    }
+
+    @Test
+    public void test_divs_cid_and_entities() {
+        final HtmlBodyNormalizer n = HtmlBodyNormalizer.normalize(
+                "<div>Lead</div>\r\n<div>Body [cid:image001.png@01D73B43]\n\n with image</div>" +
+                        "<div>K&auml;se &amp; &lt;Brot&gt;</div>");
+        Assert.assertEquals("Lead", n.getLead());
+        Assert.assertEquals("<p>Body  with image</p>\n<p>K&auml;se & <Brot></p>", n.getBody());
+    }
+
+    @Test
+    public void test_single_line() {
+        final HtmlBodyNormalizer n = HtmlBodyNormalizer.normalize("Only one line");
+        Assert.assertEquals("", n.getLead());
+        Assert.assertEquals("<p>Only one line</p>", n.getBody());
+    }
+
+    @Test
+    public void test_replace_stage() {
+        final String[] values = new String[] { "", "a", "aab", "aaab", "aabaab", "abaab", "aaaa", "baa" };
+        for (final String value : values) {
+            final CharPipeline.StringSink sink = new CharPipeline.StringSink(16);
+            CharPipeline.feed(value, CharPipeline.replace("aab", "<x>", sink));
+            Assert.assertEquals(value, value.replace("aab", "<x>"), sink.toString());
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.atex.plugins.mailimporter;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atex.plugins.mailimporter.ImageDownscaler.DownscaledImage;
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.iptc.IptcDirectory;
+
+/**
+ * ImageDownscalerTest
+ *
+ * @author mnova
+ */
+public class ImageDownscalerTest {
+
+    @Test
+    public void test_disabled_or_within_limits() throws Exception {
+        final ImagePipeline image = ImagePipeline.of(new MemoryAttachmentContent(readImage()));
+        Assert.assertFalse(new ImageDownscaler(-1, -1).isEnabled());
+        Assert.assertEquals(Optional.empty(), new ImageDownscaler(-1, -1).downscale(image, "image/jpeg"));
+        // the image is 600x450.
+        Assert.assertEquals(Optional.empty(), new ImageDownscaler(600 * 450, image.getSize()).downscale(image, "image/jpeg"));
+        Assert.assertEquals(Optional.empty(), new ImageDownscaler(1000, -1).downscale(image, "image/gif"));
+    }
+
+    @Test
+    public void test_jpeg_max_pixels() throws Exception {
+        final byte[] data = readImage();
+        final ImagePipeline image = ImagePipeline.of(new MemoryAttachmentContent(data));
+        final DownscaledImage downscaled = new ImageDownscaler(100000, -1).downscale(image, "image/jpeg").orElse(null);
+        Assert.assertNotNull(downscaled);
+        Assert.assertEquals(300, downscaled.getSize().getWidth());
+        Assert.assertEquals(225, downscaled.getSize().getHeight());
+        Assert.assertTrue(downscaled.getData().length < data.length);
+
+        final BufferedImage bi = ImageIO.read(new ByteArrayInputStream(downscaled.getData()));
+        Assert.assertEquals(300, bi.getWidth());
+        Assert.assertEquals(225, bi.getHeight());
+
+        // the exif and iptc segments are kept.
+        final String content = new String(downscaled.getData(), StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(content.contains("Exif\u0000\u0000"));
+        Assert.assertTrue(content.contains("Photoshop 3.0"));
+        Assert.assertEquals("Atex", IptcMetadataReader.read(ByteBuffer.wrap(downscaled.getData()))
+                                                      .map(iptc -> iptc.get(IptcDirectory.TAG_BY_LINE))
+                                                      .orElse(null));
+
+        // the exif pixel dimensions are the downscaled ones.
+        final ExifSubIFDDirectory exif = ImageMetadataReader.readMetadata(new ByteArrayInputStream(downscaled.getData()))
+                                                            .getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        Assert.assertNotNull(exif);
+        Assert.assertEquals(300, exif.getInt(ExifSubIFDDirectory.TAG_EXIF_IMAGE_WIDTH));
+        Assert.assertEquals(225, exif.getInt(ExifSubIFDDirectory.TAG_EXIF_IMAGE_HEIGHT));
+    }
+
+    @Test
+    public void test_jpeg_icc_profile() throws Exception {
+        final byte[] data = readImage();
+        final byte[] profile = ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+        final byte[] header = "ICC_PROFILE\u0000".getBytes(StandardCharsets.US_ASCII);
+        final int length = 2 + header.length + 2 + profile.length;
+        // the APP2 segment is added after the APP0 one (SOI and APP0 are 20 bytes).
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(data, 0, 20);
+        out.write(new byte[] { (byte) 0xff, (byte) 0xe2, (byte) (length >> 8), (byte) length });
+        out.write(header);
+        out.write(new byte[] { 1, 1 });
+        out.write(profile);
+        out.write(data, 20, data.length - 20);
+
+        final ImagePipeline image = ImagePipeline.of(new MemoryAttachmentContent(out.toByteArray()));
+        final DownscaledImage downscaled = new ImageDownscaler(100000, -1).downscale(image, "image/jpeg").orElse(null);
+        Assert.assertNotNull(downscaled);
+        final String content = new String(downscaled.getData(), StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(content.contains("ICC_PROFILE"));
+        // the profile is not copied when the encoder already wrote one.
+        Assert.assertEquals(content.indexOf("ICC_PROFILE"), content.lastIndexOf("ICC_PROFILE"));
+    }
+
+    @Test
+    public void test_update_exif_pixel_dimensions() {
+        // big endian: IFD0 with the exif IFD pointer, the exif IFD with a LONG width and a SHORT height.
+        final ByteBuffer segment = ByteBuffer.allocate(4 + 6 + 8 + 18 + 30).order(ByteOrder.BIG_ENDIAN);
+        segment.put((byte) 0xff).put((byte) 0xe1).putShort((short) (segment.capacity() - 2));
+        segment.put("Exif\u0000\u0000".getBytes(StandardCharsets.US_ASCII));
+        segment.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        segment.putShort((short) 1).putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(26).putInt(0);
+        segment.putShort((short) 2);
+        segment.putShort((short) 0xa002).putShort((short) 4).putInt(1).putInt(4000);
+        segment.putShort((short) 0xa003).putShort((short) 3).putInt(1).putShort((short) 3000).putShort((short) 0);
+        segment.putInt(0);
+
+        final byte[] data = segment.array();
+        ImageDownscaler.updateExifPixelDimensions(data, 1000, 750);
+        final ByteBuffer updated = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        Assert.assertEquals(1000, updated.getInt(10 + 26 + 2 + 8));
+        Assert.assertEquals(750, updated.getShort(10 + 26 + 2 + 12 + 8));
+
+        // not an exif segment.
+        final byte[] xmp = "\u00ff\u00e1\u0000\u0020http://ns.adobe.com/xap/1.0/\u0000".getBytes(StandardCharsets.ISO_8859_1);
+        final byte[] copy = xmp.clone();
+        ImageDownscaler.updateExifPixelDimensions(copy, 1000, 750);
+        Assert.assertArrayEquals(xmp, copy);
+    }
+
+    @Test
+    public void test_jpeg_max_bytes() throws Exception {
+        final byte[] data = readImage();
+        final ImagePipeline image = ImagePipeline.of(new MemoryAttachmentContent(data));
+        final DownscaledImage downscaled = new ImageDownscaler(-1, data.length / 3).downscale(image, "image/jpeg").orElse(null);
+        Assert.assertNotNull(downscaled);
+        Assert.assertTrue(downscaled.getData().length <= data.length / 3);
+        Assert.assertTrue(downscaled.getSize().getWidth() < 600);
+    }
+
+    @Test
+    public void test_png() throws Exception {
+        final BufferedImage source = ImageIO.read(new ByteArrayInputStream(readImage()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(ImageIO.write(source, "png", out));
+        final ImagePipeline image = ImagePipeline.of(new MemoryAttachmentContent(out.toByteArray()));
+        final DownscaledImage downscaled = new ImageDownscaler(50000, -1).downscale(image, "image/png").orElse(null);
+        Assert.assertNotNull(downscaled);
+        Assert.assertTrue((long) downscaled.getSize().getWidth() * downscaled.getSize().getHeight() <= 50000);
+        final BufferedImage bi = ImageIO.read(new ByteArrayInputStream(downscaled.getData()));
+        Assert.assertEquals(downscaled.getSize().getWidth(), bi.getWidth());
+        Assert.assertEquals(downscaled.getSize().getHeight(), bi.getHeight());
+    }
+
+    @Test
+    public void test_subsampling() {
+        final ImageHeaderReader.ImageSize size = new ImageHeaderReader.ImageSize(8000, 6000);
+        Assert.assertEquals(4, new ImageDownscaler(3000000, -1).getSubsampling(size, 1000));
+        Assert.assertEquals(4, new ImageDownscaler(5000000, -1).getSubsampling(size, 1000));
+        // 8001 / 4 is rounded up, so 2001x1500 would be more than the max pixels.
+        Assert.assertEquals(5, new ImageDownscaler(3000375, -1).getSubsampling(new ImageHeaderReader.ImageSize(8001, 6000), 1000));
+        Assert.assertEquals(2, new ImageDownscaler(-1, 1000).getSubsampling(size, 1500));
+        Assert.assertEquals(3, new ImageDownscaler(-1, 1000).getSubsampling(size, 9000));
+    }
+
+    private byte[] readImage() throws Exception {
+        try (final InputStream is = this.getClass().getResourceAsStream("/image.jpg")) {
+            Assert.assertNotNull(is);
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * ImageHashIndexTest
+ *
+ * @author mnova
+ */
+public class ImageHashIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_hash() throws Exception {
+        final HashCode hash = ImageHashIndex.hash(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash.toString());
+    }
+
+    @Test
+    public void test_put_get_remove() throws Exception {
+        final File file = new File(folder.getRoot(), "images.idx");
+        try (final ImageHashIndex index = new ImageHashIndex(file)) {
+            Assert.assertNull(index.get(hash(1)));
+            index.put(hash(1), "onecms:1234");
+            index.put(hash(2), "onecms:5678");
+            Assert.assertEquals("onecms:1234", index.get(hash(1)));
+            Assert.assertEquals("onecms:5678", index.get(hash(2)));
+            Assert.assertEquals(2, index.size());
+
+            index.put(hash(1), "onecms:abcd");
+            Assert.assertEquals("onecms:abcd", index.get(hash(1)));
+            Assert.assertEquals(2, index.size());
+
+            Assert.assertTrue(index.remove(hash(1)));
+            Assert.assertFalse(index.remove(hash(1)));
+            Assert.assertNull(index.get(hash(1)));
+            Assert.assertEquals("onecms:5678", index.get(hash(2)));
+            Assert.assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    public void test_persistence_and_growth() throws Exception {
+        final File file = new File(folder.getRoot(), "images.idx");
+        final Map<HashCode, String> expected = new HashMap<>();
+        try (final ImageHashIndex index = new ImageHashIndex(file, 16, 10)) {
+            for (int idx = 0; idx < 1000; idx++) {
+                index.put(hash(idx), "onecms:" + idx);
+                expected.put(hash(idx), "onecms:" + idx);
+            }
+            for (int idx = 0; idx < 1000; idx += 3) {
+                index.remove(hash(idx));
+                expected.remove(hash(idx));
+            }
+            Assert.assertTrue(index.getCapacity() >= 1024);
+        }
+        try (final ImageHashIndex index = new ImageHashIndex(file, 16, 10)) {
+            Assert.assertEquals(expected.size(), index.size());
+            for (int idx = 0; idx < 1000; idx++) {
+                Assert.assertEquals(expected.get(hash(idx)), index.get(hash(idx)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_value_too_long() throws Exception {
+        try (final ImageHashIndex index = new ImageHashIndex(new File(folder.getRoot(), "images.idx"))) {
+            final char[] value = new char[ImageHashIndex.MAX_VALUE_LENGTH + 1];
+            index.put(hash(1), new String(value));
+        }
+    }
+
+    private HashCode hash(final int value) {
+        return Hashing.sha256().hashInt(value);
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.atex.plugins.mailimporter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atex.plugins.mailimporter.ImageHeaderReader.ImageSize;
+
+/**
+ * ImageHeaderReaderTest
+ *
+ * @author mnova
+ */
+public class ImageHeaderReaderTest {
+
+    @Test
+    public void test_jpeg() throws Exception {
+        // the frame header comes after the exif and iptc segments.
+        assertSize(600, 450, readImage());
+        assertSize(120, 80, createImage("jpeg", 120, 80));
+    }
+
+    @Test
+    public void test_other_formats() throws Exception {
+        assertSize(130, 70, createImage("png", 130, 70));
+        assertSize(140, 60, createImage("gif", 140, 60));
+        assertSize(150, 50, createImage("bmp", 150, 50));
+    }
+
+    @Test
+    public void test_unknown() throws Exception {
+        Assert.assertFalse(ImageHeaderReader.read(new ByteArrayInputStream(new byte[0])).isPresent());
+        Assert.assertFalse(ImageHeaderReader.read(new ByteArrayInputStream("hello world".getBytes(StandardCharsets.US_ASCII))).isPresent());
+
+        final byte[] data = readImage();
+        final byte[] truncated = new byte[200];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        Assert.assertFalse(ImageHeaderReader.read(new ByteArrayInputStream(truncated)).isPresent());
+    }
+
+    @Test
+    public void test_reads_only_the_header() throws Exception {
+        final byte[] data = createImage("png", 100, 100);
+        final ByteArrayInputStream is = new ByteArrayInputStream(data);
+        Assert.assertTrue(ImageHeaderReader.read(is).isPresent());
+        Assert.assertEquals(data.length - 24, is.available());
+    }
+
+    private void assertSize(final int width,
+                            final int height,
+                            final byte[] data) throws Exception {
+        final Optional<ImageSize> size = ImageHeaderReader.read(new ByteArrayInputStream(data));
+        Assert.assertTrue(size.isPresent());
+        Assert.assertEquals(width, size.get().getWidth());
+        Assert.assertEquals(height, size.get().getHeight());
+    }
+
+    private byte[] createImage(final String format,
+                               final int width,
+                               final int height) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Assert.assertTrue(ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, baos));
+        return baos.toByteArray();
+    }
+
+    private byte[] readImage() throws Exception {
+        try (final InputStream is = this.getClass().getResourceAsStream("/image.jpg")) {
+            Assert.assertNotNull(is);
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+}
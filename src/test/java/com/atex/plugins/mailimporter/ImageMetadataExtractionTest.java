@@ -89,4 +89,24 @@ public class ImageMetadataExtractionTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_circuit_breaker() throws Exception {
+        final JettyWrapper jw = jettyWrapperRule.getJettyWrapper();
+        final String servletPath = "/metadata/image/broken";
+        final MetadataServiceServlet servlet = new MetadataServiceServlet(HttpServletResponse.SC_INTERNAL_SERVER_ERROR)
+                .body(this.getClass(), "/metadata.json")
+                .contentType(MediaType.APPLICATION_JSON);
+        jw.addServlet(servlet, servletPath);
+        System.setProperty("image.metadata.service.failureThreshold", "2");
+        System.setProperty("image.metadata.service.openTimeout", "60000");
+        final ImageMetadataExtraction extraction = new ImageMetadataExtraction(jw.getURL(servletPath));
+        for (int idx = 0; idx < 4; idx++) {
+            try (final InputStream is = ClassUtil.getResourceAsStream(this.getClass(), "/image.jpg")) {
+                Assert.assertFalse(extraction.extract(is, "image/jpeg").isPresent());
+            }
+        }
+        // the circuit has been opened after two failures.
+        Assert.assertEquals(2, servlet.getCalls());
+    }
+
+}
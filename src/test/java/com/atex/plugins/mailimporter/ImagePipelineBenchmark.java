@@ -0,0 +1,165 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.polopoly.common.lang.ClassUtil;
+
+/**
+ * Simple micro benchmark for {@link ImagePipeline}, it is not run by the tests,
+ * run it from the IDE (or with <code>java -cp</code>) when you change how
+ * {@link ContentPublisher} reads the images.
+ *
+ * The "before" pass reproduces the old <code>createImage</code> flow (sniff the attachment,
+ * copy it to a temporary file, parse the metadata from the file, sniff and upload the
+ * file to the metadata service, upload the attachment to the file service), the "after"
+ * pass feeds the same consumers from an {@link ImagePipeline}. The uploads are
+ * simulated by draining the streams.
+ *
+ * For each pass it prints the cpu and wall time per image, the bytes read from the
+ * attachment and the bytes written to temporary files.
+ *
+ * @author mnova
+ */
+public class ImagePipelineBenchmark {
+
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 500;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(final String[] args) throws Exception {
+        final byte[] data;
+        try (final InputStream is = ClassUtil.getResourceAsStream(ImagePipelineBenchmark.class, "/image.jpg")) {
+            data = IOUtils.toByteArray(is);
+        }
+        final AttachmentContent memory = new MemoryAttachmentContent(data);
+        final AttachmentContent spooled = new SpoolingAttachmentStore(0, null).store("image.jpg", new ByteArrayInputStream(data));
+        try {
+            report("memory", memory);
+            report("spooled", spooled);
+        } finally {
+            spooled.release();
+        }
+    }
+
+    private static void report(final String name,
+                               final AttachmentContent content) throws Exception {
+        final Stats before = new Stats();
+        final Stats after = new Stats();
+        for (int idx = 0; idx < WARMUP; idx++) {
+            before(content, new Stats());
+            after(content, new Stats());
+        }
+        measure(() -> before(content, before), before);
+        measure(() -> after(content, after), after);
+        print(name, "before", content, before);
+        print(name, "after", content, after);
+    }
+
+    private static void before(final AttachmentContent content,
+                               final Stats stats) throws Exception {
+        try (final InputStream is = count(content.openStream(), stats)) {
+            MimeTypeUtils.getMimeType(is);
+        }
+        final Path tempFile = Files.createTempFile("image.", ".jpg");
+        try {
+            try (final InputStream is = count(content.openStream(), stats);
+                 final OutputStream os = Files.newOutputStream(tempFile, StandardOpenOption.APPEND)) {
+                stats.tempBytes += IOUtils.copyLarge(is, os);
+            }
+            try (final InputStream fis = Files.newInputStream(tempFile, StandardOpenOption.READ)) {
+                ImageMetadataReader.readMetadata(fis);
+            }
+            try (final InputStream fis = new BufferedInputStream(Files.newInputStream(tempFile, StandardOpenOption.READ))) {
+                MimeTypeUtils.getMimeType(fis);
+                IOUtils.copyLarge(fis, NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        try (final InputStream is = count(content.openStream(), stats)) {
+            IOUtils.copyLarge(is, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+    }
+
+    private static void after(final AttachmentContent content,
+                              final Stats stats) throws Exception {
+        final ImagePipeline image = ImagePipeline.of(content);
+        // the pipeline reads (or maps) the attachment once.
+        stats.readBytes += content.getSize();
+        image.getMimeType();
+        try (final InputStream is = image.openStream()) {
+            ImageMetadataReader.readMetadata(is);
+        }
+        try (final InputStream is = image.openStream()) {
+            IOUtils.copyLarge(is, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+        try (final InputStream is = image.openStream()) {
+            IOUtils.copyLarge(is, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+    }
+
+    private static InputStream count(final InputStream is,
+                                     final Stats stats) {
+        return new CountingInputStream(is) {
+            @Override
+            public void close() throws IOException {
+                stats.readBytes += getByteCount();
+                super.close();
+            }
+        };
+    }
+
+    private static void measure(final Pass pass,
+                                final Stats stats) throws Exception {
+        final long cpu = THREADS.getCurrentThreadCpuTime();
+        final long start = System.nanoTime();
+        for (int idx = 0; idx < ITERATIONS; idx++) {
+            pass.run();
+        }
+        stats.wallNanos = System.nanoTime() - start;
+        stats.cpuNanos = THREADS.getCurrentThreadCpuTime() - cpu;
+    }
+
+    private static void print(final String name,
+                              final String pass,
+                              final AttachmentContent content,
+                              final Stats stats) {
+        System.out.println(String.format(
+                "%-8s %-7s %6d KB: cpu %8.1f us/image, wall %8.1f us/image, read %5.2fx, temp files %5.2fx",
+                name,
+                pass,
+                content.getSize() / 1024,
+                stats.cpuNanos / (double) ITERATIONS / 1000,
+                stats.wallNanos / (double) ITERATIONS / 1000,
+                stats.readBytes / (double) ITERATIONS / content.getSize(),
+                stats.tempBytes / (double) ITERATIONS / content.getSize()
+        ));
+    }
+
+    private interface Pass {
+        void run() throws Exception;
+    }
+
+    private static class Stats {
+        long cpuNanos;
+        long wallNanos;
+        long readBytes;
+        long tempBytes;
+    }
+
+}
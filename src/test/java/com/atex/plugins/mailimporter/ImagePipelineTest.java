@@ -0,0 +1,95 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Optional;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * ImagePipelineTest
+ *
+ * @author mnova
+ */
+public class ImagePipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_memory_content_is_shared() throws Exception {
+        final byte[] data = readImage();
+        final MemoryAttachmentContent content = new MemoryAttachmentContent(data);
+        Assert.assertSame(data, content.toByteArray());
+        final ImagePipeline image = ImagePipeline.of(content);
+        Assert.assertEquals(data.length, image.getSize());
+        Assert.assertSame(data, image.toByteArray());
+        assertContent(data, image);
+        Assert.assertEquals(Optional.of("image/jpeg"), image.getMimeType());
+        Assert.assertSame(image, ImagePipeline.of(image));
+    }
+
+    @Test
+    public void test_spooled_content() throws Exception {
+        final byte[] data = readImage();
+        final File spool = folder.newFolder("spool");
+        final AttachmentContent content = new SpoolingAttachmentStore(0, spool).store("image.jpg", new ByteArrayInputStream(data));
+        Assert.assertTrue(content instanceof FileAttachmentContent);
+        final ImagePipeline image = ImagePipeline.of(content);
+        Assert.assertEquals(data.length, image.getSize());
+        Assert.assertArrayEquals(data, image.toByteArray());
+        assertContent(data, image);
+        Assert.assertEquals(Optional.of("image/jpeg"), image.getMimeType());
+    }
+
+    @Test
+    public void test_partial_array() throws Exception {
+        final byte[] data = new byte[] { 1, 2, 3, 4, 5 };
+        final ImagePipeline image = ImagePipeline.of(new MemoryAttachmentContent(data, 3));
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, image.toByteArray());
+        assertContent(new byte[] { 1, 2, 3 }, image);
+        Assert.assertEquals(Optional.empty(), image.getMimeType());
+    }
+
+    @Test
+    public void test_stream_mark_and_reset() throws Exception {
+        final ImagePipeline image = ImagePipeline.of(new MemoryAttachmentContent(new byte[] { 1, 2, 3, 4, 5 }));
+        try (final InputStream is = image.openStream()) {
+            Assert.assertTrue(is.markSupported());
+            Assert.assertEquals(1, is.read());
+            is.mark(10);
+            Assert.assertEquals(2, is.skip(2));
+            Assert.assertEquals(4, is.read());
+            Assert.assertEquals(1, is.available());
+            is.reset();
+            final byte[] b = new byte[10];
+            Assert.assertEquals(4, is.read(b, 0, b.length));
+            Assert.assertEquals(2, b[0]);
+            Assert.assertEquals(-1, is.read());
+            Assert.assertEquals(-1, is.read(b, 0, b.length));
+        }
+    }
+
+    private void assertContent(final byte[] expected,
+                               final ImagePipeline image) throws Exception {
+        // each stream is independent.
+        try (final InputStream is1 = image.openStream();
+             final InputStream is2 = image.openStream()) {
+            Assert.assertEquals(expected[0] & 0xff, is1.read());
+            Assert.assertArrayEquals(expected, IOUtils.toByteArray(is2));
+        }
+    }
+
+    private byte[] readImage() throws Exception {
+        try (final InputStream is = this.getClass().getResourceAsStream("/image.jpg")) {
+            Assert.assertNotNull(is);
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+}
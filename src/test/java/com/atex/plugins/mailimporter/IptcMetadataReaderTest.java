@@ -0,0 +1,156 @@
+package com.atex.plugins.mailimporter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.Tag;
+import com.drew.metadata.iptc.IptcDirectory;
+
+/**
+ * IptcMetadataReaderTest
+ *
+ * @author mnova
+ */
+public class IptcMetadataReaderTest {
+
+    @Test
+    public void test_jpeg_same_as_full_read() throws Exception {
+        final byte[] data = readImage();
+        final Optional<Map<Integer, String>> iptc = IptcMetadataReader.read(ByteBuffer.wrap(data));
+        Assert.assertTrue(iptc.isPresent());
+        Assert.assertEquals("Atex", iptc.get().get(IptcDirectory.TAG_BY_LINE));
+
+        final Metadata metadata = ImageMetadataReader.readMetadata(new ByteArrayInputStream(data));
+        final IptcDirectory expected = metadata.getFirstDirectoryOfType(IptcDirectory.class);
+        Assert.assertNotNull(expected);
+        // the text datasets have the same descriptions (the dates and times are compared once normalized).
+        for (final Tag tag : expected.getTags()) {
+            if (tag.getTagType() >> 8 == 2 && tag.getTagType() != IptcDirectory.TAG_APPLICATION_RECORD_VERSION
+                    && tag.getTagType() != IptcDirectory.TAG_DATE_CREATED && tag.getTagType() != IptcDirectory.TAG_TIME_CREATED) {
+                Assert.assertEquals(tag.getTagName(), tag.getDescription(), iptc.get().get(tag.getTagType()));
+            }
+        }
+
+        final MailProcessorUtils mpu = new MailProcessorUtils(null, null);
+        final CustomMetadataTags expectedTags = mpu.extract(metadata);
+        final CustomMetadataTags tags = mpu.extract(iptc.get());
+        Assert.assertEquals(expectedTags.getByline(), tags.getByline());
+        Assert.assertEquals(expectedTags.getCaption(), tags.getCaption());
+        Assert.assertEquals(expectedTags.getDescription(), tags.getDescription());
+        Assert.assertEquals(expectedTags.getHeadline(), tags.getHeadline());
+        Assert.assertEquals(expectedTags.getCredit(), tags.getCredit());
+        Assert.assertEquals(expectedTags.getSource(), tags.getSource());
+        Assert.assertEquals(expectedTags.getCopyright(), tags.getCopyright());
+        Assert.assertEquals(expectedTags.getKeywords(), tags.getKeywords());
+        Assert.assertEquals(expectedTags.getSubject(), tags.getSubject());
+        Assert.assertEquals(expectedTags.getLocation(), tags.getLocation());
+        Assert.assertEquals(expectedTags.getDateCreated(), tags.getDateCreated());
+        // only the iptc block has been read.
+        Assert.assertEquals(Collections.singleton("IPTC"), tags.getTags().keySet());
+    }
+
+    @Test
+    public void test_jpeg_without_iptc() throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "jpeg", baos);
+        final Optional<Map<Integer, String>> iptc = IptcMetadataReader.read(ByteBuffer.wrap(baos.toByteArray()));
+        Assert.assertTrue(iptc.isPresent());
+        Assert.assertTrue(iptc.get().isEmpty());
+        Assert.assertTrue(new MailProcessorUtils(null, null).extract(iptc.get()).getTags().isEmpty());
+    }
+
+    @Test
+    public void test_tiff() throws Exception {
+        // 0x1c, record 2, dataset 80 (by-line).
+        final byte[] iptc = new byte[] { 0x1c, 0x02, 0x50, 0x00, 0x04, 'M', 'a', 'r', 'c' };
+        final ByteBuffer tiff = ByteBuffer.allocate(26 + iptc.length).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        // one entry: IPTC (33723), UNDEFINED, count, offset.
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 33723).putShort((short) 7).putInt(iptc.length).putInt(26);
+        tiff.putInt(0);
+        tiff.put(iptc);
+
+        final Optional<Map<Integer, String>> metadata = IptcMetadataReader.read(ByteBuffer.wrap(tiff.array()));
+        Assert.assertTrue(metadata.isPresent());
+        Assert.assertEquals("Marc", metadata.get().get(IptcDirectory.TAG_BY_LINE));
+    }
+
+    @Test
+    public void test_datasets() throws Exception {
+        final ByteArrayOutputStream iptc = new ByteArrayOutputStream();
+        // utf-8 coded character set.
+        writeDataset(iptc, 1, 90, new byte[] { 0x1b, '%', 'G' });
+        writeDataset(iptc, 2, 25, "uno".getBytes(StandardCharsets.UTF_8));
+        writeDataset(iptc, 2, 25, "due".getBytes(StandardCharsets.UTF_8));
+        writeDataset(iptc, 2, 55, "20190315".getBytes(StandardCharsets.US_ASCII));
+        writeDataset(iptc, 2, 101, "Italia".getBytes(StandardCharsets.UTF_8));
+        writeDataset(iptc, 2, 92, "Città".getBytes(StandardCharsets.UTF_8));
+        final ByteBuffer tiff = ByteBuffer.allocate(26 + iptc.size()).order(ByteOrder.BIG_ENDIAN);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 33723).putShort((short) 7).putInt(iptc.size()).putInt(26);
+        tiff.putInt(0);
+        tiff.put(iptc.toByteArray());
+
+        final Map<Integer, String> descriptions = IptcMetadataReader.read(ByteBuffer.wrap(tiff.array())).orElse(null);
+        Assert.assertNotNull(descriptions);
+        Assert.assertEquals("uno;due", descriptions.get(IptcDirectory.TAG_KEYWORDS));
+        Assert.assertEquals("2019:03:15", descriptions.get(IptcDirectory.TAG_DATE_CREATED));
+        Assert.assertNull(descriptions.get(IptcDirectory.TAG_CODED_CHARACTER_SET));
+
+        final CustomMetadataTags tags = new MailProcessorUtils(null, null).extract(descriptions);
+        Assert.assertEquals("uno;due", tags.getKeywords());
+        Assert.assertEquals("Italia;Città", tags.getLocation());
+        Assert.assertEquals(StringUtils.getNormalizedDateString("2019:03:15"), tags.getDateCreated());
+    }
+
+    @Test
+    public void test_unsupported() throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", baos);
+        Assert.assertFalse(IptcMetadataReader.read(ByteBuffer.wrap(baos.toByteArray())).isPresent());
+        Assert.assertFalse(IptcMetadataReader.read(ByteBuffer.wrap("hello".getBytes(StandardCharsets.US_ASCII))).isPresent());
+
+        final byte[] data = readImage();
+        final byte[] truncated = new byte[100];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        Assert.assertFalse(IptcMetadataReader.read(ByteBuffer.wrap(truncated)).isPresent());
+    }
+
+    private void writeDataset(final ByteArrayOutputStream out,
+                              final int record,
+                              final int dataset,
+                              final byte[] value) {
+        out.write(0x1c);
+        out.write(record);
+        out.write(dataset);
+        out.write(value.length >> 8);
+        out.write(value.length & 0xff);
+        out.write(value, 0, value.length);
+    }
+
+    private byte[] readImage() throws Exception {
+        try (final InputStream is = this.getClass().getResourceAsStream("/image.jpg")) {
+            Assert.assertNotNull(is);
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+}
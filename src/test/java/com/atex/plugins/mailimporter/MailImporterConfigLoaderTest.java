@@ -137,6 +137,22 @@ public class MailImporterConfigLoaderTest {
             Assert.assertEquals(-1L, route.getImageMinSize());
             Assert.assertEquals(0, route.getSignatures().size());
             Assert.assertNull(route.getDumpFolder());
+            Assert.assertEquals(-1L, route.getAttachmentSpoolThreshold());
+            Assert.assertNull(route.getSpoolFolder());
+            Assert.assertFalse(route.isSelectiveFetch());
+            Assert.assertTrue(route.isFilterAttachments());
+            Assert.assertEquals(0, route.getAcceptedAttachmentExtensions().size());
+            Assert.assertNull(route.getImageHashIndex());
+            Assert.assertEquals(1, route.getImageConcurrency());
+            Assert.assertNull(route.getImageMetadata());
+            Assert.assertEquals(-1, route.getImageMinWidth());
+            Assert.assertEquals(-1, route.getImageMinHeight());
+            Assert.assertEquals(1000, route.getZipMaxEntries());
+            Assert.assertEquals(536870912L, route.getZipMaxTotalSize());
+            Assert.assertEquals(-1L, route.getImageMaxPixels());
+            Assert.assertEquals(-1L, route.getImageMaxBytes());
+            Assert.assertFalse(route.getTriage().isEnabled());
+            Assert.assertEquals("skip", route.getTriage().getAction());
         }
         {
             final MailRouteConfig route = mailUris.get(1);
@@ -158,6 +174,28 @@ public class MailImporterConfigLoaderTest {
                 Assert.assertEquals("This communication may contain confidential", s.getRegex());
             }
             Assert.assertEquals("/tmp/mail", route.getDumpFolder());
+            Assert.assertEquals(2097152L, route.getAttachmentSpoolThreshold());
+            Assert.assertEquals("/tmp/spool", route.getSpoolFolder());
+            Assert.assertTrue(route.isSelectiveFetch());
+            Assert.assertFalse(route.isFilterAttachments());
+            Assert.assertEquals(Arrays.asList("pdf", "docx"), route.getAcceptedAttachmentExtensions());
+            Assert.assertEquals("/tmp/images.idx", route.getImageHashIndex());
+            Assert.assertEquals(4, route.getImageConcurrency());
+            Assert.assertEquals("local", route.getImageMetadata());
+            Assert.assertEquals(200, route.getImageMinWidth());
+            Assert.assertEquals(100, route.getImageMinHeight());
+            Assert.assertEquals(200, route.getZipMaxEntries());
+            Assert.assertEquals(104857600L, route.getZipMaxTotalSize());
+            Assert.assertEquals(16000000L, route.getImageMaxPixels());
+            Assert.assertEquals(10485760L, route.getImageMaxBytes());
+            Assert.assertEquals(route.getAcceptedImageExtensions(), config.getAcceptedImageExtensions());
+            Assert.assertTrue(route.getTriage().isEnabled());
+            Assert.assertEquals(1048576L, route.getTriage().getMaxSize());
+            Assert.assertEquals(Arrays.asList("example.com", "user@example.org"), route.getTriage().getAllowedSenders());
+            Assert.assertEquals(0, route.getTriage().getDeniedSenders().size());
+            Assert.assertTrue(route.getTriage().isSkipTinyImagesOnly());
+            Assert.assertEquals("quarantine", route.getTriage().getAction());
+            Assert.assertEquals("Quarantine", route.getTriage().getQuarantineFolder());
         }
     }
 
@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +12,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import javax.activation.DataHandler;
@@ -134,8 +136,6 @@ public class MailParserImplTest {
                 )
         );
         final byte[] imageArray = getImageArray();
-        Mockito.when(typeConverter.convertTo(Mockito.any(), Mockito.any()))
-               .thenReturn(imageArray);
         final MailBeanAttachment attachment = new MailBeanAttachment();
         attachment.setContent(imageArray);
         attachment.setContentType("image/jpg");
@@ -155,7 +155,8 @@ public class MailParserImplTest {
         final MailBeanAttachment mba = am.get("a0.jpg");
         Assert.assertNotNull(mba);
         Assert.assertEquals("image/jpg", mba.getContentType());
-        Assert.assertEquals(imageArray, mba.getContent());
+        Assert.assertArrayEquals(imageArray, mba.getContent());
+        Assert.assertEquals(imageArray.length, mba.getSize());
     }
 
     @Test
@@ -168,8 +169,6 @@ public class MailParserImplTest {
         assert config != null;
         config.setImageMinSize(20000L);
         final byte[] imageArray = getImageArray();
-        Mockito.when(typeConverter.convertTo(Mockito.any(), Mockito.any()))
-               .thenReturn(imageArray);
         final MailBeanAttachment attachment = new MailBeanAttachment();
         attachment.setContent(imageArray);
         attachment.setContentType("image/jpg");
@@ -261,6 +260,83 @@ public class MailParserImplTest {
         Assert.assertEquals(0, bean.getAttachments().size());
     }
 
+    @Test
+    public void test_plain_text_hook() {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final MailParserImpl mailParser = new MailParserImpl() {
+            @Override
+            protected void setPlainTextContent(final MailBean mailBean,
+                                               final String body) {
+                calls.incrementAndGet();
+                Assert.assertEquals("the lead\n\nline 1\nline 2", body);
+                super.setPlainTextContent(mailBean, body);
+            }
+        };
+        final MailBean bean = mailParser.setMessageText(new MailBean(), "the lead\r\n\r\nline 1\r\n line 2", null);
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals("the lead", bean.getLead());
+        Assert.assertEquals("<p>line 1</p>\n<p>line 2</p>", bean.getBody());
+    }
+
+    @Test
+    public void test_remove_signatures_hook() throws Exception {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final MailParser mailParser = new MailParserImpl() {
+            @Override
+            protected MailBean removeSignatures(final MailBean bean,
+                                                final SignatureMatcher signatureMatcher) {
+                calls.incrementAndGet();
+                return super.removeSignatures(bean, signatureMatcher);
+            }
+        };
+        final MailBean bean = parse(mailParser, "/mails/mail-html-with-signature.eml", null, of(Signature.of(
+                "Via Cristoforo Colombo",
+                3
+        )));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals("<p>Test da @gedi.it su Desktop con firma</p>", bean.getBody());
+    }
+
+    @Test
+    public void test_attachments_released_on_failure() throws Exception {
+        final List<AttachmentContent> stored = new ArrayList<>();
+        final AtomicInteger released = new AtomicInteger(0);
+        final MailParser mailParser = new MailParserImpl() {
+            @Override
+            public AttachmentStore createAttachmentStore(final MailRouteConfig routeConfig) {
+                return (name, is) -> {
+                    if (stored.size() == 2) {
+                        throw new IOException("disk full");
+                    }
+                    final AttachmentContent content = new MemoryAttachmentContent(IOUtils.toByteArray(is)) {
+                        @Override
+                        public void release() {
+                            released.incrementAndGet();
+                        }
+                    };
+                    stored.add(content);
+                    return content;
+                };
+            }
+        };
+        final byte[] image = getImageArray();
+        try {
+            parse(mailParser, "/mails/TEST SISTEMI.eml", mm -> {
+                final Map<String, DataHandler> aMap = new LinkedHashMap<>();
+                for (int idx = 0; idx < 3; idx++) {
+                    final String aName = "a" + idx + ".jpg";
+                    aMap.put(aName, new DataHandler(new InputStreamDataSource(image, aName, "image/jpeg")));
+                }
+                mm.setAttachments(aMap);
+            }, null);
+            Assert.fail("expected an exception");
+        } catch (IOException e) {
+            Assert.assertEquals("disk full", e.getMessage());
+        }
+        Assert.assertEquals(2, stored.size());
+        Assert.assertEquals(2, released.get());
+    }
+
     private MailBean parse(final String name,
                            final Signature... signatures) throws Exception {
         return parse(name, (Consumer<MailMessage>) null, of(signatures));
@@ -284,6 +360,13 @@ public class MailParserImplTest {
     private MailBean parse(final String name,
                            final Consumer<MailMessage> mmHandler,
                            final MailRouteConfig config) throws Exception {
+        return parse(createParser(), name, mmHandler, config);
+    }
+
+    private MailBean parse(final MailParser mailParser,
+                           final String name,
+                           final Consumer<MailMessage> mmHandler,
+                           final MailRouteConfig config) throws Exception {
         try (InputStream is = this.getClass().getResourceAsStream(name)) {
             Assert.assertNotNull(is);
             final Session session = Session.getDefaultInstance(new Properties());
@@ -302,7 +385,6 @@ public class MailParserImplTest {
                    .thenReturn(mm);
             Mockito.when(exchange.getIn()).thenReturn(mm);
 
-            final MailParser mailParser = createParser();
             final MailBean bean = mailParser.parse(exchange);
             Assert.assertNotNull(bean);
             return bean;
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Optional;
 
 import javax.servlet.ServletException;
@@ -28,6 +29,7 @@ import com.atex.plugins.mailimporter.MailProcessorUtils.MetadataTagsHolder;
 import com.atex.plugins.baseline.ws.JettyWrapper;
 import com.atex.plugins.baseline.ws.JettyRule;
 import com.atex.plugins.mailimporter.ws.MetadataServiceServlet;
+import com.google.common.hash.HashCode;
 import com.polopoly.common.lang.ClassUtil;
 import com.polopoly.model.ModelDomain;
 
@@ -109,6 +111,143 @@ public class MailProcessorUtilsTest {
         }
     }
 
+    @Test
+    public void test_get_metadata_tags_from_attachment() throws Exception {
+        final JettyWrapper jw = jettyWrapperRule.getJettyWrapper();
+        final String servletPath = "/metadata/image/extract";
+        final KeepingMetadataServiceServlet servlet = new KeepingMetadataServiceServlet();
+        jw.addServlet(servlet, servletPath);
+        System.setProperty("image.metadata.service.url", jw.getURL(servletPath));
+
+        try (final InputStream is = ClassUtil.getResourceAsStream(this.getClass(), "/image.jpg")) {
+            final byte[] imageData = IOUtils.toByteArray(is);
+            final AttachmentContent content = new SpoolingAttachmentStore(0, null).store("image.jpg", new ByteArrayInputStream(imageData));
+            try {
+                final MetadataTagsHolder metadataTags = mpu.getMetadataTags(content);
+                Assert.assertNotNull(metadataTags);
+
+                Assert.assertNotNull(metadataTags.customTags);
+                Assert.assertNotNull(metadataTags.tags);
+
+                Assert.assertEquals(600, metadataTags.tags.getImageWidth().intValue());
+                Assert.assertEquals(450, metadataTags.tags.getImageHeight().intValue());
+
+                Assert.assertArrayEquals(imageData, servlet.getPostedBytes());
+            } finally {
+                content.release();
+            }
+        }
+    }
+
+    @Test
+    public void test_get_local_metadata_tags() throws Exception {
+        final JettyWrapper jw = jettyWrapperRule.getJettyWrapper();
+        final String servletPath = "/metadata/image/extract";
+        final KeepingMetadataServiceServlet servlet = new KeepingMetadataServiceServlet();
+        jw.addServlet(servlet, servletPath);
+        System.setProperty("image.metadata.service.url", jw.getURL(servletPath));
+        System.setProperty("image.metadata.mode", "local");
+
+        try (final InputStream is = ClassUtil.getResourceAsStream(this.getClass(), "/image.jpg")) {
+            final byte[] imageData = IOUtils.toByteArray(is);
+            final MetadataTagsHolder metadataTags = mpu.getMetadataTags(new MemoryAttachmentContent(imageData));
+            Assert.assertNotNull(metadataTags);
+
+            Assert.assertNotNull(metadataTags.customTags);
+            Assert.assertNotNull(metadataTags.tags);
+
+            Assert.assertEquals(600, metadataTags.tags.getImageWidth().intValue());
+            Assert.assertEquals(450, metadataTags.tags.getImageHeight().intValue());
+            Assert.assertNotNull(metadataTags.tags.getTags());
+            Assert.assertTrue(metadataTags.tags.getTags().containsKey("Exif IFD0"));
+
+            // the service has not been called.
+            Assert.assertNull(servlet.getPostedBytes());
+        }
+    }
+
+    @Test
+    public void test_get_metadata_custom_tags_keys() throws Exception {
+        final JettyWrapper jw = jettyWrapperRule.getJettyWrapper();
+        final String servletPath = "/metadata/image/extract";
+        jw.addServlet(new KeepingMetadataServiceServlet(), servletPath);
+        System.setProperty("image.metadata.service.url", jw.getURL(servletPath));
+
+        try (final InputStream is = ClassUtil.getResourceAsStream(this.getClass(), "/image.jpg")) {
+            final byte[] imageData = IOUtils.toByteArray(is);
+
+            // only the iptc block has been decoded.
+            final MetadataTagsHolder iptcTags = mpu.getMetadataTags(new MemoryAttachmentContent(imageData));
+            Assert.assertEquals(Collections.singleton("IPTC"), iptcTags.customTags.getTags().keySet());
+            Assert.assertEquals("Atex", iptcTags.customTags.getByline());
+
+            // a key for each metadata-extractor directory, a new instance so the cache is not used.
+            System.setProperty("image.metadata.iptc.fastPath", "false");
+            final MetadataTagsHolder fullTags = new MailProcessorUtils(contentManager, modelDomain)
+                    .getMetadataTags(new MemoryAttachmentContent(imageData));
+            Assert.assertTrue(fullTags.customTags.getTags().containsKey("IPTC"));
+            Assert.assertTrue(fullTags.customTags.getTags().containsKey("Exif IFD0"));
+            Assert.assertEquals("Atex", fullTags.customTags.getByline());
+        }
+    }
+
+    @Test
+    public void test_get_metadata_tags_sending_only_metadata() throws Exception {
+        final JettyWrapper jw = jettyWrapperRule.getJettyWrapper();
+        // the client settings are read once for each url.
+        final String servletPath = "/metadata/image/payload";
+        final KeepingMetadataServiceServlet servlet = new KeepingMetadataServiceServlet();
+        jw.addServlet(servlet, servletPath);
+        System.setProperty("image.metadata.service.url", jw.getURL(servletPath));
+        System.setProperty("image.metadata.service.payload", "metadata");
+
+        try (final InputStream is = ClassUtil.getResourceAsStream(this.getClass(), "/image.jpg")) {
+            final byte[] imageData = IOUtils.toByteArray(is);
+            final MetadataTagsHolder metadataTags = mpu.getMetadataTags(new MemoryAttachmentContent(imageData));
+            Assert.assertNotNull(metadataTags);
+            Assert.assertNotNull(metadataTags.tags);
+
+            Assert.assertEquals(600, metadataTags.tags.getImageWidth().intValue());
+            Assert.assertEquals(450, metadataTags.tags.getImageHeight().intValue());
+
+            Assert.assertNotNull(servlet.getPostedBytes());
+            Assert.assertTrue(servlet.getPostedBytes().length < imageData.length / 2);
+        }
+    }
+
+    @Test
+    public void test_get_cached_metadata_tags() throws Exception {
+        final JettyWrapper jw = jettyWrapperRule.getJettyWrapper();
+        final String servletPath = "/metadata/image/extract";
+        final KeepingMetadataServiceServlet servlet = new KeepingMetadataServiceServlet();
+        jw.addServlet(servlet, servletPath);
+        System.setProperty("image.metadata.service.url", jw.getURL(servletPath));
+
+        try (final InputStream is = ClassUtil.getResourceAsStream(this.getClass(), "/image.jpg")) {
+            final byte[] imageData = IOUtils.toByteArray(is);
+            final MetadataTagsHolder first = mpu.getMetadataTags(new MemoryAttachmentContent(imageData));
+            final MetadataTagsHolder second = mpu.getMetadataTags(new MemoryAttachmentContent(imageData.clone()));
+            Assert.assertNotNull(second.tags);
+            Assert.assertNotNull(second.customTags);
+            Assert.assertSame(first.tags, second.tags);
+            Assert.assertSame(first.customTags, second.customTags);
+
+            Assert.assertEquals(1, servlet.getCalls());
+            Assert.assertEquals(1, mpu.getMetadataTagsCache().stats().hitCount());
+            Assert.assertEquals(1, mpu.getMetadataTagsCache().stats().missCount());
+
+            // the local metadata are not the same.
+            final MetadataTagsHolder local = mpu.getMetadataTags(new MemoryAttachmentContent(imageData), "image/jpeg", true);
+            Assert.assertNotSame(first.tags, local.tags);
+
+            // the hash already computed by the caller is used as the cache key.
+            final HashCode hash = ImageHashIndex.hash(new ByteArrayInputStream(imageData));
+            final MetadataTagsHolder third = mpu.getMetadataTags(new MemoryAttachmentContent(imageData), "image/jpeg", false, hash);
+            Assert.assertSame(first.tags, third.tags);
+            Assert.assertEquals(1, servlet.getCalls());
+        }
+    }
+
     public static class KeepingMetadataServiceServlet extends MetadataServiceServlet {
 
         private byte[] postedBytes;
@@ -0,0 +1,177 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.mail.MailMessage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+import com.atex.plugins.mailimporter.MailImporterConfig.Triage;
+import com.atex.plugins.mailimporter.MailTriageProcessor.MailDeferredException;
+
+/**
+ * MailTriageProcessorTest
+ *
+ * @author mnova
+ */
+public class MailTriageProcessorTest {
+
+    private static final String TEXT_MAIL = "From: John <john@news.example.com>\r\n" +
+            "To: desk@example.org\r\n" +
+            "Subject: text\r\n" +
+            "Content-Type: text/plain; charset=us-ascii\r\n" +
+            "\r\n" +
+            "Some text for the article.\r\n";
+
+    private static final String TINY_IMAGE_MAIL = "From: pixel@tracker.example.net\r\n" +
+            "To: desk@example.org\r\n" +
+            "Subject: images\r\n" +
+            "Content-Type: multipart/mixed; boundary=\"b1\"\r\n" +
+            "\r\n" +
+            "--b1\r\n" +
+            "Content-Type: image/gif\r\n" +
+            "Content-Disposition: attachment; filename=\"pixel.gif\"\r\n" +
+            "Content-Transfer-Encoding: base64\r\n" +
+            "\r\n" +
+            "R0lGODlhAQABAAAAACw=\r\n" +
+            "--b1--\r\n";
+
+    private static final String TINY_IMAGE_AND_TEXT_MAIL = "From: john@example.com\r\n" +
+            "To: desk@example.org\r\n" +
+            "Subject: images\r\n" +
+            "Content-Type: multipart/mixed; boundary=\"b1\"\r\n" +
+            "\r\n" +
+            "--b1\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "\r\n" +
+            "Some text for the article.\r\n" +
+            "--b1\r\n" +
+            "Content-Type: image/gif\r\n" +
+            "Content-Disposition: attachment; filename=\"logo.gif\"\r\n" +
+            "Content-Transfer-Encoding: base64\r\n" +
+            "\r\n" +
+            "R0lGODlhAQABAAAAACw=\r\n" +
+            "--b1--\r\n";
+
+    private final MailTriageProcessor processor = new MailTriageProcessor();
+
+    @Test
+    public void test_disabled_by_default() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        Assert.assertFalse(config.getTriage().isEnabled());
+        Assert.assertNull(processor.getRejectReason(createMessage(TINY_IMAGE_MAIL), config));
+    }
+
+    @Test
+    public void test_senders() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.getTriage().setAllowedSenders(Collections.singletonList("example.com"));
+        Assert.assertNull(processor.getRejectReason(createMessage(TEXT_MAIL), config));
+        Assert.assertNotNull(processor.getRejectReason(createMessage(TINY_IMAGE_MAIL), config));
+
+        config.getTriage().setDeniedSenders(Collections.singletonList("John@News.Example.com"));
+        Assert.assertNotNull(processor.getRejectReason(createMessage(TEXT_MAIL), config));
+    }
+
+    @Test
+    public void test_matches_sender() {
+        Assert.assertTrue(processor.matchesSender("a@example.com", Arrays.asList("x@example.org", "@example.com")));
+        Assert.assertTrue(processor.matchesSender("a@sub.example.com", Collections.singletonList("example.com")));
+        Assert.assertFalse(processor.matchesSender("a@badexample.com", Collections.singletonList("example.com")));
+        Assert.assertFalse(processor.matchesSender("b@example.com", Collections.singletonList("a@example.com")));
+        Assert.assertFalse(processor.matchesSender(null, Collections.singletonList("example.com")));
+    }
+
+    @Test
+    public void test_max_size() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.getTriage().setMaxSize(10);
+        Assert.assertNotNull(processor.getRejectReason(createMessage(TEXT_MAIL), config));
+        config.getTriage().setMaxSize(1000);
+        Assert.assertNull(processor.getRejectReason(createMessage(TEXT_MAIL), config));
+    }
+
+    @Test
+    public void test_tiny_images_only() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.setImageMinSize(1000);
+        config.getTriage().setSkipTinyImagesOnly(true);
+        Assert.assertNotNull(processor.getRejectReason(createMessage(TINY_IMAGE_MAIL), config));
+        Assert.assertNull(processor.getRejectReason(createMessage(TINY_IMAGE_AND_TEXT_MAIL), config));
+        Assert.assertNull(processor.getRejectReason(createMessage(TEXT_MAIL), config));
+
+        config.setImageMinSize(10);
+        Assert.assertNull(processor.getRejectReason(createMessage(TINY_IMAGE_MAIL), config));
+    }
+
+    @Test
+    public void test_skip() throws Exception {
+        final Exchange exchange = createExchange(createConfig(Triage.ACTION_SKIP), createMessage(TEXT_MAIL));
+        processor.process(exchange);
+        Mockito.verify(exchange).setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+    }
+
+    @Test
+    public void test_quarantine() throws Exception {
+        final MailRouteConfig config = createConfig(Triage.ACTION_QUARANTINE);
+        config.getTriage().setQuarantineFolder("Quarantine");
+        final Exchange exchange = createExchange(config, createMessage(TEXT_MAIL));
+        processor.process(exchange);
+        Mockito.verify(exchange).setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+        Mockito.verify(exchange.getIn()).setHeader(MailTriageProcessor.COPY_TO_HEADER, "Quarantine");
+    }
+
+    @Test(expected = MailDeferredException.class)
+    public void test_defer() throws Exception {
+        processor.process(createExchange(createConfig(Triage.ACTION_DEFER), createMessage(TEXT_MAIL)));
+    }
+
+    @Test(expected = MailDeferredException.class)
+    public void test_quarantine_without_folder() throws Exception {
+        processor.process(createExchange(createConfig(Triage.ACTION_QUARANTINE), createMessage(TEXT_MAIL)));
+    }
+
+    @Test
+    public void test_accepted() throws Exception {
+        final MailRouteConfig config = createConfig(Triage.ACTION_SKIP);
+        config.getTriage().setMaxSize(-1);
+        config.getTriage().setDeniedSenders(Collections.singletonList("example.net"));
+        final Exchange exchange = createExchange(config, createMessage(TEXT_MAIL));
+        processor.process(exchange);
+        Mockito.verify(exchange, Mockito.never()).setProperty(Mockito.anyString(), Mockito.any());
+    }
+
+    private MailRouteConfig createConfig(final String action) {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.getTriage().setMaxSize(10);
+        config.getTriage().setAction(action);
+        return config;
+    }
+
+    private Exchange createExchange(final MailRouteConfig config,
+                                    final MimeMessage message) {
+        final Exchange exchange = Mockito.mock(Exchange.class);
+        final MailMessage in = Mockito.mock(MailMessage.class);
+        Mockito.when(exchange.getIn()).thenReturn(in);
+        Mockito.when(exchange.getIn(MailMessage.class)).thenReturn(in);
+        Mockito.when(in.getHeader("X-ROUTE-CONFIG", MailRouteConfig.class)).thenReturn(config);
+        Mockito.when(in.getOriginalMessage()).thenReturn(message);
+        return exchange;
+    }
+
+    private MimeMessage createMessage(final String mail) throws Exception {
+        final Session session = Session.getInstance(new Properties());
+        return new MimeMessage(session, new ByteArrayInputStream(mail.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+}
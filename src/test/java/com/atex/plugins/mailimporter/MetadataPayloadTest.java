@@ -0,0 +1,103 @@
+package com.atex.plugins.mailimporter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Optional;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * MetadataPayloadTest
+ *
+ * @author mnova
+ */
+public class MetadataPayloadTest {
+
+    @Test
+    public void test_jpeg() throws Exception {
+        final byte[] data = readImage();
+        final Optional<byte[]> payload = MetadataPayload.of(ByteBuffer.wrap(data), "image/jpeg");
+        Assert.assertTrue(payload.isPresent());
+
+        final byte[] metadata = payload.get();
+        Assert.assertTrue(metadata.length < data.length / 2);
+        Assert.assertEquals((byte) 0xff, metadata[0]);
+        Assert.assertEquals((byte) 0xd8, metadata[1]);
+        Assert.assertEquals((byte) 0xff, metadata[metadata.length - 2]);
+        Assert.assertEquals((byte) 0xd9, metadata[metadata.length - 1]);
+        Assert.assertTrue(contains(metadata, "Exif\u0000\u0000"));
+        Assert.assertTrue(contains(metadata, "Photoshop 3.0"));
+
+        assertSize(metadata, 600, 450);
+    }
+
+    @Test
+    public void test_png() throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB), "png", baos);
+        final byte[] data = baos.toByteArray();
+
+        final Optional<byte[]> payload = MetadataPayload.of(ByteBuffer.wrap(data), "image/png");
+        Assert.assertTrue(payload.isPresent());
+        final byte[] metadata = payload.get();
+        Assert.assertTrue(metadata.length < data.length);
+        Assert.assertFalse(contains(metadata, "IDAT"));
+        Assert.assertTrue(contains(metadata, "IEND"));
+
+        assertSize(metadata, 100, 50);
+    }
+
+    @Test
+    public void test_unsupported() throws Exception {
+        Assert.assertFalse(MetadataPayload.of(ByteBuffer.wrap(readImage()), "image/tiff").isPresent());
+        Assert.assertFalse(MetadataPayload.of(ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) 0xd8, 0, 0 }), "image/jpeg").isPresent());
+        Assert.assertFalse(MetadataPayload.of(ByteBuffer.wrap("hello world".getBytes(StandardCharsets.US_ASCII)), "image/png").isPresent());
+
+        // a truncated image.
+        final byte[] data = readImage();
+        final byte[] truncated = new byte[100];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        Assert.assertFalse(MetadataPayload.of(ByteBuffer.wrap(truncated), "image/jpeg").isPresent());
+    }
+
+    private void assertSize(final byte[] image,
+                            final int width,
+                            final int height) throws Exception {
+        try (final ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            Assert.assertTrue(readers.hasNext());
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis);
+                Assert.assertEquals(width, reader.getWidth(0));
+                Assert.assertEquals(height, reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private boolean contains(final byte[] data,
+                             final String value) {
+        return new String(data, StandardCharsets.ISO_8859_1).contains(value);
+    }
+
+    private byte[] readImage() throws Exception {
+        try (final InputStream is = this.getClass().getResourceAsStream("/image.jpg")) {
+            Assert.assertNotNull(is);
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+}
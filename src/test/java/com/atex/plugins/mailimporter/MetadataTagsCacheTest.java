@@ -0,0 +1,66 @@
+package com.atex.plugins.mailimporter;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atex.plugins.mailimporter.MailProcessorUtils.MetadataTagsHolder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * MetadataTagsCacheTest
+ *
+ * @author mnova
+ */
+public class MetadataTagsCacheTest {
+
+    @Test
+    public void test_get_and_put() {
+        final MetadataTagsCache cache = new MetadataTagsCache(10, 60);
+        Assert.assertTrue(cache.isEnabled());
+
+        final HashCode hash = hash("image1");
+        Assert.assertNull(cache.get(hash, false));
+
+        final MetadataTagsHolder holder = new MetadataTagsHolder();
+        holder.customTags = new CustomMetadataTags();
+        cache.put(hash, false, holder);
+
+        final MetadataTagsHolder cached = cache.get(hash, false);
+        Assert.assertNotNull(cached);
+        Assert.assertNotSame(holder, cached);
+        Assert.assertSame(holder.customTags, cached.customTags);
+
+        Assert.assertNull(cache.get(hash, true));
+        Assert.assertNull(cache.get(hash("image2"), false));
+
+        Assert.assertEquals(1, cache.stats().hitCount());
+        Assert.assertEquals(3, cache.stats().missCount());
+    }
+
+    @Test
+    public void test_bounded() {
+        final MetadataTagsCache cache = new MetadataTagsCache(2, 60);
+        for (int idx = 0; idx < 10; idx++) {
+            cache.put(hash("image" + idx), false, new MetadataTagsHolder());
+        }
+        Assert.assertTrue(cache.size() <= 2);
+        Assert.assertNotNull(cache.get(hash("image9"), false));
+    }
+
+    @Test
+    public void test_disabled() {
+        final MetadataTagsCache cache = new MetadataTagsCache(0, 60);
+        Assert.assertFalse(cache.isEnabled());
+        cache.put(hash("image1"), false, new MetadataTagsHolder());
+        Assert.assertNull(cache.get(hash("image1"), false));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private HashCode hash(final String value) {
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.component.mail.MailMessage;
+import org.apache.camel.spi.HeadersMapFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+import com.atex.plugins.mailimporter.MailImporterConfig.Signature;
+
+/**
+ * MimeTreeMailParserTest
+ *
+ * @author mnova
+ */
+public class MimeTreeMailParserTest {
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    Exchange exchange;
+
+    @Mock
+    CamelContext context;
+
+    @Before
+    public void before() {
+        final HeadersMapFactory f = Mockito.mock(HeadersMapFactory.class);
+        Mockito.when(context.getHeadersMapFactory())
+               .thenReturn(f);
+        Mockito.when(f.newMap())
+               .thenReturn(new HashMap<>());
+        Mockito.when(exchange.getContext())
+               .thenReturn(context);
+    }
+
+    @Test
+    public void test_same_text_as_default_parser() throws Exception {
+        final String[] names = new String[] {
+                "/mails/TEST SISTEMI.eml",
+                "/mails/TEST SISTEMI 2.eml",
+                "/mails/signed_email.eml",
+                "/mails/mail-with-attachment.eml",
+                "/mails/mail-with-only-html.eml",
+                "/mails/mail-with-html.eml",
+                "/mails/mail-html-with-signature.eml"
+        };
+        for (final String name : names) {
+            final MailBean expected = parse(new MailParserImpl(), name, null);
+            final MailBean bean = parse(new MimeTreeMailParser(), name, null);
+            Assert.assertEquals(name, expected.getSubject(), bean.getSubject());
+            Assert.assertEquals(name, expected.getFrom(), bean.getFrom());
+            Assert.assertEquals(name, expected.getTo(), bean.getTo());
+            Assert.assertEquals(name, expected.getLead(), bean.getLead());
+            Assert.assertEquals(name, expected.getBody(), bean.getBody());
+        }
+    }
+
+    @Test
+    public void test_inline_images() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.getSignatures().add(Signature.of("This communication may contain confidential", 7));
+        final MailBean bean = parse(new MimeTreeMailParser(), "/mails/signed_email.eml", config);
+        Assert.assertEquals("This is the lead", bean.getLead());
+        Assert.assertEquals("<p>This is the body line 1</p>\n" +
+                "<p></p>\n" +
+                "<p>This is the body line 2</p>\n" +
+                "<p></p>\n" +
+                "<p>This is the body line 3</p>", bean.getBody());
+        final Map<String, MailBeanAttachment> am = bean.getAttachments();
+        Assert.assertEquals(4, am.size());
+        for (int idx = 1; idx <= 4; idx++) {
+            final MailBeanAttachment mba = am.get("image00" + idx + ".png");
+            Assert.assertNotNull(mba);
+            Assert.assertTrue(mba.getContentType().startsWith("image/png"));
+            Assert.assertTrue(mba.getSize() > 0);
+            Assert.assertEquals(mba.getSize(), mba.getContent().length);
+        }
+    }
+
+    @Test
+    public void test_inline_images_blocked_by_size() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.setImageMinSize(Long.MAX_VALUE);
+        final MailBean bean = parse(new MimeTreeMailParser(), "/mails/signed_email.eml", config);
+        Assert.assertEquals(0, bean.getAttachments().size());
+    }
+
+    @Test
+    public void test_inline_images_blocked_by_pixels() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.setImageMinWidth(300);
+        config.setImageMinHeight(100);
+        final MailBean bean = parse(new MimeTreeMailParser(), "/mails/signed_email.eml", config);
+        // only image001.png (1024x439) is kept, the others are 200x160.
+        Assert.assertEquals(1, bean.getAttachments().size());
+        final MailBeanAttachment mba = bean.getAttachments().get("image001.png");
+        Assert.assertNotNull(mba);
+        Assert.assertEquals(mba.getSize(), mba.getContent().length);
+        Assert.assertEquals(0x89, mba.getContent()[0] & 0xff);
+
+        final MailBean defaultBean = parse(new MailParserImpl(), "/mails/signed_email.eml", config);
+        Assert.assertEquals(bean.getAttachments().keySet(), defaultBean.getAttachments().keySet());
+    }
+
+    @Test
+    public void test_document_attachment() throws Exception {
+        final MailBean bean = parse(new MimeTreeMailParser(), "/mails/mail-with-attachment.eml", null);
+        Assert.assertEquals("PROVA SISTEMI A - SONIA4", bean.getSubject());
+        final MailBeanAttachment mba = bean.getAttachments().get("TESTO NUOVO4.docx");
+        Assert.assertNotNull(mba);
+        Assert.assertTrue(mba.getContentType().startsWith("application/vnd.openxmlformats-officedocument"));
+        Assert.assertTrue(mba.getSize() > 0);
+    }
+
+    @Test
+    public void test_selective_fetch() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.setSelectiveFetch(true);
+        config.setAcceptedImageExtensions(Arrays.asList("jpg", "png"));
+        final MailBean expected = parse(new MimeTreeMailParser(), "/mails/signed_email.eml", null);
+        final MailBean bean = parse(new MimeTreeMailParser(), "/mails/signed_email.eml", config);
+        Assert.assertEquals(expected.getBody(), bean.getBody());
+        Assert.assertEquals(expected.getAttachments().keySet(), bean.getAttachments().keySet());
+        for (final String name : expected.getAttachments().keySet()) {
+            Assert.assertArrayEquals(
+                    expected.getAttachments().get(name).getContent(),
+                    bean.getAttachments().get(name).getContent()
+            );
+        }
+
+        final MailBean doc = parse(new MimeTreeMailParser(), "/mails/mail-with-attachment.eml", config);
+        Assert.assertEquals(0, doc.getAttachments().size());
+    }
+
+    @Test
+    public void test_rejected_attachments() throws Exception {
+        final MailRouteConfig config = new MailRouteConfig();
+        config.setAcceptedImageExtensions(Arrays.asList("jpg", "png"));
+        // without the filter all the attachments are kept.
+        config.setFilterAttachments(false);
+        Assert.assertNotNull(parse(new MimeTreeMailParser(), "/mails/mail-with-attachment.eml", config)
+                .getAttachments().get("TESTO NUOVO4.docx"));
+        Assert.assertNotNull(parse(new MailParserImpl(), "/mails/mail-with-attachment.eml", config)
+                .getAttachments().get("TESTO NUOVO4.docx"));
+
+        config.setFilterAttachments(true);
+        final MailBean doc = parse(new MimeTreeMailParser(), "/mails/mail-with-attachment.eml", config);
+        Assert.assertEquals(0, doc.getAttachments().size());
+        Assert.assertEquals(1, doc.getRejectedAttachments().size());
+        Assert.assertTrue(doc.getRejectedAttachments().containsKey("TESTO NUOVO4.docx"));
+        Assert.assertTrue(doc.getRejectedAttachments().get("TESTO NUOVO4.docx") > 0);
+
+        final MailBean defaultDoc = parse(new MailParserImpl(), "/mails/mail-with-attachment.eml", config);
+        Assert.assertEquals(0, defaultDoc.getAttachments().size());
+        Assert.assertEquals(doc.getRejectedAttachments().keySet(), defaultDoc.getRejectedAttachments().keySet());
+
+        final MailBean images = parse(new MimeTreeMailParser(), "/mails/signed_email.eml", config);
+        Assert.assertEquals(4, images.getAttachments().size());
+        Assert.assertEquals(0, images.getRejectedAttachments().size());
+
+        // the documents used by a custom publisher can be accepted too.
+        config.setAcceptedAttachmentExtensions(Arrays.asList("pdf", "docx"));
+        Assert.assertNotNull(parse(new MimeTreeMailParser(), "/mails/mail-with-attachment.eml", config)
+                .getAttachments().get("TESTO NUOVO4.docx"));
+        Assert.assertNotNull(parse(new MailParserImpl(), "/mails/mail-with-attachment.eml", config)
+                .getAttachments().get("TESTO NUOVO4.docx"));
+    }
+
+    @Test
+    public void test_selective_fetch_size() throws Exception {
+        final MimeTreeMailParser parser = new MimeTreeMailParser();
+        final List<String> extensions = Arrays.asList("jpg", "png");
+        Assert.assertSame(AttachmentFilter.ACCEPT_ALL, parser.getAttachmentFilter(null));
+
+        final MailRouteConfig config = new MailRouteConfig();
+        config.setAcceptedImageExtensions(extensions);
+        config.setImageMinSize(100);
+        config.setFilterAttachments(false);
+        Assert.assertSame(AttachmentFilter.ACCEPT_ALL, parser.getAttachmentFilter(config));
+        // selectiveFetch always enables the filter.
+        config.setSelectiveFetch(true);
+        final AttachmentFilter filter = parser.getAttachmentFilter(config);
+        Assert.assertFalse(filter.accept("a.pdf", "application/pdf", 1000));
+        Assert.assertTrue(filter.accept("A.JPG", "image/jpeg", 1000));
+        Assert.assertTrue(filter.accept("a.jpg", "image/jpeg", -1));
+        Assert.assertFalse(filter.accept("a.jpg", "image/jpeg", 100));
+        Assert.assertTrue(filter.accept("a.jpg", "application/octet-stream", 100));
+    }
+
+    private MailBean parse(final MailParser mailParser,
+                           final String name,
+                           final MailRouteConfig config) throws Exception {
+        try (InputStream is = this.getClass().getResourceAsStream(name)) {
+            Assert.assertNotNull(is);
+            final Session session = Session.getDefaultInstance(new Properties());
+            final MimeMessage msg = new MimeMessage(session, is);
+
+            final MailMessage mm = new MailMessage(msg);
+            mm.setCamelContext(context);
+            if (config != null) {
+                mm.setHeader("X-ROUTE-CONFIG", config);
+            }
+            Mockito.when(exchange.getIn(Mockito.eq(MailMessage.class)))
+                   .thenReturn(mm);
+            Mockito.when(exchange.getIn()).thenReturn(mm);
+
+            final MailBean bean = mailParser.parse(exchange);
+            Assert.assertNotNull(bean);
+            return bean;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * MimeTypeUtilsTest
+ *
+ * @author mnova
+ */
+public class MimeTypeUtilsTest {
+
+    @Test
+    public void test_signatures() {
+        assertMimeType("image/jpeg", bytes(0xff, 0xd8, 0xff, 0xe0, 0, 0x10, 'J', 'F', 'I', 'F'));
+        assertMimeType("image/png", bytes(0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a, 0, 0, 0, 0x0d));
+        assertMimeType("image/gif", "GIF89a....".getBytes(StandardCharsets.US_ASCII));
+        assertMimeType("image/gif", "GIF87a....".getBytes(StandardCharsets.US_ASCII));
+        assertMimeType("image/webp", "RIFF\u0000\u0001\u0000\u0000WEBPVP8 ".getBytes(StandardCharsets.US_ASCII));
+        assertMimeType("image/tiff", bytes('I', 'I', '*', 0, 8, 0, 0, 0));
+        assertMimeType("image/tiff", bytes('M', 'M', 0, '*', 0, 0, 0, 8));
+        assertMimeType("image/bmp", "BM6\u0000\u0000\u0000".getBytes(StandardCharsets.US_ASCII));
+        assertMimeType("image/heic", "\u0000\u0000\u0000\u0018ftypheic\u0000\u0000\u0000\u0000".getBytes(StandardCharsets.US_ASCII));
+        assertMimeType("image/heif", "\u0000\u0000\u0000\u0018ftypmif1\u0000\u0000\u0000\u0000".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void test_unknown() {
+        Assert.assertNull(MimeTypeUtils.sniff(ByteBuffer.wrap("RIFF\u0000\u0001\u0000\u0000WAVEfmt ".getBytes(StandardCharsets.US_ASCII))));
+        Assert.assertNull(MimeTypeUtils.sniff(ByteBuffer.wrap(bytes(0xff, 0xd8))));
+        Assert.assertNull(MimeTypeUtils.sniff(ByteBuffer.allocate(0)));
+        Assert.assertEquals(Optional.empty(), MimeTypeUtils.getMimeType(new ByteArrayInputStream("hello world".getBytes(StandardCharsets.US_ASCII))));
+        Assert.assertEquals(Optional.empty(), MimeTypeUtils.getMimeType(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void test_stream_is_reset() throws Exception {
+        final byte[] data = readImage();
+        try (final InputStream is = new ByteArrayInputStream(data)) {
+            Assert.assertEquals(Optional.of("image/jpeg"), MimeTypeUtils.getMimeType(is));
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void test_stream_without_mark() throws Exception {
+        final byte[] data = readImage();
+        try (final InputStream is = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        }) {
+            Assert.assertEquals(Optional.of("image/jpeg"), MimeTypeUtils.getMimeType(is));
+        }
+    }
+
+    @Test
+    public void test_buffer() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(readImage());
+        Assert.assertEquals(Optional.of("image/jpeg"), MimeTypeUtils.getMimeType(buffer));
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    private void assertMimeType(final String expected,
+                                final byte[] data) {
+        Assert.assertEquals(expected, MimeTypeUtils.sniff(ByteBuffer.wrap(data)));
+        Assert.assertEquals(Optional.of(expected), MimeTypeUtils.getMimeType(new ByteArrayInputStream(data)));
+    }
+
+    private byte[] bytes(final int... values) {
+        final byte[] data = new byte[values.length];
+        for (int idx = 0; idx < values.length; idx++) {
+            data[idx] = (byte) values[idx];
+        }
+        return data;
+    }
+
+    private byte[] readImage() throws Exception {
+        try (final InputStream is = this.getClass().getResourceAsStream("/image.jpg")) {
+            Assert.assertNotNull(is);
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.atex.plugins.mailimporter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * PlainBodyNormalizerTest
+ *
+ * @author mnova
+ */
+public class PlainBodyNormalizerTest {
+
+    @Test
+    public void test_lead_and_body() {
+        final PlainBodyNormalizer n = PlainBodyNormalizer.normalize(
+                "  Lead [cid:image001.png@01D73B43]\r\n\r\n Line 1\r\nLine 2\r\n\r\n");
+        Assert.assertEquals("Lead ", n.getLead());
+        Assert.assertEquals("<p>Line 1</p>\n<p>Line 2</p>", n.getBody());
+    }
+
+    @Test
+    public void test_escaping() {
+        final PlainBodyNormalizer n = PlainBodyNormalizer.normalize("Lead\n\n<p>Käse & \"Brot\"</p>\nĀ\n\n\nend");
+        Assert.assertEquals("Lead", n.getLead());
+        Assert.assertEquals("<p>&lt;p&gt;K&auml;se &amp; &quot;Brot&quot;&lt;/p&gt;</p>\n<p>&#256;</p>\n<p></p>\n<p></p>\n<p>end</p>", n.getBody());
+    }
+
+    @Test
+    public void test_cid_references() {
+        final PlainBodyNormalizer n = PlainBodyNormalizer.normalize("Lead\n\nBody [cid:x]\n\nwith [cid:image\n] image");
+        Assert.assertEquals("Lead", n.getLead());
+        Assert.assertEquals("<p>Body with [cid:image</p>\n<p>] image</p>", n.getBody());
+    }
+
+    @Test
+    public void test_empty() {
+        Assert.assertEquals("<p></p>", PlainBodyNormalizer.normalize(null).getBody());
+        Assert.assertEquals("<p></p>", PlainBodyNormalizer.normalize("").getBody());
+        Assert.assertEquals("<p>\n</p>", PlainBodyNormalizer.normalize("\n").getBody());
+        Assert.assertEquals("", PlainBodyNormalizer.normalize("\n").getLead());
+        Assert.assertEquals("<p></p>", PlainBodyNormalizer.normalize("lead\n\n").getBody());
+    }
+
+    @Test
+    public void test_line_endings_already_normalized() {
+        Assert.assertEquals("<p>a</p>\n<p>  b</p>", PlainBodyNormalizer.normalize("a\n  b", false).getBody());
+        Assert.assertEquals("<p>a</p>\n<p> b</p>", PlainBodyNormalizer.normalize("a\n  b").getBody());
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+import com.atex.plugins.mailimporter.MailImporterConfig.Signature;
+
+/**
+ * SignatureMatcherTest
+ *
+ * @author mnova
+ */
+public class SignatureMatcherTest {
+
+    private static final String TEXT = "line 1\n" +
+            "line 2\n" +
+            "\n" +
+            "Best regards\n" +
+            "John\n" +
+            "\n" +
+            "This communication may contain confidential\n" +
+            "information\n";
+
+    @Test
+    public void test_empty() {
+        Assert.assertTrue(SignatureMatcher.compile(null).isEmpty());
+        Assert.assertTrue(SignatureMatcher.compile(Collections.emptyList()).isEmpty());
+        Assert.assertEquals(TEXT, SignatureMatcher.EMPTY.apply(TEXT));
+        Assert.assertEquals("", SignatureMatcher.compile(Collections.singletonList(Signature.of("a", 0))).apply(""));
+    }
+
+    @Test
+    public void test_no_match() {
+        final SignatureMatcher matcher = SignatureMatcher.compile(Arrays.asList(
+                Signature.of("not found", 0),
+                Signature.of("^--$", 0)
+        ));
+        Assert.assertEquals(TEXT, matcher.apply(TEXT));
+    }
+
+    @Test
+    public void test_before_lines() {
+        Assert.assertEquals("line 1\nline 2\n\nBest regards\nJohn", apply(TEXT, Signature.of("This communication", -1)));
+        Assert.assertEquals("line 1\nline 2\n\nBest regards\nJohn", apply(TEXT, Signature.of("This communication", 0)));
+        Assert.assertEquals("line 1\nline 2\n\nBest regards", apply(TEXT, Signature.of("This communication", 1)));
+        Assert.assertEquals("line 1\nline 2", apply(TEXT, Signature.of("This communication", 2)));
+        Assert.assertEquals("line 1", apply(TEXT, Signature.of("This communication", 4)));
+        Assert.assertEquals("", apply(TEXT, Signature.of("This communication", 5)));
+        Assert.assertEquals("", apply(TEXT, Signature.of("This communication", 50)));
+        Assert.assertEquals("", apply(TEXT, Signature.of("line 1", 0)));
+    }
+
+    @Test
+    public void test_earliest_signature_wins() {
+        final SignatureMatcher matcher = SignatureMatcher.compile(Arrays.asList(
+                Signature.of("This communication", 0),
+                Signature.of("^Best regards$", 0)
+        ));
+        Assert.assertEquals("line 1\nline 2", matcher.apply(TEXT));
+    }
+
+    @Test
+    public void test_same_position_first_signature_wins() {
+        final SignatureMatcher matcher = SignatureMatcher.compile(Arrays.asList(
+                Signature.of("Best", 1),
+                Signature.of("Best regards", 0)
+        ));
+        Assert.assertEquals("line 1", matcher.apply(TEXT));
+    }
+
+    @Test
+    public void test_signatures_with_groups() {
+        final SignatureMatcher matcher = SignatureMatcher.compile(Arrays.asList(
+                Signature.of("(This) (communication)", 0),
+                Signature.of("(J)(o)(h)n", 1)
+        ));
+        Assert.assertEquals("line 1\nline 2", matcher.apply(TEXT));
+    }
+
+    @Test
+    public void test_signatures_with_back_references() {
+        final SignatureMatcher matcher = SignatureMatcher.compile(Arrays.asList(
+                Signature.of("confidential", 0),
+                Signature.of("(line) \\d\\n\\1", 0)
+        ));
+        Assert.assertEquals("", matcher.apply(TEXT));
+    }
+
+    @Test
+    public void test_signatures_with_inline_flags() {
+        final SignatureMatcher matcher = SignatureMatcher.compile(Arrays.asList(
+                Signature.of("(?i)JOHN", 0),
+                Signature.of("This", 0)
+        ));
+        Assert.assertEquals("line 1\nline 2\n\nBest regards", matcher.apply(TEXT));
+    }
+
+    @Test
+    public void test_route_config_recompile() {
+        final MailRouteConfig config = new MailRouteConfig();
+        Assert.assertTrue(config.getSignatureMatcher().isEmpty());
+
+        config.getSignatures().add(Signature.of("This communication", 0));
+        final SignatureMatcher matcher = config.getSignatureMatcher();
+        Assert.assertFalse(matcher.isEmpty());
+        Assert.assertSame(matcher, config.getSignatureMatcher());
+
+        config.getSignatures().get(0).setBefore(2);
+        Assert.assertNotSame(matcher, config.getSignatureMatcher());
+        Assert.assertEquals("line 1\nline 2", config.getSignatureMatcher().apply(TEXT));
+    }
+
+    private String apply(final String text,
+                         final Signature signature) {
+        return SignatureMatcher.compile(Collections.singletonList(signature)).apply(text);
+    }
+
+}
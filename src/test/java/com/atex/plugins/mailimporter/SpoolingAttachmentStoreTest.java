@@ -0,0 +1,105 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.atex.plugins.mailimporter.MailImporterConfig.MailRouteConfig;
+
+/**
+ * SpoolingAttachmentStoreTest
+ *
+ * @author mnova
+ */
+public class SpoolingAttachmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_small_content_stays_in_memory() throws Exception {
+        final File spool = folder.newFolder("spool");
+        final SpoolingAttachmentStore store = new SpoolingAttachmentStore(100, spool);
+        final byte[] data = randomBytes(100);
+
+        final AttachmentContent content = store.store("a.jpg", new ByteArrayInputStream(data));
+        Assert.assertTrue(content instanceof MemoryAttachmentContent);
+        Assert.assertEquals(100, content.getSize());
+        Assert.assertArrayEquals(data, content.toByteArray());
+        try (final InputStream is = content.openStream()) {
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+        Assert.assertEquals(0, spool.list().length);
+    }
+
+    @Test
+    public void test_big_content_is_spooled() throws Exception {
+        final File spool = folder.newFolder("spool");
+        final SpoolingAttachmentStore store = new SpoolingAttachmentStore(100, spool);
+        final byte[] data = randomBytes(100000);
+
+        final AttachmentContent content = store.store("a.jpg", new ByteArrayInputStream(data));
+        Assert.assertTrue(content instanceof FileAttachmentContent);
+        Assert.assertEquals(data.length, content.getSize());
+        Assert.assertEquals(1, spool.list().length);
+        try (final InputStream is = content.openStream()) {
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+        try (final ReadableByteChannel channel = content.openChannel()) {
+            final ByteBuffer buffer = ByteBuffer.allocate(data.length);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read all
+            }
+            Assert.assertArrayEquals(data, buffer.array());
+        }
+        Assert.assertArrayEquals(data, content.toByteArray());
+
+        content.release();
+        Assert.assertEquals(0, spool.list().length);
+    }
+
+    @Test
+    public void test_attachment_release() throws Exception {
+        final File spool = folder.newFolder("spool");
+        final SpoolingAttachmentStore store = new SpoolingAttachmentStore(0, spool);
+        final byte[] data = randomBytes(10);
+
+        final MailBeanAttachment attachment = new MailBeanAttachment();
+        attachment.setData(store.store("a.jpg", new ByteArrayInputStream(data)));
+        Assert.assertEquals(10, attachment.getSize());
+        Assert.assertArrayEquals(data, attachment.getContent());
+        Assert.assertEquals(1, spool.list().length);
+
+        attachment.release();
+        Assert.assertEquals(0, spool.list().length);
+    }
+
+    @Test
+    public void test_route_config() {
+        final MailRouteConfig config = new MailRouteConfig();
+        Assert.assertEquals(SpoolingAttachmentStore.DEFAULT_THRESHOLD, SpoolingAttachmentStore.of(config).getThreshold());
+        Assert.assertNull(SpoolingAttachmentStore.of(config).getSpoolFolder());
+        Assert.assertEquals(SpoolingAttachmentStore.DEFAULT_THRESHOLD, SpoolingAttachmentStore.of(null).getThreshold());
+
+        config.setAttachmentSpoolThreshold(2048);
+        config.setSpoolFolder("/tmp/spool");
+        Assert.assertEquals(2048, SpoolingAttachmentStore.of(config).getThreshold());
+        Assert.assertEquals(new File("/tmp/spool"), SpoolingAttachmentStore.of(config).getSpoolFolder());
+    }
+
+    private byte[] randomBytes(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+}
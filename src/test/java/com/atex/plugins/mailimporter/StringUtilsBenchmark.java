@@ -0,0 +1,63 @@
+package com.atex.plugins.mailimporter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple micro benchmark for {@link StringUtils#isHtmlBody(String)}, it is not
+ * run by the tests, run it from the IDE (or with <code>java -cp</code>) when you
+ * change the html detection.
+ *
+ * The time per call should grow linearly with the body size and should not depend
+ * on the number of html tags we look for.
+ *
+ * @author mnova
+ */
+public class StringUtilsBenchmark {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    public static void main(final String[] args) {
+        for (final int size : new int[] { 16 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024 }) {
+            final String plain = createPlainText(size);
+            final String html = "<p>" + plain;
+            final String htmlAtEnd = plain + "<br >";
+            report("plain", size, plain);
+            report("html at start", size, html);
+            report("html at end", size, htmlAtEnd);
+        }
+    }
+
+    private static void report(final String name,
+                               final int size,
+                               final String body) {
+        boolean result = false;
+        for (int idx = 0; idx < WARMUP; idx++) {
+            result ^= StringUtils.isHtmlBody(body);
+        }
+        final long start = System.nanoTime();
+        for (int idx = 0; idx < ITERATIONS; idx++) {
+            result ^= StringUtils.isHtmlBody(body);
+        }
+        final long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(
+                "%-14s %8d KB: %8.3f ms/call (%.3f ns/char) %s",
+                name,
+                size / 1024,
+                elapsed / (double) ITERATIONS / TimeUnit.MILLISECONDS.toNanos(1),
+                elapsed / (double) ITERATIONS / size,
+                result
+        ));
+    }
+
+    private static String createPlainText(final int size) {
+        final String line = "Lorem ipsum dolor sit amet, a < b and c > d, consectetur adipiscing elit.\n";
+        final StringBuilder sb = new StringBuilder(size + line.length());
+        while (sb.length() < size) {
+            sb.append(line);
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+}
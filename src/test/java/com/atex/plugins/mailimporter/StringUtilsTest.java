@@ -23,6 +23,20 @@ public class StringUtilsTest {
         Assert.assertEquals("aaa\nciao\n", paragraphsToLines("aaa<p>ciao</p>"));
         Assert.assertEquals("1\n2\n\n3\n", paragraphsToLines("<p>1</p><p>2</p><p></p><p>3</p>"));
         Assert.assertEquals("1\n2\n\n3\n", paragraphsToLines("<p>1</p>\n<p>2</p>\n<p></p><p>3</p>\n"));
+        Assert.assertEquals("a long line\nciao\n", paragraphsToLines("a long line<p>ciao</p>"));
+        Assert.assertEquals("ciao\n", paragraphsToLines("<p>ciao"));
+        Assert.assertEquals("1\nciao\n", paragraphsToLines("<p>1</p>\r\n<P>ciao"));
+        Assert.assertNull(paragraphsToLines(null));
+    }
+
+    @Test
+    public void test_paragraphCodec() {
+        Assert.assertTrue(ParagraphCodec.containsParagraph(new StringBuilder("a<P>b")));
+        Assert.assertFalse(ParagraphCodec.containsParagraph("a<pre>b"));
+        Assert.assertEquals("<p>1</p>\n<P>2</p>\n<p>3 </P> ", ParagraphCodec.linesToParagraphs(new StringBuilder("1\n<P>2\n3 </P> \n")));
+        Assert.assertEquals("<p>\n\n</p>", linesToParagraphs("\n\n"));
+        Assert.assertEquals("<p></p>", linesToParagraphs(""));
+        Assert.assertEquals("<p>null</p>", linesToParagraphs(null));
     }
 
     @Test
@@ -38,4 +52,22 @@ public class StringUtilsTest {
         Assert.assertEquals("<p>ciao</p>", linesToParagraphs(paragraphsToLines("<p>ciao</p>")));
         Assert.assertEquals("<p>1</p>\n<p>2</p>\n<p></p>\n<p>3</p>", linesToParagraphs(paragraphsToLines("<p>1</p><p>2</p><p></p><p>3</p>")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_isHtmlBody() {
+        Assert.assertFalse(StringUtils.isHtmlBody(null));
+        Assert.assertFalse(StringUtils.isHtmlBody(""));
+        Assert.assertFalse(StringUtils.isHtmlBody("a < b > c"));
+        Assert.assertFalse(StringUtils.isHtmlBody("<br/>"));
+        Assert.assertFalse(StringUtils.isHtmlBody("<p class=\"x\">"));
+        Assert.assertFalse(StringUtils.isHtmlBody("<pre>"));
+        Assert.assertFalse(StringUtils.isHtmlBody("<span>ciao</span>"));
+        Assert.assertFalse(StringUtils.isHtmlBody("</p>"));
+        Assert.assertTrue(StringUtils.isHtmlBody("<p>"));
+        Assert.assertTrue(StringUtils.isHtmlBody("ciao <P >"));
+        Assert.assertTrue(StringUtils.isHtmlBody("<<br\n>"));
+        Assert.assertTrue(StringUtils.isHtmlBody("text <Strong>bold</Strong>"));
+        Assert.assertTrue(StringUtils.isHtmlBody("<x><div\t\r\n>"));
+    }
+
+}
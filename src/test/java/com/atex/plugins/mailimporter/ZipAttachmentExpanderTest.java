@@ -0,0 +1,186 @@
+package com.atex.plugins.mailimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * ZipAttachmentExpanderTest
+ *
+ * @author mnova
+ */
+public class ZipAttachmentExpanderTest {
+
+    private final ZipAttachmentExpander expander = new ZipAttachmentExpander(
+            Arrays.asList("jpg", "png", "zip"), 10, 1024 * 1024);
+
+    @Test
+    public void test_can_expand() {
+        Assert.assertTrue(expander.canExpand("gallery.zip"));
+        Assert.assertTrue(expander.canExpand("GALLERY.ZIP"));
+        Assert.assertFalse(expander.canExpand("gallery.jar"));
+        Assert.assertFalse(expander.canExpand("image.jpg"));
+        Assert.assertFalse(expander.canExpand(null));
+    }
+
+    @Test
+    public void test_expand_images() throws Exception {
+        final byte[] zip = createZip(
+                "photos/", null,
+                "photos/one.jpg", bytes(100, 1),
+                "photos/two.PNG", bytes(200, 2),
+                "readme.txt", bytes(10, 3),
+                "nested.zip", bytes(10, 4),
+                "__MACOSX/photos/._one.jpg", bytes(10, 5)
+        );
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        final InputStream is = new ByteArrayInputStream(zip);
+        Assert.assertEquals(2, expander.expand("gallery.zip", is, (name, contentType, entry) -> {
+            entries.put(name + ":" + contentType, IOUtils.toByteArray(entry));
+        }));
+        Assert.assertEquals(2, entries.size());
+        Assert.assertArrayEquals(bytes(100, 1), entries.get("one.jpg:image/jpeg"));
+        Assert.assertArrayEquals(bytes(200, 2), entries.get("two.PNG:image/png"));
+    }
+
+    @Test
+    public void test_max_entries() throws Exception {
+        final Object[] values = new Object[30];
+        for (int idx = 0; idx < 15; idx++) {
+            values[idx * 2] = "image" + idx + ".jpg";
+            values[idx * 2 + 1] = bytes(10, idx);
+        }
+        final int[] count = new int[] { 0 };
+        Assert.assertEquals(10, expander.expand("gallery.zip", new ByteArrayInputStream(createZip(values)),
+                (name, contentType, entry) -> count[0]++));
+        Assert.assertEquals(10, count[0]);
+    }
+
+    @Test
+    public void test_max_total_size() throws Exception {
+        // highly compressible, the archive is small but it expands to 2MB.
+        final byte[] zip = createZip(
+                "small.jpg", bytes(1000, 0),
+                "bomb.jpg", new byte[2 * 1024 * 1024],
+                "last.jpg", bytes(1000, 0)
+        );
+        Assert.assertTrue(zip.length < 10 * 1024);
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        Assert.assertEquals(1, expander.expand("bomb.zip", new ByteArrayInputStream(zip),
+                (name, contentType, entry) -> entries.put(name, IOUtils.toByteArray(entry))));
+        Assert.assertEquals(1, entries.size());
+        Assert.assertNotNull(entries.get("small.jpg"));
+    }
+
+    @Test
+    public void test_skipped_entries_are_counted() throws Exception {
+        final byte[] zip = createZip(
+                "bomb.txt", new byte[2 * 1024 * 1024],
+                "last.jpg", bytes(1000, 0)
+        );
+        Assert.assertEquals(0, expander.expand("bomb.zip", new ByteArrayInputStream(zip),
+                (name, contentType, entry) -> Assert.fail("unexpected entry " + name)));
+    }
+
+    @Test
+    public void test_sniffed_content_type() throws Exception {
+        final ZipAttachmentExpander webpExpander = new ZipAttachmentExpander(
+                Arrays.asList("jpg", "webp", "zip"), 10, 1024 * 1024);
+        final byte[] webp = bytes(100, 1);
+        System.arraycopy("RIFF".getBytes(StandardCharsets.US_ASCII), 0, webp, 0, 4);
+        System.arraycopy("WEBP".getBytes(StandardCharsets.US_ASCII), 0, webp, 8, 4);
+        final byte[] png = bytes(100, 2);
+        System.arraycopy(new byte[] { (byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a }, 0, png, 0, 8);
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        Assert.assertEquals(3, webpExpander.expand("gallery.zip", new ByteArrayInputStream(createZip(
+                "one.webp", webp,
+                "two.jpg", png,
+                "three.jpg", bytes(100, 3)
+        )), (name, contentType, entry) -> entries.put(name + ":" + contentType, IOUtils.toByteArray(entry))));
+        // the sniffed bytes are given to the consumer too.
+        Assert.assertArrayEquals(webp, entries.get("one.webp:image/webp"));
+        Assert.assertArrayEquals(png, entries.get("two.jpg:image/png"));
+        // not recognized, the name is used.
+        Assert.assertArrayEquals(bytes(100, 3), entries.get("three.jpg:image/jpeg"));
+    }
+
+    @Test
+    public void test_truncated_archive() throws Exception {
+        final byte[] zip = createZip(
+                "one.jpg", bytes(1000, 1),
+                "two.jpg", bytes(100000, 2)
+        );
+        final byte[] truncated = Arrays.copyOf(zip, zip.length / 2);
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        Assert.assertEquals(1, expander.expand("broken.zip", new ByteArrayInputStream(truncated),
+                (name, contentType, entry) -> entries.put(name, IOUtils.toByteArray(entry))));
+        Assert.assertArrayEquals(bytes(1000, 1), entries.get("one.jpg"));
+    }
+
+    @Test
+    public void test_encrypted_archive() throws Exception {
+        final byte[] zip = createZip(
+                "one.jpg", bytes(100, 1),
+                "two.jpg", bytes(100, 2)
+        );
+        // set the encrypted flag of the second local header.
+        int pos = 4;
+        while (!(zip[pos] == 'P' && zip[pos + 1] == 'K' && zip[pos + 2] == 3 && zip[pos + 3] == 4)) {
+            pos++;
+        }
+        zip[pos + 6] |= 1;
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        Assert.assertEquals(1, expander.expand("secret.zip", new ByteArrayInputStream(zip),
+                (name, contentType, entry) -> entries.put(name, IOUtils.toByteArray(entry))));
+        Assert.assertEquals(Collections.singleton("one.jpg"), entries.keySet());
+    }
+
+    @Test
+    public void test_consumer_errors_are_not_handled() throws Exception {
+        try {
+            expander.expand("gallery.zip", new ByteArrayInputStream(createZip("one.jpg", bytes(100, 1))),
+                    (name, contentType, entry) -> {
+                        throw new IOException("disk full");
+                    });
+            Assert.fail("expected an exception");
+        } catch (IOException e) {
+            Assert.assertEquals("disk full", e.getMessage());
+        }
+    }
+
+    private byte[] createZip(final Object... values) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ZipOutputStream zos = new ZipOutputStream(baos)) {
+            for (int idx = 0; idx < values.length; idx += 2) {
+                zos.putNextEntry(new ZipEntry((String) values[idx]));
+                if (values[idx + 1] != null) {
+                    zos.write((byte[]) values[idx + 1]);
+                }
+                zos.closeEntry();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] bytes(final int size,
+                         final int seed) {
+        final byte[] data = new byte[size];
+        for (int idx = 0; idx < size; idx++) {
+            data[idx] = (byte) (idx * 31 + seed);
+        }
+        return data;
+    }
+
+}
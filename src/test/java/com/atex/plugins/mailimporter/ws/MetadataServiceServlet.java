@@ -1,6 +1,7 @@
 package com.atex.plugins.mailimporter.ws;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -18,13 +19,20 @@ import com.atex.plugins.baseline.ws.BaseServiceServlet;
 @Ignore
 public class MetadataServiceServlet extends BaseServiceServlet<MetadataServiceServlet> {
 
+    private final AtomicInteger calls = new AtomicInteger();
+
     public MetadataServiceServlet(final int status) {
         super(MetadataServiceServlet.class, status);
     }
 
+    public int getCalls() {
+        return calls.get();
+    }
+
     @Override
     protected void doPost(final HttpServletRequest req, final HttpServletResponse resp)
             throws ServletException, IOException {
+        calls.incrementAndGet();
         this.serveResponse(resp);
     }
 }